@@ -0,0 +1,190 @@
+package it.tangodev.ble;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.EventType;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * The Flight Recorder events of GattEvents. It is compiled for Java 8 against jdk.jfr and only loaded by GattEvents
+ * when jdk.jfr is available. The event types are checked before the events are allocated, so an event that is not
+ * recorded allocates nothing.
+ */
+final class JfrGattEventRecorder implements GattEventRecorder {
+    private static final EventType READ = EventType.getEventType(ReadEvent.class);
+    private static final EventType WRITE = EventType.getEventType(WriteEvent.class);
+    private static final EventType NOTIFY = EventType.getEventType(NotifyEvent.class);
+    private static final EventType SUBSCRIPTION = EventType.getEventType(SubscriptionEvent.class);
+    private static final EventType CONNECTION = EventType.getEventType(ConnectionEvent.class);
+    private static final EventType REGISTRATION = EventType.getEventType(RegistrationEvent.class);
+
+    @Override
+    public void operation(GattMetrics.Operation operation, String path, String devicePath, int offset, int size,
+                          long startNanos, boolean failed) {
+        OperationEvent event;
+        switch (operation) {
+            case READ:
+                if (!READ.isEnabled()) {
+                    return;
+                }
+                event = new ReadEvent();
+                break;
+            case WRITE:
+                if (!WRITE.isEnabled()) {
+                    return;
+                }
+                event = new WriteEvent();
+                break;
+            default:
+                if (!NOTIFY.isEnabled()) {
+                    return;
+                }
+                event = new NotifyEvent();
+                offset = 0;
+        }
+        event.path = path;
+        event.device = devicePath;
+        event.offset = offset;
+        event.size = size;
+        event.latency = System.nanoTime() - startNanos;
+        event.failed = failed;
+        event.commit();
+    }
+
+    @Override
+    public void subscription(String path, String subscriber, boolean subscribed) {
+        if (!SUBSCRIPTION.isEnabled()) {
+            return;
+        }
+        SubscriptionEvent event = new SubscriptionEvent();
+        event.path = path;
+        event.subscriber = subscriber;
+        event.subscribed = subscribed;
+        event.commit();
+    }
+
+    @Override
+    public void connection(String devicePath, String address, boolean connected) {
+        if (!CONNECTION.isEnabled()) {
+            return;
+        }
+        ConnectionEvent event = new ConnectionEvent();
+        event.device = devicePath;
+        event.address = address;
+        event.connected = connected;
+        event.commit();
+    }
+
+    @Override
+    public void registration(String method, String adapterPath, String objectPath, long startNanos, boolean failed) {
+        if (!REGISTRATION.isEnabled()) {
+            return;
+        }
+        RegistrationEvent event = new RegistrationEvent();
+        event.method = method;
+        event.adapter = adapterPath;
+        event.path = objectPath;
+        event.latency = System.nanoTime() - startNanos;
+        event.failed = failed;
+        event.commit();
+    }
+
+    @Category({GattEvents.CATEGORY, "GATT"})
+    @StackTrace(false)
+    abstract static class OperationEvent extends Event {
+        @Label("Path")
+        String path;
+
+        @Label("Device")
+        String device;
+
+        @Label("Offset")
+        int offset;
+
+        @Label("Size")
+        @DataAmount
+        int size;
+
+        @Label("Latency")
+        @Description("Time from the call to the reply, the event is recorded when the call completes")
+        @Timespan(Timespan.NANOSECONDS)
+        long latency;
+
+        @Label("Failed")
+        boolean failed;
+    }
+
+    @Name("it.tangodev.ble.GattRead")
+    @Label("GATT Read")
+    static final class ReadEvent extends OperationEvent {
+    }
+
+    @Name("it.tangodev.ble.GattWrite")
+    @Label("GATT Write")
+    static final class WriteEvent extends OperationEvent {
+    }
+
+    @Name("it.tangodev.ble.GattNotify")
+    @Label("GATT Notification")
+    @Description("A notification queued on the publisher, failed if it was discarded")
+    static final class NotifyEvent extends OperationEvent {
+    }
+
+    @Name("it.tangodev.ble.GattSubscription")
+    @Label("GATT Subscription")
+    @Category({GattEvents.CATEGORY, "GATT"})
+    @StackTrace(false)
+    static final class SubscriptionEvent extends Event {
+        @Label("Path")
+        String path;
+
+        @Label("Subscriber")
+        String subscriber;
+
+        @Label("Subscribed")
+        @Description("True for StartNotify, false for StopNotify")
+        boolean subscribed;
+    }
+
+    @Name("it.tangodev.ble.DeviceConnection")
+    @Label("Device Connection")
+    @Category(GattEvents.CATEGORY)
+    @StackTrace(false)
+    static final class ConnectionEvent extends Event {
+        @Label("Device")
+        String device;
+
+        @Label("Address")
+        String address;
+
+        @Label("Connected")
+        boolean connected;
+    }
+
+    @Name("it.tangodev.ble.Registration")
+    @Label("BlueZ Registration")
+    @Category(GattEvents.CATEGORY)
+    @StackTrace(false)
+    static final class RegistrationEvent extends Event {
+        @Label("Method")
+        String method;
+
+        @Label("Adapter")
+        String adapter;
+
+        @Label("Path")
+        String path;
+
+        @Label("Latency")
+        @Timespan(Timespan.NANOSECONDS)
+        long latency;
+
+        @Label("Failed")
+        boolean failed;
+    }
+}
@@ -0,0 +1,35 @@
+package it.tangodev.ble;
+
+import org.freedesktop.dbus.Variant;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Map;
+
+/**
+ * BleAdvertisement.getProperties, served from the cache and built again after a change.
+ */
+@State(Scope.Benchmark)
+public class AdvertisementBenchmark {
+    private BleAdvertisement advertisement;
+
+    @Setup
+    public void setup() {
+        advertisement = new BleAdvertisement(BleAdvertisement.ADVERTISEMENT_TYPE_PERIPHERAL, "/bench/advertisement");
+        advertisement.addService(new BleService("/bench/s0", BenchmarkFixtures.uuid(0x1000), true));
+        advertisement.addSolicited(new BleService("/bench/s1", BenchmarkFixtures.uuid(0x1001), false));
+    }
+
+    @Benchmark
+    public Map<String, Map<String, Variant>> cached() {
+        return advertisement.getProperties();
+    }
+
+    @Benchmark
+    public Map<String, Map<String, Variant>> rebuild() {
+        advertisement.invalidateProperties();
+        return advertisement.getProperties();
+    }
+}
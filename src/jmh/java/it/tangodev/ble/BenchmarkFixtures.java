@@ -0,0 +1,84 @@
+package it.tangodev.ble;
+
+import it.tangodev.ble.BleCharacteristic.CharacteristicFlag;
+import org.freedesktop.dbus.Path;
+import org.freedesktop.dbus.UInt16;
+import org.freedesktop.dbus.Variant;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * GATT trees and BlueZ option maps for the benchmarks, no adapter and no D-Bus connection involved.
+ */
+final class BenchmarkFixtures {
+    static final String DEVICE_PATH = "/org/bluez/hci0/dev_00_11_22_33_44_55";
+    static final int CHARACTERISTICS_PER_SERVICE = 10;
+
+    private BenchmarkFixtures() {
+    }
+
+    /**
+     * An application with the given number of characteristics, 10 per service, each with one descriptor.
+     */
+    static BleApplication application(int characteristics) {
+        BleApplication application = new BleApplication("/bench", null);
+        BleService service = null;
+        for (int i = 0; i < characteristics; i++) {
+            if (i % CHARACTERISTICS_PER_SERVICE == 0) {
+                int s = i / CHARACTERISTICS_PER_SERVICE;
+                service = new BleService("/bench/s" + s, uuid(0x1000 + s), s == 0);
+                application.addService(service);
+            }
+            BleCharacteristic characteristic = characteristic(service, service.getPath().getPath() + "/c" + i, new byte[20]);
+            BleDescriptor descriptor = new BleDescriptor(characteristic.getPath().getPath() + "/d", characteristic,
+                    new BleDescriptor.DescriptorFlag[] { BleDescriptor.DescriptorFlag.READ }, uuid(0x2901));
+            descriptor.setValue("description".getBytes());
+            characteristic.addDescriptor(descriptor);
+            service.addCharacteristic(characteristic);
+        }
+        return application;
+    }
+
+    static BleCharacteristic characteristic(BleService service, String path, byte[] value) {
+        List<CharacteristicFlag> flags = Arrays.asList(CharacteristicFlag.READ, CharacteristicFlag.WRITE,
+                CharacteristicFlag.WRITE_WITHOUT_RESPONSE, CharacteristicFlag.NOTIFY);
+        return new BleCharacteristic(path, service, flags, uuid(0x3000), new BleCharacteristicListener() {
+            private volatile byte[] current = value;
+
+            @Override
+            public byte[] getValue(String devicePath) {
+                return current;
+            }
+
+            @Override
+            public void setValue(String devicePath, int offset, byte[] newValue) {
+                current = newValue;
+            }
+        });
+    }
+
+    /**
+     * The options BlueZ passes to ReadValue and WriteValue.
+     * @param type "request", "command" or null for a read
+     */
+    static Map<String, Variant> options(int offset, String type) {
+        Map<String, Variant> options = new HashMap<String, Variant>();
+        options.put("device", new Variant<Path>(new Path(DEVICE_PATH)));
+        options.put("link", new Variant<String>("LE"));
+        options.put("mtu", new Variant<UInt16>(new UInt16(247)));
+        if (offset > 0) {
+            options.put("offset", new Variant<UInt16>(new UInt16(offset)));
+        }
+        if (type != null) {
+            options.put("type", new Variant<String>(type));
+        }
+        return options;
+    }
+
+    static String uuid(int shortUuid) {
+        return String.format("%08x-0000-1000-8000-00805f9b34fb", shortUuid);
+    }
+}
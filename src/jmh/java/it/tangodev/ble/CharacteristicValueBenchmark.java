@@ -0,0 +1,72 @@
+package it.tangodev.ble;
+
+import org.freedesktop.dbus.Variant;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Map;
+
+/**
+ * ReadValue and WriteValue with the option maps BlueZ sends: a short value read in one go, a long value read
+ * in MTU sized chunks at increasing offsets, a write request and a write command.
+ */
+@State(Scope.Benchmark)
+public class CharacteristicValueBenchmark {
+    @Param({ "20", "512" })
+    public int valueLength;
+
+    private BleCharacteristic characteristic;
+    private Map<String, Variant> readOptions;
+    private Map<String, Variant>[] chunkOptions;
+    private Map<String, Variant> writeRequestOptions;
+    private Map<String, Variant> writeCommandOptions;
+    private byte[] value;
+
+    @Setup
+    @SuppressWarnings("unchecked")
+    public void setup() {
+        value = new byte[valueLength];
+        BleService service = new BleService("/bench/s0", BenchmarkFixtures.uuid(0x1000), true);
+        characteristic = BenchmarkFixtures.characteristic(service, "/bench/s0/c0", value);
+        service.addCharacteristic(characteristic);
+        readOptions = BenchmarkFixtures.options(0, null);
+        // ATT_MTU 247: 246 bytes per ReadValue reply
+        int chunks = (valueLength + 245) / 246;
+        chunkOptions = new Map[chunks];
+        for (int i = 0; i < chunks; i++) {
+            chunkOptions[i] = BenchmarkFixtures.options(i * 246, null);
+        }
+        writeRequestOptions = BenchmarkFixtures.options(0, "request");
+        writeCommandOptions = BenchmarkFixtures.options(0, "command");
+    }
+
+    @Benchmark
+    public byte[] readValue() {
+        return characteristic.ReadValue(readOptions);
+    }
+
+    /**
+     * All the ReadValue calls of one long read.
+     */
+    @Benchmark
+    public int longRead() {
+        int read = 0;
+        for (Map<String, Variant> options : chunkOptions) {
+            read += characteristic.ReadValue(options).length;
+        }
+        return read;
+    }
+
+    @Benchmark
+    public void writeRequest() {
+        characteristic.WriteValue(value, writeRequestOptions);
+    }
+
+    @Benchmark
+    public void writeCommand() {
+        characteristic.WriteValue(value, writeCommandOptions);
+    }
+}
@@ -0,0 +1,39 @@
+package it.tangodev.ble;
+
+import org.freedesktop.dbus.Path;
+import org.freedesktop.dbus.Variant;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Map;
+
+/**
+ * GetManagedObjects as BlueZ calls it at RegisterApplication: served from the tree snapshot, and rebuilt
+ * after a change of the structure.
+ */
+@State(Scope.Benchmark)
+public class GetManagedObjectsBenchmark {
+    @Param({ "1", "10", "100", "1000" })
+    public int characteristics;
+
+    private BleApplication application;
+
+    @Setup
+    public void setup() {
+        application = BenchmarkFixtures.application(characteristics);
+    }
+
+    @Benchmark
+    public Map<Path, Map<String, Map<String, Variant>>> snapshot() {
+        return application.GetManagedObjects();
+    }
+
+    @Benchmark
+    public Map<Path, Map<String, Map<String, Variant>>> rebuild() {
+        application.structureChanged();
+        return application.GetManagedObjects();
+    }
+}
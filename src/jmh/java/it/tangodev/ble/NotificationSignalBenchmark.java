@@ -0,0 +1,31 @@
+package it.tangodev.ble;
+
+import org.dbus.PropertiesChangedSignal.PropertiesChanged;
+import org.freedesktop.dbus.exceptions.DBusException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Construction of the PropertiesChanged signal of a notification by the BleNotificationPublisher:
+ * the signal is marshalled when constructed, sending it only writes the message.
+ */
+@State(Scope.Benchmark)
+public class NotificationSignalBenchmark {
+    @Param({ "20", "244" })
+    public int valueLength;
+
+    private byte[] value;
+
+    @Setup
+    public void setup() {
+        value = new byte[valueLength];
+    }
+
+    @Benchmark
+    public PropertiesChanged propertiesChanged() throws DBusException {
+        return BleNotificationPublisher.valueChanged("/bench/s0/c0", value);
+    }
+}
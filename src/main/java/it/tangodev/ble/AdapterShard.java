@@ -0,0 +1,47 @@
+package it.tangodev.ble;
+
+import it.tangodev.utils.BleAdapter;
+import org.bluez.GattManager1;
+import org.bluez.LEAdvertisingManager1;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * One of the adapters a BleApplication is registered on, with its own advertisement and load.
+ */
+final class AdapterShard {
+    final BleAdapter adapter;
+    final GattManager1 gattManager;
+    final LEAdvertisingManager1 advManager;
+    final BleAdvertisement advertisement;
+
+    final AtomicInteger connectedDevices = new AtomicInteger();
+    final AtomicLong totalConnections = new AtomicLong();
+
+    volatile boolean appRegistered = false;
+    volatile boolean advRegistered = false;
+    // a RegisterAdvertisement or UnregisterAdvertisement is waiting for its reply, guarded by the application's shard lock
+    boolean advChangePending = false;
+
+    AdapterShard(BleAdapter adapter, GattManager1 gattManager, LEAdvertisingManager1 advManager, BleAdvertisement advertisement) {
+        this.adapter = adapter;
+        this.gattManager = gattManager;
+        this.advManager = advManager;
+        this.advertisement = advertisement;
+    }
+
+    void connected() {
+        connectedDevices.incrementAndGet();
+        totalConnections.incrementAndGet();
+    }
+
+    void disconnected() {
+        connectedDevices.updateAndGet(count -> count > 0 ? count - 1 : 0);
+    }
+
+    BleAdapterLoad getLoad(int maxConnections) {
+        return new BleAdapterLoad(adapter.getPath(), adapter.getAddress(), connectedDevices.get(), maxConnections,
+                advRegistered, totalConnections.get());
+    }
+}
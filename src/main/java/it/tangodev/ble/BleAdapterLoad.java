@@ -0,0 +1,59 @@
+package it.tangodev.ble;
+
+/**
+ * Load of one of the adapters a BleApplication runs on, at the time it was taken.
+ */
+public class BleAdapterLoad {
+    private final String adapterPath;
+    private final String address;
+    private final int connectedDevices;
+    private final int maxConnections;
+    private final boolean advertising;
+    private final long totalConnections;
+
+    BleAdapterLoad(String adapterPath, String address, int connectedDevices, int maxConnections,
+                   boolean advertising, long totalConnections) {
+        this.adapterPath = adapterPath;
+        this.address = address;
+        this.connectedDevices = connectedDevices;
+        this.maxConnections = maxConnections;
+        this.advertising = advertising;
+        this.totalConnections = totalConnections;
+    }
+
+    public String getAdapterPath() {
+        return adapterPath;
+    }
+
+    public String getAddress() {
+        return address;
+    }
+
+    public int getConnectedDevices() {
+        return connectedDevices;
+    }
+
+    /**
+     * @return the max number of devices connected on the adapter before its advertising is paused, 0 for no limit
+     */
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+
+    public boolean isAdvertising() {
+        return advertising;
+    }
+
+    /**
+     * @return the number of connections since the application started
+     */
+    public long getTotalConnections() {
+        return totalConnections;
+    }
+
+    @Override
+    public String toString() {
+        return adapterPath + " [connected=" + connectedDevices + "/" + (maxConnections > 0 ? maxConnections : "-")
+                + ", advertising=" + advertising + ", total=" + totalConnections + "]";
+    }
+}
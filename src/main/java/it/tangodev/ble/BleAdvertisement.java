@@ -2,23 +2,51 @@ package it.tangodev.ble;
 
 import it.tangodev.utils.Utils;
 
-import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.bluez.LEAdvertisement1;
+import org.bluez.LEAdvertisingManager1;
+import org.dbus.PropertiesChangedSignal.PropertiesChanged;
 import org.freedesktop.DBus.Properties;
 import org.freedesktop.dbus.DBusConnection;
 import org.freedesktop.dbus.Path;
+import org.freedesktop.dbus.UInt16;
 import org.freedesktop.dbus.Variant;
 import org.freedesktop.dbus.exceptions.DBusException;
+import org.freedesktop.dbus.exceptions.DBusExecutionException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 public class BleAdvertisement implements LEAdvertisement1, Properties {
+	private static final Logger LOG = LoggerFactory.getLogger(BleAdvertisement.class);
 
 	public static final String ADVERTISEMENT_TYPE_BROADCAST = "broadcast";
 	public static final String ADVERTISEMENT_TYPE_PERIPHERAL = "peripheral";
-	
+
+	// bytes of AD structures in the advertising data of a legacy and of an extended advertising PDU
+	public static final int LEGACY_MAX_PAYLOAD = 31;
+	public static final int EXTENDED_MAX_PAYLOAD = 251;
+
+	/**
+	 * How a change of the data reaches BlueZ while the advertisement is registered.
+	 */
+	public enum UpdateMode {
+		// PropertiesChanged of the advertisement, BlueZ refreshes the advertising data in place
+		PROPERTIES_CHANGED,
+		// UnregisterAdvertisement and RegisterAdvertisement of this advertisement only, for the BlueZ that do not
+		// watch the advertisement properties. They run in the background, the changes made meanwhile are
+		// published together by one more re-registration
+		REREGISTER
+	}
+
 	private static final String LEADVERTISEMENT_INTERFACE = "org.bluez.LEAdvertisement1";
 	private static final String ADVERTISEMENT_TYPE_PROPERTY_KEY = "Type";
 	private static final String ADVERTISEMENT_SERVICES_UUIDS_PROPERTY_KEY = "ServiceUUIDs";
@@ -26,76 +54,494 @@ public class BleAdvertisement implements LEAdvertisement1, Properties {
 	private static final String ADVERTISEMENT_MANUFACTURER_DATA_PROPERTY_KEY = "ManufacturerData";
 	private static final String ADVERTISEMENT_SERVICE_DATA_PROPERTY_KEY = "ServiceData";
 	private static final String ADVERTISEMENT_INCLUDE_TX_POWER_PROPERTY_KEY = "IncludeTxPower";
+	private static final String BLUETOOTH_BASE_UUID_SUFFIX = "-0000-1000-8000-00805f9b34fb";
+
+	// runs the re-registrations of the REREGISTER mode, off the setters and the advertisement's monitor
+	private static final Executor REREGISTER_EXECUTOR = Executors.newCachedThreadPool(r -> {
+		Thread thread = new Thread(r, "ble-advertisement-update");
+		thread.setDaemon(true);
+		return thread;
+	});
 
 	private String type;
 	private List<String> servicesUUIDs;
-	private Map<Integer, Integer> manufacturerData;
+	// company identifier and service UUID to the data, replaced on each change
+	private volatile Map<Integer, byte[]> manufacturerData = Collections.emptyMap();
 	private List<String> solicitUUIDs;
-	private Map<String, Integer> serviceData;
+	private volatile Map<String, byte[]> serviceData = Collections.emptyMap();
 	private boolean includeTxPower = true;
 	private String path;
-	
+	private final Path dbusPath;
+	// the advertisement whose content this one mirrors on another adapter, null for a standalone advertisement
+	private final BleAdvertisement template;
+	private final List<BleAdvertisement> mirrors = new CopyOnWriteArrayList<BleAdvertisement>();
+	private volatile Map<String, Map<String, Variant>> cachedProperties;
+	// incremented on each change, a properties map built during a change is not cached
+	private volatile int modCount;
+
+	private volatile int maxPayloadSize = LEGACY_MAX_PAYLOAD;
+	private volatile UpdateMode updateMode = UpdateMode.PROPERTIES_CHANGED;
+	private volatile DBusConnection dbusConnection;
+	// the advertising managers the advertisement is registered on
+	private final List<LEAdvertisingManager1> registeredOn = new CopyOnWriteArrayList<LEAdvertisingManager1>();
+	// held by a re-registration, so that the advertisement is not registered again once it is withdrawn
+	private final Object registrationLock = new Object();
+	private final LatencyHistogram updateLatency = new LatencyHistogram();
+	private volatile long firstUpdateNanos;
+	// data changes not yet re-registered, a re-registration runs while it is not 0
+	private final AtomicInteger pendingReregistrations = new AtomicInteger();
+
 	/**
-	 * 
+	 *
 	 * @param type
 	 * @param path: absolute path of the advertisement
 	 */
 	public BleAdvertisement(String type, String path) {
 		this.type = type;
 		this.path = path;
-		this.servicesUUIDs = new ArrayList<>();
-		this.solicitUUIDs = new ArrayList<>();
+		this.dbusPath = new Path(path);
+		this.servicesUUIDs = new CopyOnWriteArrayList<>();
+		this.solicitUUIDs = new CopyOnWriteArrayList<>();
+		this.template = null;
 	}
 
-	public void addService(BleService service) {
+	/**
+	 * Advertisement with the same content of the template, changes of the template included.
+	 * It advertises the application on another adapter.
+	 */
+	BleAdvertisement(BleAdvertisement template, String path) {
+		this.type = template.type;
+		this.path = path;
+		this.dbusPath = new Path(path);
+		this.servicesUUIDs = new CopyOnWriteArrayList<>();
+		this.solicitUUIDs = new CopyOnWriteArrayList<>();
+		this.template = template;
+	}
+
+	/**
+	 * @throws IllegalArgumentException if the advertising data would exceed the max payload size
+	 */
+	public synchronized void addService(BleService service) {
 		this.servicesUUIDs.add(service.getUuid());
+		try {
+			checkPayloadSize(manufacturerData, serviceData);
+		} catch (IllegalArgumentException e) {
+			this.servicesUUIDs.remove(this.servicesUUIDs.size() - 1);
+			throw e;
+		}
+		invalidateProperties();
 	}
 
-	public void addSolicited(BleService service) {
+	/**
+	 * @throws IllegalArgumentException if the advertising data would exceed the max payload size
+	 */
+	public synchronized void addSolicited(BleService service) {
 		this.solicitUUIDs.add(service.getUuid());
+		try {
+			checkPayloadSize(manufacturerData, serviceData);
+		} catch (IllegalArgumentException e) {
+			this.solicitUUIDs.remove(this.solicitUUIDs.size() - 1);
+			throw e;
+		}
+		invalidateProperties();
 	}
 
-	public void setType(String type) {
+	/**
+	 * @throws IllegalArgumentException if the advertising data would exceed the max payload size, i.e. with the
+	 *                                  flags of a peripheral
+	 */
+	public synchronized void setType(String type) {
+		String previous = this.type;
 		this.type = type;
+		try {
+			checkPayloadSize(manufacturerData, serviceData);
+		} catch (IllegalArgumentException e) {
+			this.type = previous;
+			throw e;
+		}
+		invalidateProperties();
 	}
 
-	public void setManufacturerData(Map<Integer, Integer> manufacturerData) {
-		this.manufacturerData = manufacturerData;
+	/**
+	 * Set the manufacturer specific data of the company, replacing its previous data.
+	 * If the advertisement is registered the new data is on air without registering it again.
+	 * @param companyId the Bluetooth SIG company identifier
+	 * @param data the data, null to remove the company's data
+	 * @throws IllegalArgumentException if the advertising data would exceed the max payload size
+	 */
+	public synchronized void setManufacturerData(int companyId, byte[] data) {
+		Map<Integer, byte[]> newData = new LinkedHashMap<Integer, byte[]>(manufacturerData);
+		if (data != null) {
+			newData.put(companyId, data.clone());
+		} else {
+			newData.remove(companyId);
+		}
+		checkPayloadSize(newData, serviceData);
+		manufacturerData = Collections.unmodifiableMap(newData);
+		invalidateProperties();
+		publish(ADVERTISEMENT_MANUFACTURER_DATA_PROPERTY_KEY);
 	}
 
-	public void setServiceData(Map<String, Integer> serviceData) {
-		this.serviceData = serviceData;
+	/**
+	 * Set the data of the service, replacing its previous data.
+	 * If the advertisement is registered the new data is on air without registering it again.
+	 * @param uuid the service UUID
+	 * @param data the data, null to remove the service's data
+	 * @throws IllegalArgumentException if the advertising data would exceed the max payload size
+	 */
+	public synchronized void setServiceData(String uuid, byte[] data) {
+		Map<String, byte[]> newData = new LinkedHashMap<String, byte[]>(serviceData);
+		if (data != null) {
+			newData.put(uuid, data.clone());
+		} else {
+			newData.remove(uuid);
+		}
+		checkPayloadSize(manufacturerData, newData);
+		serviceData = Collections.unmodifiableMap(newData);
+		invalidateProperties();
+		publish(ADVERTISEMENT_SERVICE_DATA_PROPERTY_KEY);
 	}
 
-	public void setIncludeTxPower(boolean includeTxPower) {
+	/**
+	 * @deprecated the data is a byte array, use setManufacturerData(int, byte[]). Each value is sent as one byte.
+	 */
+	@Deprecated
+	public synchronized void setManufacturerData(Map<Integer, Integer> manufacturerData) {
+		Map<Integer, byte[]> newData = new LinkedHashMap<Integer, byte[]>();
+		if (manufacturerData != null) {
+			for (Map.Entry<Integer, Integer> entry : manufacturerData.entrySet()) {
+				newData.put(entry.getKey(), new byte[] { entry.getValue().byteValue() });
+			}
+		}
+		checkPayloadSize(newData, serviceData);
+		this.manufacturerData = Collections.unmodifiableMap(newData);
+		invalidateProperties();
+		publish(ADVERTISEMENT_MANUFACTURER_DATA_PROPERTY_KEY);
+	}
+
+	/**
+	 * @deprecated the data is a byte array, use setServiceData(String, byte[]). Each value is sent as one byte.
+	 */
+	@Deprecated
+	public synchronized void setServiceData(Map<String, Integer> serviceData) {
+		Map<String, byte[]> newData = new LinkedHashMap<String, byte[]>();
+		if (serviceData != null) {
+			for (Map.Entry<String, Integer> entry : serviceData.entrySet()) {
+				newData.put(entry.getKey(), new byte[] { entry.getValue().byteValue() });
+			}
+		}
+		checkPayloadSize(manufacturerData, newData);
+		this.serviceData = Collections.unmodifiableMap(newData);
+		invalidateProperties();
+		publish(ADVERTISEMENT_SERVICE_DATA_PROPERTY_KEY);
+	}
+
+	/**
+	 * @throws IllegalArgumentException if the advertising data would exceed the max payload size
+	 */
+	public synchronized void setIncludeTxPower(boolean includeTxPower) {
+		boolean previous = this.includeTxPower;
 		this.includeTxPower = includeTxPower;
+		try {
+			checkPayloadSize(manufacturerData, serviceData);
+		} catch (IllegalArgumentException e) {
+			this.includeTxPower = previous;
+			throw e;
+		}
+		invalidateProperties();
 	}
 
 	public boolean hasServices() {
 		return servicesUUIDs != null && !servicesUUIDs.isEmpty();
 	}
 
+	/**
+	 * Set the max size of the advertising data, LEGACY_MAX_PAYLOAD by default. Use EXTENDED_MAX_PAYLOAD only
+	 * if the controller supports extended advertising, BlueZ then advertises the data in an extended PDU.
+	 * @throws IllegalArgumentException if the current advertising data exceeds the new max
+	 */
+	public synchronized void setMaxPayloadSize(int maxPayloadSize) {
+		checkPayloadSize(payloadSize(manufacturerData, serviceData), maxPayloadSize);
+		this.maxPayloadSize = maxPayloadSize;
+	}
+
+	public int getMaxPayloadSize() {
+		return maxPayloadSize;
+	}
+
+	/**
+	 * @return the size of the AD structures of the advertising data, with the flags BlueZ adds to a peripheral
+	 */
+	public int getPayloadSize() {
+		return payloadSize(manufacturerData, serviceData);
+	}
+
+	public void setUpdateMode(UpdateMode updateMode) {
+		this.updateMode = updateMode;
+	}
+
+	public UpdateMode getUpdateMode() {
+		return updateMode;
+	}
+
+	/**
+	 * @return the number of data changes that reached BlueZ while the advertisement was registered, in REREGISTER
+	 * mode the number of re-registrations
+	 */
+	public long getUpdateCount() {
+		return updateLatency.getCount();
+	}
+
+	/**
+	 * @return the time each data change took to reach BlueZ: sending the PropertiesChanged signal, or the
+	 * UnregisterAdvertisement and RegisterAdvertisement round trip
+	 */
+	public LatencyHistogram getUpdateLatency() {
+		return updateLatency;
+	}
+
+	/**
+	 * @return the data changes per second since the first one
+	 */
+	public double getUpdateRate() {
+		long count = updateLatency.getCount();
+		long elapsed = System.nanoTime() - firstUpdateNanos;
+		return count > 1 && elapsed > 0 ? (count - 1) * 1e9 / elapsed : 0;
+	}
+
 	protected void export(DBusConnection dbusConnection) throws DBusException {
 		dbusConnection.exportObject(this.getPath().toString(), this);
+		this.dbusConnection = dbusConnection;
+		if (template != null) {
+			template.mirrors.add(this);
+		}
 	}
 
 	protected void unexport(DBusConnection dBusConnection) throws DBusException {
+		if (template != null) {
+			template.mirrors.remove(this);
+		}
+		synchronized (registrationLock) {
+			this.dbusConnection = null;
+			registeredOn.clear();
+		}
 		dBusConnection.unExportObject(this.getPath().toString());
 	}
-	
+
+	/**
+	 * Record that the advertisement is registered on the manager, its data changes are then published.
+	 */
+	void registered(LEAdvertisingManager1 advManager) {
+		synchronized (registrationLock) {
+			if (!registeredOn.contains(advManager)) {
+				registeredOn.add(advManager);
+			}
+		}
+	}
+
+	/**
+	 * Record that the advertisement is being unregistered from the manager, before the UnregisterAdvertisement
+	 * call: it waits for the re-registration in progress.
+	 */
+	void unregistered(LEAdvertisingManager1 advManager) {
+		synchronized (registrationLock) {
+			registeredOn.remove(advManager);
+		}
+	}
+
 	/**
 	 * Return the Path (dbus class)
 	 * @return
 	 */
 	public Path getPath() {
-		return new Path(path);
+		return dbusPath;
+	}
+
+	/**
+	 * Drop the cached properties, they are built again on the next request.
+	 */
+	protected void invalidateProperties() {
+		modCount++;
+		cachedProperties = null;
+	}
+
+	/**
+	 * Send the changed property to BlueZ on this advertisement and its mirrors, where registered.
+	 * The signals are only queued on the connection, the re-registrations run on REREGISTER_EXECUTOR.
+	 */
+	private void publish(String property) {
+		if (registeredOn.isEmpty() && mirrors.isEmpty()) {
+			return;
+		}
+		if ((template != null ? template.updateMode : updateMode) == UpdateMode.REREGISTER) {
+			if (pendingReregistrations.getAndIncrement() == 0) {
+				REREGISTER_EXECUTOR.execute(this::reregisterPending);
+			}
+			return;
+		}
+		long start = System.nanoTime();
+		boolean published = sendPropertyChanged(property);
+		for (BleAdvertisement mirror : mirrors) {
+			published |= mirror.sendPropertyChanged(property);
+		}
+		if (published) {
+			recordUpdate(start);
+		}
+	}
+
+	private boolean sendPropertyChanged(String property) {
+		DBusConnection connection = dbusConnection;
+		if (connection == null || registeredOn.isEmpty()) {
+			return false;
+		}
+		Variant value = getProperties().get(LEADVERTISEMENT_INTERFACE).get(property);
+		try {
+			if (value != null) {
+				connection.sendSignal(new PropertiesChanged(path, LEADVERTISEMENT_INTERFACE,
+						Collections.singletonMap(property, value), Collections.<String>emptyList()));
+			} else {
+				connection.sendSignal(new PropertiesChanged(path, LEADVERTISEMENT_INTERFACE,
+						Collections.<String, Variant>emptyMap(), Collections.singletonList(property)));
+			}
+		} catch (DBusException e) {
+			LOG.error("Unable to publish " + property + " of advertisement " + path, e);
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Register again this advertisement and its mirrors until no change is pending: BlueZ reads the properties
+	 * at registration, so one re-registration publishes all the changes made before it.
+	 */
+	private void reregisterPending() {
+		int pending = pendingReregistrations.get();
+		do {
+			long start = System.nanoTime();
+			boolean published = reregister();
+			for (BleAdvertisement mirror : mirrors) {
+				published |= mirror.reregister();
+			}
+			if (published) {
+				recordUpdate(start);
+			}
+		} while ((pending = pendingReregistrations.addAndGet(-pending)) > 0);
+	}
+
+	private boolean reregister() {
+		boolean published = false;
+		synchronized (registrationLock) {
+			if (dbusConnection == null) {
+				return false;
+			}
+			for (LEAdvertisingManager1 advManager : registeredOn) {
+				try {
+					advManager.UnregisterAdvertisement(this);
+					advManager.RegisterAdvertisement(this, new HashMap<String, Variant>());
+					published = true;
+				} catch (RuntimeException e) {
+					LOG.error("Unable to register again advertisement " + path, e);
+					registeredOn.remove(advManager);
+				}
+			}
+		}
+		return published;
+	}
+
+	private void recordUpdate(long start) {
+		if (updateLatency.getCount() == 0) {
+			firstUpdateNanos = start;
+		}
+		updateLatency.record(System.nanoTime() - start);
+	}
+
+	private void checkPayloadSize(Map<Integer, byte[]> manufacturerData, Map<String, byte[]> serviceData) {
+		checkPayloadSize(payloadSize(manufacturerData, serviceData), maxPayloadSize);
+	}
+
+	private void checkPayloadSize(int size, int maxPayloadSize) {
+		if (size > maxPayloadSize) {
+			throw new IllegalArgumentException("Advertising data of " + path + " is " + size
+					+ " bytes, more than the " + maxPayloadSize + " bytes max");
+		}
+	}
+
+	/**
+	 * The AD structures are a length byte, a type byte and the data.
+	 */
+	private int payloadSize(Map<Integer, byte[]> manufacturerData, Map<String, byte[]> serviceData) {
+		int size = 0;
+		if (ADVERTISEMENT_TYPE_PERIPHERAL.equals(type)) {
+			size += 3; // flags
+		}
+		if (includeTxPower) {
+			size += 3;
+		}
+		size += uuidListSize(servicesUUIDs) + uuidListSize(solicitUUIDs);
+		for (byte[] data : manufacturerData.values()) {
+			size += 2 + 2 + data.length;
+		}
+		for (Map.Entry<String, byte[]> entry : serviceData.entrySet()) {
+			size += 2 + uuidSize(entry.getKey()) + entry.getValue().length;
+		}
+		return size;
 	}
-	
+
+	/**
+	 * The 16 bits, the 32 bits and the 128 bits UUIDs go in three AD structures.
+	 */
+	private static int uuidListSize(List<String> uuids) {
+		int uuids16 = 0;
+		int uuids32 = 0;
+		int uuids128 = 0;
+		for (String uuid : uuids) {
+			switch (uuidSize(uuid)) {
+				case 2:
+					uuids16++;
+					break;
+				case 4:
+					uuids32++;
+					break;
+				default:
+					uuids128++;
+			}
+		}
+		return (uuids16 > 0 ? 2 + 2 * uuids16 : 0) + (uuids32 > 0 ? 2 + 4 * uuids32 : 0)
+				+ (uuids128 > 0 ? 2 + 16 * uuids128 : 0);
+	}
+
+	/**
+	 * The size of the UUID as BlueZ advertises it: 4 hex digits are a 16 bits UUID, 8 a 32 bits one, and a 128 bits
+	 * UUID on the Bluetooth base is shortened to 16 bits.
+	 */
+	private static int uuidSize(String uuid) {
+		String value = uuid.startsWith("0x") || uuid.startsWith("0X") ? uuid.substring(2) : uuid;
+		if (value.length() <= 4) {
+			return 2;
+		}
+		if (value.length() <= 8) {
+			return 4;
+		}
+		String lower = value.toLowerCase();
+		return lower.startsWith("0000") && lower.endsWith(BLUETOOTH_BASE_UUID_SUFFIX) ? 2 : 16;
+	}
+
+	/**
+	 * Return the D-Bus properties. The map is immutable and built again only after a change of the advertisement.
+	 * @return
+	 */
 	public Map<String, Map<String, Variant>> getProperties() {
-		System.out.println("Advertisement -> getAdvertisementProperties");
-		
+		if (template != null) {
+			return template.getProperties();
+		}
+		Map<String, Map<String, Variant>> properties = cachedProperties;
+		if (properties != null) {
+			return properties;
+		}
+		int expectedModCount = modCount;
+
 		Map<String, Variant> advertisementMap = new HashMap<String, Variant>();
-		
+
 		Variant<String> Type = new Variant<String>(this.type);
 		advertisementMap.put(ADVERTISEMENT_TYPE_PROPERTY_KEY, Type);
 
@@ -107,50 +553,61 @@ public class BleAdvertisement implements LEAdvertisement1, Properties {
 			Variant<String[]> solicitUUIDs = new Variant<String[]>(Utils.getStringArrayFromList(this.solicitUUIDs));
 			advertisementMap.put(ADVERTISEMENT_SOLICIT_UUIDS_PROPERTY_KEY, solicitUUIDs);
 		}
-		if(manufacturerData != null) {
-			Variant<Map<Integer, Integer>> manufacturerData = new Variant<Map<Integer, Integer>>(this.manufacturerData);
-			advertisementMap.put(ADVERTISEMENT_MANUFACTURER_DATA_PROPERTY_KEY, manufacturerData);
+		Map<Integer, byte[]> manufacturerData = this.manufacturerData;
+		if(!manufacturerData.isEmpty()) {
+			Map<UInt16, Variant> data = new HashMap<UInt16, Variant>();
+			for (Map.Entry<Integer, byte[]> entry : manufacturerData.entrySet()) {
+				data.put(new UInt16(entry.getKey()), new Variant<byte[]>(entry.getValue()));
+			}
+			advertisementMap.put(ADVERTISEMENT_MANUFACTURER_DATA_PROPERTY_KEY, new Variant<Map<UInt16, Variant>>(data, "a{qv}"));
 		}
-		if(serviceData != null) {
-			Variant<Map<String, Integer>> serviceData = new Variant<Map<String, Integer>>(this.serviceData);
-			advertisementMap.put(ADVERTISEMENT_SERVICE_DATA_PROPERTY_KEY, serviceData);
+		Map<String, byte[]> serviceData = this.serviceData;
+		if(!serviceData.isEmpty()) {
+			Map<String, Variant> data = new HashMap<String, Variant>();
+			for (Map.Entry<String, byte[]> entry : serviceData.entrySet()) {
+				data.put(entry.getKey(), new Variant<byte[]>(entry.getValue()));
+			}
+			advertisementMap.put(ADVERTISEMENT_SERVICE_DATA_PROPERTY_KEY, new Variant<Map<String, Variant>>(data, "a{sv}"));
 		}
-		
+
 		Variant<Boolean> includeTxPower = new Variant<Boolean>(this.includeTxPower);
 		advertisementMap.put(ADVERTISEMENT_INCLUDE_TX_POWER_PROPERTY_KEY, includeTxPower);
-		
+
 		Map<String, Map<String, Variant>> externalMap = new HashMap<String, Map<String, Variant>>();
-		externalMap.put(LEADVERTISEMENT_INTERFACE, advertisementMap);
-		
-		return externalMap;
+		externalMap.put(LEADVERTISEMENT_INTERFACE, Collections.unmodifiableMap(advertisementMap));
+
+		properties = Collections.unmodifiableMap(externalMap);
+		if (expectedModCount == modCount) {
+			cachedProperties = properties;
+		}
+		return properties;
 	}
-	
+
 	@Override
 	public boolean isRemote() { return false; }
 
 	@Override
 	public void Release() {
-		// TODO Auto-generated method stub
-		System.out.println("LE Advertisement Release called !!");
+		LOG.debug("Release {}", path);
+		registeredOn.clear();
 	}
 
 	@Override
-	public <A> A Get(String arg0, String arg1) {
-		// TODO Auto-generated method stub
-		return null;
+	public <A> A Get(String interface_name, String property_name) {
+		return GattProperties.get(getProperties(), interface_name, property_name);
 	}
 
+	/**
+	 * The advertisement properties are read only, they are changed with the setters.
+	 */
 	@Override
-	public <A> void Set(String arg0, String arg1, A arg2) {
-		// TODO Auto-generated method stub
+	public <A> void Set(String interface_name, String property_name, A value) {
+		GattProperties.checkWritable(getProperties(), interface_name, property_name);
 	}
-	
+
 	@Override
 	public Map<String, Variant> GetAll(String interfaceName) {
-		if(LEADVERTISEMENT_INTERFACE.equals(interfaceName)) {
-			return this.getProperties().get(LEADVERTISEMENT_INTERFACE);
-		}
-		throw new RuntimeException("Wrong interface [interface_name=" + interfaceName + "]");
+		return GattProperties.getAll(getProperties(), interfaceName);
 	}
 
 }
@@ -0,0 +1,515 @@
+package it.tangodev.ble;
+
+import org.bluez.LEAdvertisingManager1;
+import org.freedesktop.dbus.DBusConnection;
+import org.freedesktop.dbus.Variant;
+import org.freedesktop.dbus.exceptions.DBusException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * BleAdvertisementScheduler shares the advertising slots of the adapter among more advertisements than the
+ * controller can run at once, registering and unregistering them on LEAdvertisingManager1 in turns.
+ *
+ * Each advertisement stays registered for its duration, then the free slots go to the advertisements with the
+ * highest priority and, among equal priorities, to the ones with the least airtime for their weight: an
+ * advertisement with weight 2 is on air twice as long as one with weight 1. When there are enough slots for all
+ * of them the advertisements stay registered and nothing rotates.
+ *
+ * The scheduler of a BleApplication runs on its first adapter, with the slots SupportedInstances reports once the
+ * application's own advertisement is registered: BlueZ reports the instances still available.
+ */
+public class BleAdvertisementScheduler {
+    private static final Logger LOG = LoggerFactory.getLogger(BleAdvertisementScheduler.class);
+
+    public static final int DEFAULT_PRIORITY = 0;
+    public static final int DEFAULT_WEIGHT = 1;
+
+    // highest priority first, then the least airtime for the weight, the advertisements on air first on a tie
+    private static final Comparator<Entry> ORDER = (a, b) -> {
+        if (a.priority != b.priority) {
+            return Integer.compare(b.priority, a.priority);
+        }
+        int byPass = Double.compare(a.pass(), b.pass());
+        if (byPass != 0) {
+            return byPass;
+        }
+        return Boolean.compare(b.onAir, a.onAir);
+    };
+
+    private final List<Entry> entries = new ArrayList<Entry>();
+    // serializes the RegisterAdvertisement and UnregisterAdvertisement calls, made without the monitor so that the
+    // getters and add() do not wait for BlueZ, taken before the monitor
+    private final Object callLock = new Object();
+    private ScheduledExecutorService executor;
+    private ScheduledFuture<?> nextRotation;
+    private DBusConnection dbusConnection;
+    private LEAdvertisingManager1 advManager;
+    private String adapterPath;
+    private int slots;
+    private long stoppedAt;
+
+    private long rotationCount;
+    private long rotationOverheadNanos;
+
+    private static final class Entry {
+        final BleAdvertisement advertisement;
+        final int priority;
+        final int weight;
+        final long durationNanos;
+
+        boolean exported;
+        boolean onAir;
+        long onAirSince;
+        long turnEnds;
+        long airtimeNanos;
+        // the turns lost to failed registrations, counted in the pass but not in the airtime
+        long penaltyNanos;
+        long scheduledSince;
+        long registrations;
+        long failures;
+        long callNanos;
+
+        Entry(BleAdvertisement advertisement, int priority, int weight, long durationNanos) {
+            this.advertisement = advertisement;
+            this.priority = priority;
+            this.weight = weight;
+            this.durationNanos = durationNanos;
+        }
+
+        double pass() {
+            return (double) (airtimeNanos + penaltyNanos) / weight;
+        }
+
+        String path() {
+            return advertisement.getPath().getPath();
+        }
+    }
+
+    private static final class Call {
+        final Entry entry;
+        final long start = System.nanoTime();
+        long end;
+        boolean failed = true;
+
+        Call(Entry entry) {
+            this.entry = entry;
+        }
+
+        long nanos() {
+            return end - start;
+        }
+    }
+
+    /**
+     * Add an advertisement to the rotation, it can be added while the application is started.
+     * @param priority the advertisements with a lower priority get the slots the higher ones leave free
+     * @param weight the share of the airtime among the advertisements of the same priority, at least 1
+     * @param duration how long the advertisement stays registered at each turn
+     */
+    public synchronized void add(BleAdvertisement advertisement, int priority, int weight, long duration, TimeUnit unit) {
+        if (weight < 1) {
+            throw new IllegalArgumentException("The weight must be at least 1");
+        }
+        if (duration <= 0) {
+            throw new IllegalArgumentException("The duration must be positive");
+        }
+        if (find(advertisement) != null) {
+            throw new IllegalArgumentException("Advertisement " + advertisement.getPath() + " already scheduled");
+        }
+        Entry entry = new Entry(advertisement, priority, weight, unit.toNanos(duration));
+        // it starts level with the others of its priority, not ahead of them for the airtime it never had
+        double minPass = Double.MAX_VALUE;
+        for (Entry other : entries) {
+            if (other.priority == priority) {
+                minPass = Math.min(minPass, other.pass());
+            }
+        }
+        if (minPass != Double.MAX_VALUE) {
+            entry.airtimeNanos = (long) (minPass * weight);
+        }
+        entries.add(entry);
+        if (executor != null) {
+            entry.scheduledSince = System.nanoTime() - entry.airtimeNanos;
+            export(entry);
+            rotateSoon();
+        }
+    }
+
+    public void add(BleAdvertisement advertisement, long duration, TimeUnit unit) {
+        add(advertisement, DEFAULT_PRIORITY, DEFAULT_WEIGHT, duration, unit);
+    }
+
+    /**
+     * Remove the advertisement from the rotation, it is unregistered if on air.
+     * @return false if the advertisement was not scheduled
+     */
+    public boolean remove(BleAdvertisement advertisement) {
+        synchronized (callLock) {
+            Entry entry;
+            boolean onAir;
+            boolean exported;
+            LEAdvertisingManager1 advManager;
+            String adapterPath;
+            DBusConnection dbusConnection;
+            synchronized (this) {
+                entry = find(advertisement);
+                if (entry == null) {
+                    return false;
+                }
+                entries.remove(entry);
+                if (executor == null) {
+                    return true;
+                }
+                onAir = entry.onAir;
+                if (onAir) {
+                    takeOffAir(entry, System.nanoTime());
+                }
+                exported = entry.exported;
+                entry.exported = false;
+                advManager = this.advManager;
+                adapterPath = this.adapterPath;
+                dbusConnection = this.dbusConnection;
+                rotateSoon();
+            }
+            if (onAir) {
+                unregister(advManager, adapterPath, entry);
+            }
+            if (exported) {
+                unexport(dbusConnection, entry);
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Start the rotation on the adapter. The counters and the airtime restart from zero.
+     * @param slots the advertising slots of the adapter the scheduler can use
+     */
+    void start(DBusConnection dbusConnection, String adapterPath, LEAdvertisingManager1 advManager, int slots) {
+        synchronized (callLock) {
+            synchronized (this) {
+                startRotation(dbusConnection, adapterPath, advManager, slots);
+            }
+        }
+    }
+
+    private void startRotation(DBusConnection dbusConnection, String adapterPath, LEAdvertisingManager1 advManager, int slots) {
+        if (executor != null) {
+            throw new IllegalStateException("Advertisement scheduler already started");
+        }
+        this.dbusConnection = dbusConnection;
+        this.adapterPath = adapterPath;
+        this.advManager = advManager;
+        this.slots = slots;
+        rotationCount = 0;
+        rotationOverheadNanos = 0;
+        long now = System.nanoTime();
+        for (Entry entry : entries) {
+            entry.airtimeNanos = 0;
+            entry.penaltyNanos = 0;
+            entry.registrations = 0;
+            entry.failures = 0;
+            entry.callNanos = 0;
+            entry.scheduledSince = now;
+            export(entry);
+        }
+        executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "ble-advertisement-scheduler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        LOG.debug("advertisement scheduler started on {} with {} slots", adapterPath, slots);
+        rotateSoon();
+    }
+
+    /**
+     * Unregister the advertisements on air and stop the rotation.
+     */
+    void stop() {
+        synchronized (callLock) {
+            List<Entry> onAir = new ArrayList<Entry>();
+            List<Entry> exported = new ArrayList<Entry>();
+            LEAdvertisingManager1 advManager;
+            String adapterPath;
+            DBusConnection dbusConnection;
+            synchronized (this) {
+                if (executor == null) {
+                    return;
+                }
+                if (nextRotation != null) {
+                    nextRotation.cancel(false);
+                    nextRotation = null;
+                }
+                executor.shutdown();
+                executor = null;
+                long now = System.nanoTime();
+                for (Entry entry : entries) {
+                    if (entry.onAir) {
+                        takeOffAir(entry, now);
+                        onAir.add(entry);
+                    }
+                    if (entry.exported) {
+                        entry.exported = false;
+                        exported.add(entry);
+                    }
+                }
+                stoppedAt = now;
+                advManager = this.advManager;
+                adapterPath = this.adapterPath;
+                dbusConnection = this.dbusConnection;
+                this.dbusConnection = null;
+                this.advManager = null;
+            }
+            List<Call> calls = new ArrayList<Call>();
+            for (Entry entry : onAir) {
+                calls.add(unregister(advManager, adapterPath, entry));
+            }
+            for (Entry entry : exported) {
+                unexport(dbusConnection, entry);
+            }
+            synchronized (this) {
+                for (Call call : calls) {
+                    call.entry.callNanos += call.nanos();
+                }
+            }
+        }
+    }
+
+    public synchronized int getSlots() {
+        return slots;
+    }
+
+    /**
+     * @return the number of rotations that registered or unregistered an advertisement
+     */
+    public synchronized long getRotationCount() {
+        return rotationCount;
+    }
+
+    /**
+     * @return the time spent in RegisterAdvertisement and UnregisterAdvertisement by the rotations
+     */
+    public synchronized long getRotationOverhead(TimeUnit unit) {
+        return unit.convert(rotationOverheadNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @return the airtime of each advertisement since the application started
+     */
+    public synchronized List<BleAdvertisementStats> getStats() {
+        long now = executor != null ? System.nanoTime() : stoppedAt;
+        List<BleAdvertisementStats> stats = new ArrayList<BleAdvertisementStats>(entries.size());
+        for (Entry entry : entries) {
+            long airtime = entry.airtimeNanos + (entry.onAir ? now - entry.onAirSince : 0);
+            long scheduled = now - entry.scheduledSince;
+            double dutyCycle = scheduled > 0 ? Math.min(1.0, (double) airtime / scheduled) : 0;
+            long calls = entry.registrations + entry.failures;
+            stats.add(new BleAdvertisementStats(entry.path(), entry.priority, entry.weight, entry.onAir,
+                    entry.registrations, entry.failures, TimeUnit.NANOSECONDS.toMillis(airtime), dutyCycle,
+                    calls > 0 ? TimeUnit.NANOSECONDS.toMicros(entry.callNanos / calls) : 0));
+        }
+        return stats;
+    }
+
+    private Entry find(BleAdvertisement advertisement) {
+        for (Entry entry : entries) {
+            if (entry.advertisement == advertisement || entry.path().equals(advertisement.getPath().getPath())) {
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    private void rotateSoon() {
+        if (nextRotation != null) {
+            nextRotation.cancel(false);
+        }
+        nextRotation = executor.schedule(this::scheduledRotate, 0, TimeUnit.NANOSECONDS);
+    }
+
+    private void scheduledRotate() {
+        try {
+            rotate();
+        } catch (RuntimeException e) {
+            LOG.error("Advertisement rotation failed", e);
+        }
+    }
+
+    /**
+     * Give the slots of the advertisements whose turn ended, then schedule the next rotation. The entries are
+     * chosen under the monitor, registered and unregistered without it, and the results recorded under it again.
+     */
+    void rotate() {
+        synchronized (callLock) {
+            List<Entry> unregistering = new ArrayList<Entry>();
+            List<Entry> registering = new ArrayList<Entry>();
+            LEAdvertisingManager1 advManager;
+            String adapterPath;
+            synchronized (this) {
+                if (executor == null) {
+                    return;
+                }
+                // a rotation requested from now on is not replaced by the next scheduled one
+                nextRotation = null;
+                long now = System.nanoTime();
+                List<Entry> candidates = new ArrayList<Entry>();
+                int free = slots;
+                for (Entry entry : entries) {
+                    if (entry.onAir) {
+                        entry.airtimeNanos += now - entry.onAirSince;
+                        entry.onAirSince = now;
+                        if (entry.turnEnds - now > 0) {
+                            free--;
+                            continue;
+                        }
+                    }
+                    candidates.add(entry);
+                }
+                Collections.sort(candidates, ORDER);
+                int chosen = Math.max(0, Math.min(free, candidates.size()));
+                for (Entry entry : candidates.subList(chosen, candidates.size())) {
+                    if (entry.onAir) {
+                        takeOffAir(entry, now);
+                        unregistering.add(entry);
+                    }
+                }
+                for (Entry entry : candidates.subList(0, chosen)) {
+                    if (entry.onAir) {
+                        entry.turnEnds = now + entry.durationNanos;
+                    } else {
+                        registering.add(entry);
+                    }
+                }
+                advManager = this.advManager;
+                adapterPath = this.adapterPath;
+            }
+            // the slots are freed before they are taken again
+            List<Call> calls = new ArrayList<Call>();
+            for (Entry entry : unregistering) {
+                calls.add(unregister(advManager, adapterPath, entry));
+            }
+            List<Call> registrations = new ArrayList<Call>();
+            for (Entry entry : registering) {
+                registrations.add(register(advManager, adapterPath, entry));
+            }
+            calls.addAll(registrations);
+            synchronized (this) {
+                long overhead = 0;
+                for (Call call : calls) {
+                    call.entry.callNanos += call.nanos();
+                    overhead += call.nanos();
+                }
+                for (Call call : registrations) {
+                    registered(call, advManager);
+                }
+                if (overhead > 0) {
+                    rotationCount++;
+                    rotationOverheadNanos += overhead;
+                }
+                if (executor != null && nextRotation == null) {
+                    scheduleNext();
+                }
+            }
+        }
+    }
+
+    private void scheduleNext() {
+        long now = System.nanoTime();
+        long delay = Long.MAX_VALUE;
+        boolean waiting = false;
+        for (Entry entry : entries) {
+            if (entry.onAir) {
+                delay = Math.min(delay, Math.max(0, entry.turnEnds - now));
+            } else {
+                waiting = true;
+                // retry the failed registrations after the shortest turn
+                delay = Math.min(delay, entry.durationNanos);
+            }
+        }
+        nextRotation = null;
+        if (waiting && slots > 0) {
+            nextRotation = executor.schedule(this::scheduledRotate, delay, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Called without the monitor, the result is recorded by registered().
+     */
+    private static Call register(LEAdvertisingManager1 advManager, String adapterPath, Entry entry) {
+        Call call = new Call(entry);
+        try {
+            advManager.RegisterAdvertisement(entry.advertisement, new HashMap<String, Variant>());
+            call.failed = false;
+        } catch (RuntimeException e) {
+            LOG.warn("RegisterAdvertisement " + entry.path() + " on " + adapterPath + " failed: " + e.getMessage());
+        }
+        call.end = System.nanoTime();
+        GattEvents.registration("RegisterAdvertisement", adapterPath, entry.path(), call.start, call.failed);
+        return call;
+    }
+
+    private void registered(Call call, LEAdvertisingManager1 advManager) {
+        Entry entry = call.entry;
+        if (call.failed) {
+            entry.failures++;
+            // it waits a turn, not to take the slot again at once
+            entry.penaltyNanos += entry.durationNanos;
+        } else {
+            entry.registrations++;
+            entry.advertisement.registered(advManager);
+            entry.onAir = true;
+            entry.onAirSince = call.end;
+            entry.turnEnds = call.end + entry.durationNanos;
+        }
+    }
+
+    /**
+     * The advertisement leaves the air before its UnregisterAdvertisement, called without the monitor.
+     */
+    private void takeOffAir(Entry entry, long now) {
+        entry.airtimeNanos += now - entry.onAirSince;
+        entry.onAir = false;
+        entry.advertisement.unregistered(advManager);
+    }
+
+    private static Call unregister(LEAdvertisingManager1 advManager, String adapterPath, Entry entry) {
+        Call call = new Call(entry);
+        try {
+            advManager.UnregisterAdvertisement(entry.advertisement);
+            call.failed = false;
+        } catch (RuntimeException e) {
+            LOG.warn("UnregisterAdvertisement " + entry.path() + " on " + adapterPath + " failed: " + e.getMessage());
+        }
+        call.end = System.nanoTime();
+        GattEvents.registration("UnregisterAdvertisement", adapterPath, entry.path(), call.start, call.failed);
+        return call;
+    }
+
+    private void export(Entry entry) {
+        try {
+            entry.advertisement.export(dbusConnection);
+            entry.exported = true;
+        } catch (DBusException e) {
+            LOG.error("Unable to export advertisement " + entry.path(), e);
+        }
+    }
+
+    private static void unexport(DBusConnection dbusConnection, Entry entry) {
+        try {
+            entry.advertisement.unexport(dbusConnection);
+        } catch (DBusException e) {
+            LOG.error("Unable to unexport advertisement " + entry.path(), e);
+        }
+    }
+}
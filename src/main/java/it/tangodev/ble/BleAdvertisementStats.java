@@ -0,0 +1,87 @@
+package it.tangodev.ble;
+
+/**
+ * Airtime of an advertisement rotated by the BleAdvertisementScheduler, at the time it was taken.
+ */
+public class BleAdvertisementStats {
+    private final String path;
+    private final int priority;
+    private final int weight;
+    private final boolean onAir;
+    private final long registrations;
+    private final long failures;
+    private final long airtimeMillis;
+    private final double dutyCycle;
+    private final long meanRegistrationMicros;
+
+    BleAdvertisementStats(String path, int priority, int weight, boolean onAir, long registrations, long failures,
+                          long airtimeMillis, double dutyCycle, long meanRegistrationMicros) {
+        this.path = path;
+        this.priority = priority;
+        this.weight = weight;
+        this.onAir = onAir;
+        this.registrations = registrations;
+        this.failures = failures;
+        this.airtimeMillis = airtimeMillis;
+        this.dutyCycle = dutyCycle;
+        this.meanRegistrationMicros = meanRegistrationMicros;
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public int getPriority() {
+        return priority;
+    }
+
+    public int getWeight() {
+        return weight;
+    }
+
+    /**
+     * @return true if the advertisement is registered on BlueZ
+     */
+    public boolean isOnAir() {
+        return onAir;
+    }
+
+    /**
+     * @return the number of RegisterAdvertisement calls that succeeded
+     */
+    public long getRegistrations() {
+        return registrations;
+    }
+
+    /**
+     * @return the number of RegisterAdvertisement calls that failed
+     */
+    public long getFailures() {
+        return failures;
+    }
+
+    public long getAirtimeMillis() {
+        return airtimeMillis;
+    }
+
+    /**
+     * @return the fraction of the time the advertisement was registered since it was scheduled, from 0 to 1
+     */
+    public double getDutyCycle() {
+        return dutyCycle;
+    }
+
+    /**
+     * @return the mean time of a RegisterAdvertisement plus UnregisterAdvertisement round trip, in microseconds
+     */
+    public long getMeanRegistrationMicros() {
+        return meanRegistrationMicros;
+    }
+
+    @Override
+    public String toString() {
+        return path + ": priority=" + priority + ", weight=" + weight + ", onAir=" + onAir + ", registrations="
+                + registrations + ", failures=" + failures + ", airtime=" + airtimeMillis + "ms, dutyCycle="
+                + String.format("%.3f", dutyCycle) + ", registration=" + meanRegistrationMicros + "us";
+    }
+}
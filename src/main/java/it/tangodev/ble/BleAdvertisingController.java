@@ -0,0 +1,256 @@
+package it.tangodev.ble;
+
+import it.tangodev.utils.BleKernelSettings;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * BleAdvertisingController switches the kernel settings of an adapter between profiles as the centrals connect:
+ * - FAST while no central is connected, for the fast advertising duration after the start or the last disconnection
+ * - SLOW when the fast advertising duration elapsed and still no central connected
+ * - CONNECTED while a central is connected, with slower or paused advertising and the connection parameters
+ *   for throughput or power
+ * A new advertising interval is on air once the application's advertisement is registered again, which the
+ * application does at each switch. The connection parameters apply to the next connections.
+ *
+ * The kernel settings need root; without them the controller still pauses and resumes the advertising.
+ */
+public class BleAdvertisingController {
+    private static final Logger LOG = LoggerFactory.getLogger(BleAdvertisingController.class);
+
+    public static final long DEFAULT_FAST_ADVERTISING_DURATION = 30000; // in ms
+
+    public enum State {
+        FAST,
+        SLOW,
+        CONNECTED
+    }
+
+    private final String adapter;
+    private final Map<State, BleLinkProfile> profiles = new EnumMap<State, BleLinkProfile>(State.class);
+    private final Map<State, Long> timeInState = new EnumMap<State, Long>(State.class);
+    private long fastAdvertisingDurationNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_FAST_ADVERTISING_DURATION);
+
+    private BleApplication application;
+    private BleKernelSettings kernelSettings;
+    private ScheduledExecutorService executor;
+    private ScheduledFuture<?> slowDown;
+    private State state;
+    private long stateSince;
+    private BleLinkProfile applied;
+    private long switchCount;
+    private long kernelErrors;
+
+    /**
+     * @param adapter the adapter name, usually hci0
+     */
+    public BleAdvertisingController(String adapter) {
+        this.adapter = adapter;
+        profiles.put(State.FAST, BleLinkProfile.FAST_ADVERTISING);
+        profiles.put(State.SLOW, BleLinkProfile.SLOW_ADVERTISING);
+        profiles.put(State.CONNECTED, BleLinkProfile.CONNECTED_POWER_SAVING);
+        for (State s : State.values()) {
+            timeInState.put(s, 0L);
+        }
+    }
+
+    public String getAdapter() {
+        return adapter;
+    }
+
+    public String getAdapterPath() {
+        return "/org/bluez/" + adapter;
+    }
+
+    public synchronized void setProfile(State state, BleLinkProfile profile) {
+        profiles.put(state, profile);
+        if (state == this.state) {
+            apply(profile);
+        }
+    }
+
+    public synchronized BleLinkProfile getProfile(State state) {
+        return profiles.get(state);
+    }
+
+    /**
+     * Set how long the adapter advertises fast before it slows down, DEFAULT_FAST_ADVERTISING_DURATION by default.
+     */
+    public synchronized void setFastAdvertisingDuration(long duration, TimeUnit unit) {
+        this.fastAdvertisingDurationNanos = unit.toNanos(duration);
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * @return the profile last applied, null before the start
+     */
+    public synchronized BleLinkProfile getAppliedProfile() {
+        return applied;
+    }
+
+    public synchronized long getSwitchCount() {
+        return switchCount;
+    }
+
+    /**
+     * @return the number of kernel settings that could not be written
+     */
+    public synchronized long getKernelErrors() {
+        return kernelErrors;
+    }
+
+    /**
+     * @return the time spent in the state since the application started
+     */
+    public synchronized long getTimeInState(State state, TimeUnit unit) {
+        long nanos = timeInState.get(state);
+        if (state == this.state) {
+            nanos += System.nanoTime() - stateSince;
+        }
+        return unit.convert(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @return true if the current profile pauses the advertising
+     */
+    synchronized boolean isAdvertisingPaused() {
+        return applied != null && applied.isAdvertisingPaused();
+    }
+
+    synchronized void start(BleApplication application, int connectedDevices) {
+        if (executor != null) {
+            throw new IllegalStateException("Advertising controller of " + adapter + " already started");
+        }
+        this.application = application;
+        try {
+            kernelSettings = new BleKernelSettings(adapter);
+        } catch (IOException e) {
+            LOG.warn("Kernel settings of " + adapter + " not available, only the advertising is paused and resumed: " + e.getMessage());
+        }
+        executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "ble-advertising-controller");
+            thread.setDaemon(true);
+            return thread;
+        });
+        for (State s : State.values()) {
+            timeInState.put(s, 0L);
+        }
+        state = null;
+        applied = null;
+        switchCount = 0;
+        switchTo(connectedDevices > 0 ? State.CONNECTED : State.FAST);
+    }
+
+    synchronized void stop() {
+        if (executor == null) {
+            return;
+        }
+        cancelSlowDown();
+        executor.shutdown();
+        executor = null;
+        leaveState();
+        state = null;
+        if (kernelSettings != null) {
+            try {
+                kernelSettings.close();
+            } catch (IOException e) {
+                LOG.debug("close kernel settings", e);
+            }
+            kernelSettings = null;
+        }
+        application = null;
+    }
+
+    /**
+     * Called by the application when a central connects or disconnects on the adapter.
+     */
+    synchronized void connectionsChanged(int connectedDevices) {
+        if (executor == null) {
+            return;
+        }
+        if (connectedDevices > 0 && state != State.CONNECTED) {
+            switchTo(State.CONNECTED);
+        } else if (connectedDevices == 0 && state == State.CONNECTED) {
+            switchTo(State.FAST);
+        }
+    }
+
+    private void slowDown() {
+        synchronized (this) {
+            if (executor == null || state != State.FAST) {
+                return;
+            }
+            switchTo(State.SLOW);
+        }
+    }
+
+    private void switchTo(State newState) {
+        cancelSlowDown();
+        leaveState();
+        LOG.debug("{} advertising {} -> {}", adapter, state, newState);
+        state = newState;
+        stateSince = System.nanoTime();
+        switchCount++;
+        if (newState == State.FAST) {
+            slowDown = executor.schedule(this::slowDown, fastAdvertisingDurationNanos, TimeUnit.NANOSECONDS);
+        }
+        apply(profiles.get(newState));
+    }
+
+    private void leaveState() {
+        if (state != null) {
+            timeInState.put(state, timeInState.get(state) + System.nanoTime() - stateSince);
+        }
+    }
+
+    private void cancelSlowDown() {
+        if (slowDown != null) {
+            slowDown.cancel(false);
+            slowDown = null;
+        }
+    }
+
+    /**
+     * Write the profile to the kernel, then let the application pause, resume or register again its advertisement.
+     * The application works asynchronously, so this does not wait for BlueZ.
+     */
+    private void apply(BleLinkProfile profile) {
+        BleLinkProfile previous = applied;
+        applied = profile;
+        boolean intervalChanged = previous == null
+                || previous.getAdvertiseIntervalMin() != profile.getAdvertiseIntervalMin()
+                || previous.getAdvertiseIntervalMax() != profile.getAdvertiseIntervalMax();
+        if (kernelSettings != null) {
+            try {
+                if (intervalChanged) {
+                    kernelSettings.setAdvertiseInterval(profile.getAdvertiseIntervalMin(), profile.getAdvertiseIntervalMax());
+                }
+                if (profile.hasConnectionParameters()) {
+                    kernelSettings.setConnectionInterval(profile.getConnectionIntervalMin(), profile.getConnectionIntervalMax());
+                    kernelSettings.setConnectionLatency(profile.getConnectionLatency());
+                    kernelSettings.setSupervisionTimeout(profile.getSupervisionTimeout());
+                }
+            } catch (IOException | InvalidSettingException e) {
+                kernelErrors++;
+                intervalChanged = false;
+                LOG.warn("Unable to apply " + profile.getName() + " on " + adapter + ": " + e.getMessage());
+            }
+        } else {
+            intervalChanged = false;
+        }
+        if (application != null) {
+            application.advertisingProfileChanged(getAdapterPath(), intervalChanged);
+        }
+    }
+}
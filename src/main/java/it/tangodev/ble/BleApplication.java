@@ -1,27 +1,49 @@
 package it.tangodev.ble;
 
 import it.tangodev.utils.BleAdapter;
+import it.tangodev.utils.BleAdapterRegistry;
+import it.tangodev.utils.BleKernelSettings;
+import it.tangodev.utils.BufferPool;
 import org.bluez.GattApplication1;
 import org.bluez.GattManager1;
 import org.bluez.LEAdvertisingManager1;
 import org.dbus.InterfacesAddedSignal.InterfacesAdded;
 import org.dbus.InterfacesRomovedSignal.InterfacesRemoved;
 import org.dbus.ObjectManager;
+import org.dbus.PropertiesChangedSignal.PropertiesChanged;
 import org.freedesktop.DBus;
 import org.freedesktop.DBus.Properties;
 import org.freedesktop.dbus.DBusConnection;
+import org.freedesktop.dbus.DBusSignal;
 import org.freedesktop.dbus.DBusSigHandler;
 import org.freedesktop.dbus.Path;
 import org.freedesktop.dbus.Variant;
 import org.freedesktop.dbus.exceptions.DBusException;
+import org.freedesktop.dbus.exceptions.DBusExecutionException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.*;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * BleApplication class is the starting point of the entire Peripheral service's structure.
@@ -39,25 +61,80 @@ public class BleApplication implements GattApplication1 {
 	public static final String BLUEZ_GATT_INTERFACE = "org.bluez.GattManager1";
 	public static final String BLUEZ_LE_ADV_INTERFACE = "org.bluez.LEAdvertisingManager1";
 	public static final String ADDRESS = "Address";
+	public static final String CONNECTED = "Connected";
 	public static final String KERNEL_DEBUG_PATH = "/sys/kernel/debug/bluetooth/";
 	public static final String ADV_MIN_INTERVAL_FILENAME = "/adv_min_interval";
 	public static final String ADV_MAX_INTERVAL_FILENAME = "/adv_max_interval";
-	public static final int MIN_ADVERTISE_INtERVAL = 20; // in ms
-	public static final int MAX_ADVERTISE_INTERVAL = 20240; // in ms, 20.24 s
+	public static final int MIN_ADVERTISE_INtERVAL = BleKernelSettings.MIN_ADVERTISE_INTERVAL; // in 0.625 ms units, 20 ms
+	public static final int MAX_ADVERTISE_INTERVAL = BleKernelSettings.MAX_ADVERTISE_INTERVAL; // in 0.625 ms units, 10.24 s
+	public static final long DEFAULT_CALLBACK_TIMEOUT = 10000; // in ms
+	public static final int DEFAULT_ADVERTISING_SLOTS = 0; // free, when the adapter does not report SupportedInstances
+	public static final long DEFAULT_REGISTRATION_TIMEOUT = 5000; // in ms
+	public static final int DEFAULT_REASSEMBLY_MEMORY = 32 * WriteReassembler.MAX_VALUE_LENGTH; // in bytes
 
-	private List<BleService> servicesList = new ArrayList<BleService>();
+	// runs the registration calls made concurrently
+	private static final Executor REGISTRATION_EXECUTOR = Executors.newCachedThreadPool(r -> {
+		Thread thread = new Thread(r, "ble-registration");
+		thread.setDaemon(true);
+		return thread;
+	});
+
+	private List<BleService> servicesList = new CopyOnWriteArrayList<BleService>();
 	private String path = null;
 	private BleAdapter bleAdapter;
+	private BleAdapterRegistry adapterRegistry;
+	private List<String> adapterNames = Collections.emptyList();
+	// the adapters the application is registered on, the first one is bleAdapter
+	private volatile List<AdapterShard> shards = Collections.emptyList();
+	private final Map<String, AdapterShard> shardsByPath = new ConcurrentHashMap<String, AdapterShard>();
+	private volatile int maxConnectionsPerAdapter = 0;
+	private volatile boolean steerToLeastLoaded = false;
 	private BleService advService;
 	private BleAdvertisement adv;
+	private final BleAdvertisementScheduler advertisementScheduler = new BleAdvertisementScheduler();
+	private final List<BleAdvertisingController> advertisingControllers = new CopyOnWriteArrayList<BleAdvertisingController>();
 	private String adapterAlias;
 	
-	private boolean hasDeviceConnected = false;
+	private final BleDeviceRegistry deviceRegistry = new BleDeviceRegistry();
+	// serial of the last Connected change applied per device, guarded by itself: dbus-java runs the signal
+	// handlers on several threads, so a disconnection and the next connection can arrive out of order
+	private final Map<String, Long> deviceSignalSerials = new HashMap<String, Long>();
+	// the listener calls of the connections and disconnections, queued under deviceSignalSerials in the order
+	// they were decided and made after it is released, by one thread at a time
+	private final Queue<Runnable> deviceEvents = new ConcurrentLinkedQueue<Runnable>();
+	private final AtomicInteger pendingDeviceEvents = new AtomicInteger();
 	
 	private DBusSigHandler<InterfacesAdded> interfacesAddedSignalHandler;
 	private DBusSigHandler<InterfacesRemoved> interfacesRemovedSignalHandler;
+	private DBusSigHandler<PropertiesChanged> propertiesChangedSignalHandler;
 	private BleApplicationListener listener;
 	private DBusConnection dbusConnection;
+	private volatile long registrationTimeout = DEFAULT_REGISTRATION_TIMEOUT;
+	private volatile Map<String, Long> startupTimings = Collections.emptyMap();
+	private BleNotificationPublisher notificationPublisher;
+	private BleNotificationErrorListener notificationErrorListener;
+	private volatile BleNotificationScheduler notificationScheduler;
+
+	// incremented on each change of the services structure, the tree snapshot is rebuilt when it differs
+	private final AtomicLong structureVersion = new AtomicLong();
+	private volatile GattTreeSnapshot treeSnapshot;
+
+	// buffers of the long writes being reassembled, shared by all the characteristics
+	private volatile BufferPool reassemblyPool = newReassemblyPool(DEFAULT_REASSEMBLY_MEMORY);
+
+	private volatile Executor callbackExecutor;
+	private volatile long callbackTimeout = DEFAULT_CALLBACK_TIMEOUT;
+	private int dbusWorkerThreads = 0;
+	private volatile boolean jmxEnabled = false;
+	private String busAddress;
+
+	// true while the application is registered on BlueZ
+	private volatile boolean registered = false;
+	private final Object treeLock = new Object();
+	// true from export() to unexport(), the tree changes are then exported and announced, written under treeLock
+	private volatile boolean exported = false;
+	// signals of the batch being applied, guarded by treeLock
+	private List<DBusSignal> batchSignals;
 
 	/**
 	 * In order to create a BleApplication you need to pass a path.
@@ -84,13 +161,13 @@ public class BleApplication implements GattApplication1 {
 	 * device. Must be lower than the MAX interval. Requires Root.
 	 *
 	 * @param adapter usually hci0
-	 * @param min     int in milliseconds value from 20ms - (max - 1ms)
+	 * @param min     in 0.625 ms units as the kernel takes it, from 0x0020 (20 ms) to max - 1
 	 * @throws IOException             if it cannot read or write the file
 	 * @throws InvalidSettingException if min is not a valid range
 	 */
 	public static void setBleAdvertiseIntervalMin(String adapter, int min) throws IOException, InvalidSettingException {
 		if (min < MIN_ADVERTISE_INtERVAL) throw new InvalidSettingException(
-				"IntervalMin must be between 20 and (max - 1)");
+				"IntervalMin must be between " + MIN_ADVERTISE_INtERVAL + " (20 ms) and (max - 1)");
 		int max = getBleAdvertiseIntervalMax(adapter);
 		if (min >= max) throw new InvalidSettingException("Min Interval must be less than max");
 		setKernelSetting(adapter, min, ADV_MIN_INTERVAL_FILENAME);
@@ -103,22 +180,43 @@ public class BleApplication implements GattApplication1 {
 	 * interval. Requires. Root.
 	 *
 	 * @param adapter usually hci0
-	 * @param max     int in milliseconds value from min - 20.24s
+	 * @param max     in 0.625 ms units as the kernel takes it, from min + 1 to 0x4000 (10.24 s)
 	 * @throws IOException             if unable to access the kernel file
 	 * @throws InvalidSettingException if max is not a valid range
 	 */
 	public static void setBleAdvertiseIntervalMax(String adapter, int max) throws IOException, InvalidSettingException {
 		int min = getBleAdvertiseIntervalMin(adapter);
 		if (max > MAX_ADVERTISE_INTERVAL) throw new InvalidSettingException(
-				"MintervalMax must be between min and 10.24 seconds");
+				"IntervalMax must be between min and " + MAX_ADVERTISE_INTERVAL + " (10.24 seconds)");
 		if (max <= min) throw new InvalidSettingException("Max Interval must be larger than min.");
 		setKernelSetting(adapter, max, ADV_MAX_INTERVAL_FILENAME);
 	}
 
+	/**
+	 * Sets the min and max advertise interval together, in the order the kernel accepts. Requires Root.
+	 *
+	 * @param adapter usually hci0
+	 * @param min     in 0.625 ms units as the kernel takes it, from 0x0020 (20 ms)
+	 * @param max     in 0.625 ms units as the kernel takes it, from min to 0x4000 (10.24 s)
+	 * @throws IOException             if unable to access the kernel files
+	 * @throws InvalidSettingException if min or max is not a valid range
+	 */
+	public static void setBleAdvertiseInterval(String adapter, int min, int max) throws IOException, InvalidSettingException {
+		try (BleKernelSettings settings = new BleKernelSettings(adapter)) {
+			settings.setAdvertiseInterval(min, max);
+		}
+	}
+
+	/**
+	 * @return the min advertise interval, in 0.625 ms units
+	 */
 	public static int getBleAdvertiseIntervalMin(String adapter) throws IOException {
 		return getKernelSetting(adapter, ADV_MIN_INTERVAL_FILENAME);
 	}
 
+	/**
+	 * @return the max advertise interval, in 0.625 ms units
+	 */
 	public static int getBleAdvertiseIntervalMax(String adapter) throws IOException {
 		return getKernelSetting(adapter, ADV_MAX_INTERVAL_FILENAME);
 	}
@@ -148,40 +246,102 @@ public class BleApplication implements GattApplication1 {
 	/**
 	 * First of all the method power-on the adapter.
 	 * Then publish the service with their characteristic and start the advertisement (only primary service can advertise).
+	 * The advertisement and the application are registered concurrently, each must be acknowledged by BlueZ
+	 * within the registration timeout. The duration of each phase is available with getStartupTimings().
+	 * If the start fails, the registrations BlueZ acknowledged are withdrawn and the objects unexported.
 	 * @throws DBusException
 	 * @throws InterruptedException
 	 */
 	public void start() throws DBusException, InterruptedException {
 		LOG.debug("start");
-		dbusConnection = DBusConnection.getConnection(DBusConnection.SYSTEM);
-
-		bleAdapter = findAdapterPath();
-		if (bleAdapter == null) {
-			throw new RuntimeException("No BLE adapter found");
+		Map<String, Long> timings = new LinkedHashMap<String, Long>();
+		long phaseStart = System.nanoTime();
+		dbusConnection = busAddress != null ? DBusConnection.getConnection(busAddress) : DBusConnection.getConnection(DBusConnection.SYSTEM);
+		if (dbusWorkerThreads > 0) {
+			dbusConnection.changeThreadCount((byte) dbusWorkerThreads);
 		}
+		List<CompletableFuture<Object>> registrations = new ArrayList<CompletableFuture<Object>>();
+		try {
+			notificationPublisher = new BleNotificationPublisher(dbusConnection);
+			notificationPublisher.setErrorListener(notificationErrorListener);
+			phaseStart = endPhase(timings, "connect", phaseStart);
 
-		Properties adapterProperties = (Properties) dbusConnection.getRemoteObject(BLUEZ_DBUS_BUSNAME, bleAdapter.getPath(), Properties.class);
-		adapterProperties.Set(BLUEZ_ADAPTER_INTERFACE, "Powered", new Variant<Boolean>(true));
-		if(adapterAlias != null) {
-			adapterProperties.Set(BLUEZ_ADAPTER_INTERFACE, "Alias", new Variant<String>(adapterAlias));
-		}
+			adapterRegistry = new BleAdapterRegistry(dbusConnection);
+			List<BleAdapter> adapters = findAdapters();
+			bleAdapter = adapters.get(0);
+			phaseStart = endPhase(timings, "findAdapter", phaseStart);
+
+			List<CompletableFuture<Object>> settings = new ArrayList<CompletableFuture<Object>>();
+			for (BleAdapter adapter : adapters) {
+				Properties adapterProperties = dbusConnection.getRemoteObject(BLUEZ_DBUS_BUSNAME, adapter.getPath(), Properties.class);
+				if (!adapter.isPowered()) {
+					settings.add(callAsync(() -> adapterProperties.Set(BLUEZ_ADAPTER_INTERFACE, "Powered", new Variant<Boolean>(true))));
+				}
+				if (adapterAlias != null && !adapterAlias.equals(adapter.getAlias())) {
+					settings.add(callAsync(() -> adapterProperties.Set(BLUEZ_ADAPTER_INTERFACE, "Alias", new Variant<String>(adapterAlias))));
+				}
+			}
+			awaitReplies("adapter setup", settings);
+			phaseStart = endPhase(timings, "powerOn", phaseStart);
 
-		GattManager1 gattManager = (GattManager1) dbusConnection.getRemoteObject(BLUEZ_DBUS_BUSNAME, bleAdapter.getPath(), GattManager1.class);
+			if (!adv.hasServices()) {
+				updateAdvertisement();
+			}
+			List<AdapterShard> newShards = new ArrayList<AdapterShard>();
+			for (BleAdapter adapter : adapters) {
+				// the first adapter advertises with adv, the others with a mirror of it
+				int index = newShards.size();
+				BleAdvertisement advertisement = index == 0 ? adv : new BleAdvertisement(adv, adv.getPath().getPath() + index);
+				AdapterShard shard = new AdapterShard(adapter,
+						dbusConnection.getRemoteObject(BLUEZ_DBUS_BUSNAME, adapter.getPath(), GattManager1.class),
+						dbusConnection.getRemoteObject(BLUEZ_DBUS_BUSNAME, adapter.getPath(), LEAdvertisingManager1.class),
+						advertisement);
+				newShards.add(shard);
+				shardsByPath.put(adapter.getPath(), shard);
+			}
+			shards = Collections.unmodifiableList(newShards);
+			export();
+			phaseStart = endPhase(timings, "export", phaseStart);
 
-		LEAdvertisingManager1 advManager = (LEAdvertisingManager1) dbusConnection.getRemoteObject(BLUEZ_DBUS_BUSNAME, bleAdapter.getPath(), LEAdvertisingManager1.class);
+			// before the registration, not to miss the first connection
+			initInterfacesHandler();
+			phaseStart = endPhase(timings, "signalHandlers", phaseStart);
 
-		if (!adv.hasServices()) {
-			updateAdvertisement();
+			for (AdapterShard shard : shards) {
+				Map<String, Variant> advOptions = new HashMap<String, Variant>();
+				registrations.add(callAsync("RegisterAdvertisement", shard, shard.advertisement.getPath().getPath(),
+						() -> shard.advManager.RegisterAdvertisement(shard.advertisement, advOptions))
+						.thenApply(reply -> {
+							shard.advertisement.registered(shard.advManager);
+							return shard.advRegistered = true;
+						}));
+				Map<String, Variant> appOptions = new HashMap<String, Variant>();
+				registrations.add(callAsync("RegisterApplication", shard, path,
+						() -> shard.gattManager.RegisterApplication(this, appOptions))
+						.thenApply(reply -> shard.appRegistered = true));
+			}
+			awaitReplies("registration", registrations);
+			registered = true;
+			for (BleAdvertisingController controller : advertisingControllers) {
+				AdapterShard shard = shardsByPath.get(controller.getAdapterPath());
+				if (shard != null) {
+					controller.start(this, shard.connectedDevices.get());
+				} else {
+					LOG.warn("The application does not run on " + controller.getAdapter() + ", its advertising controller is not started");
+				}
+			}
+			AdapterShard primary = shards.get(0);
+			// read after the application's own advertisement is registered, so its slot is already taken
+			advertisementScheduler.start(dbusConnection, primary.adapter.getPath(), primary.advManager,
+					getAdvertisingSlots(primary.adapter.getPath()));
+			endPhase(timings, "register", phaseStart);
+		} catch (DBusException | InterruptedException | RuntimeException e) {
+			abortStart(registrations);
+			throw e;
 		}
-		export();
-		
-		Map<String, Variant> advOptions = new HashMap<String, Variant>();
-		advManager.RegisterAdvertisement(adv, advOptions);
-		
-		Map<String, Variant> appOptions = new HashMap<String, Variant>();
-		gattManager.RegisterApplication(this, appOptions);
-		
-		initInterfacesHandler();
+
+		startupTimings = Collections.unmodifiableMap(timings);
+		LOG.info("started in " + timings);
 	}
 	
 	/**
@@ -194,36 +354,157 @@ public class BleApplication implements GattApplication1 {
 		if (bleAdapter == null) {
 			return;
 		}
-		GattManager1 gattManager = (GattManager1) dbusConnection.getRemoteObject(BLUEZ_DBUS_BUSNAME, bleAdapter.getPath(), GattManager1.class);
-		LEAdvertisingManager1 advManager = (LEAdvertisingManager1) dbusConnection.getRemoteObject(BLUEZ_DBUS_BUSNAME, bleAdapter.getPath(), LEAdvertisingManager1.class);
-
-		if (adv != null) {
-			advManager.UnregisterAdvertisement(adv);
+		registered = false;
+		advertisementScheduler.stop();
+		for (BleAdvertisingController controller : advertisingControllers) {
+			controller.stop();
+		}
+		for (AdapterShard shard : shards) {
+			synchronized (shard) {
+				if (shard.advRegistered) {
+					shard.advRegistered = false;
+					shard.advertisement.unregistered(shard.advManager);
+					shard.advManager.UnregisterAdvertisement(shard.advertisement);
+				}
+			}
+			if (shard.appRegistered) {
+				shard.appRegistered = false;
+				shard.gattManager.UnregisterApplication(this);
+			}
 		}
-		gattManager.UnregisterApplication(this);
 		unexport();
-		dbusConnection.removeSigHandler(InterfacesAdded.class, interfacesAddedSignalHandler);
-		dbusConnection.removeSigHandler(InterfacesRemoved.class, interfacesRemovedSignalHandler);
+		if (interfacesAddedSignalHandler != null) {
+			dbusConnection.removeSigHandler(InterfacesAdded.class, interfacesAddedSignalHandler);
+			dbusConnection.removeSigHandler(InterfacesRemoved.class, interfacesRemovedSignalHandler);
+			dbusConnection.removeSigHandler(PropertiesChanged.class, propertiesChangedSignalHandler);
+			interfacesAddedSignalHandler = null;
+			interfacesRemovedSignalHandler = null;
+			propertiesChangedSignalHandler = null;
+		}
+		deviceRegistry.clear();
+		synchronized (deviceSignalSerials) {
+			deviceSignalSerials.clear();
+		}
+		notificationPublisher.close();
+		notificationPublisher = null;
+		shards = Collections.emptyList();
+		shardsByPath.clear();
+		bleAdapter = null;
+		adapterRegistry.close();
+		adapterRegistry = null;
 		dbusConnection.disconnect();
 		dbusConnection = null;
 	}
 	
+	/**
+	 * Undo a start that failed: withdraw the registrations BlueZ acknowledged, unexport the objects and
+	 * close the connection. A registration acknowledged after the timeout is withdrawn when its reply arrives,
+	 * or by BlueZ itself once the connection is closed.
+	 */
+	private void abortStart(List<CompletableFuture<Object>> registrations) {
+		registered = false;
+		advertisementScheduler.stop();
+		for (BleAdvertisingController controller : advertisingControllers) {
+			controller.stop();
+		}
+		List<AdapterShard> startedShards = shards;
+		for (CompletableFuture<Object> registration : registrations) {
+			if (!registration.isDone()) {
+				registration.whenComplete((reply, error) -> {
+					for (AdapterShard shard : startedShards) {
+						withdraw(shard);
+					}
+				});
+			}
+		}
+		List<CompletableFuture<Object>> withdrawals = new ArrayList<CompletableFuture<Object>>();
+		for (AdapterShard shard : startedShards) {
+			withdrawals.addAll(withdraw(shard));
+		}
+		try {
+			awaitReplies("withdrawal", withdrawals);
+		} catch (DBusException | DBusExecutionException e) {
+			LOG.warn("Unable to withdraw the registrations of the failed start: " + e.getMessage());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		try {
+			unexport();
+		} catch (DBusException e) {
+			LOG.warn("Unable to unexport the application: " + e.getMessage());
+		}
+		try {
+			if (interfacesAddedSignalHandler != null) {
+				dbusConnection.removeSigHandler(InterfacesAdded.class, interfacesAddedSignalHandler);
+				dbusConnection.removeSigHandler(InterfacesRemoved.class, interfacesRemovedSignalHandler);
+				dbusConnection.removeSigHandler(PropertiesChanged.class, propertiesChangedSignalHandler);
+			}
+		} catch (DBusException e) {
+			LOG.warn("Unable to remove the signal handlers: " + e.getMessage());
+		}
+		interfacesAddedSignalHandler = null;
+		interfacesRemovedSignalHandler = null;
+		propertiesChangedSignalHandler = null;
+		deviceRegistry.clear();
+		synchronized (deviceSignalSerials) {
+			deviceSignalSerials.clear();
+		}
+		if (notificationPublisher != null) {
+			notificationPublisher.close();
+			notificationPublisher = null;
+		}
+		shards = Collections.emptyList();
+		shardsByPath.clear();
+		bleAdapter = null;
+		if (adapterRegistry != null) {
+			adapterRegistry.close();
+			adapterRegistry = null;
+		}
+		dbusConnection.disconnect();
+		dbusConnection = null;
+	}
+
+	/**
+	 * Unregister the shard's advertisement and application, if BlueZ acknowledged them.
+	 * @return the replies of the unregistrations
+	 */
+	private List<CompletableFuture<Object>> withdraw(AdapterShard shard) {
+		List<CompletableFuture<Object>> replies = new ArrayList<CompletableFuture<Object>>();
+		synchronized (shard) {
+			if (shard.advRegistered) {
+				shard.advRegistered = false;
+				shard.advertisement.unregistered(shard.advManager);
+				replies.add(callAsync("UnregisterAdvertisement", shard, shard.advertisement.getPath().getPath(),
+						() -> shard.advManager.UnregisterAdvertisement(shard.advertisement)));
+			}
+			if (shard.appRegistered) {
+				shard.appRegistered = false;
+				replies.add(callAsync("UnregisterApplication", shard, path, () -> shard.gattManager.UnregisterApplication(this)));
+			}
+		}
+		for (CompletableFuture<Object> reply : replies) {
+			reply.whenComplete((result, error) -> {
+				if (error != null) {
+					LOG.warn("Unable to withdraw a registration on " + shard.adapter.getPath() + ": " + error.getMessage());
+				}
+			});
+		}
+		return replies;
+	}
+
 	protected void initInterfacesHandler() throws DBusException {
-		DBus dbus = dbusConnection.getRemoteObject(DBUS_BUSNAME, "/or/freedesktop/DBus", DBus.class);
+		DBus dbus = dbusConnection.getRemoteObject(DBUS_BUSNAME, "/org/freedesktop/DBus", DBus.class);
 		String bluezDbusBusName = dbus.GetNameOwner(BLUEZ_DBUS_BUSNAME);
 		ObjectManager bluezObjectManager = (ObjectManager) dbusConnection.getRemoteObject(BLUEZ_DBUS_BUSNAME, "/", ObjectManager.class);
 		
+		// a device object is added on discovery too, it is connected only if its Connected property says so
 		interfacesAddedSignalHandler = new DBusSigHandler<InterfacesAdded>() {
 			@Override
 			public void handle(InterfacesAdded signal) {
 				Map<String, Variant> iamap = signal.getInterfacesAdded().get(BLUEZ_DEVICE_INTERFACE);
-				if (iamap != null) {
+				if (iamap != null && isTrue(iamap.get(CONNECTED))) {
 					Variant<String> address = iamap.get(ADDRESS);
-					String path = signal.getObjectPath().toString();
-					hasDeviceConnected = true;
-					if (listener != null) {
-						listener.deviceConnected(path, address.getValue());
-					}
+					connectedChanged(signal.getObjectPath().toString(), signal.getSerial(), true, address != null ? address.getValue() : null);
 				}
 			}
 		};
@@ -231,23 +512,456 @@ public class BleApplication implements GattApplication1 {
 		interfacesRemovedSignalHandler = new DBusSigHandler<InterfacesRemoved>() {
 			@Override
 			public void handle(InterfacesRemoved signal) {
-				List<String> irlist = signal.getInterfacesRemoved();
-				for (String ir : irlist) {
-					if (BLUEZ_DEVICE_INTERFACE.equals(ir)) {
-						String path = signal.getObjectPath().toString();
-						hasDeviceConnected = false;
-						if (listener != null) {
-							listener.deviceDisconnected(path);
-						}
-					}
+				if (signal.getInterfacesRemoved().contains(BLUEZ_DEVICE_INTERFACE)) {
+					deviceRemoved(signal.getObjectPath().toString(), signal.getSerial());
 				}
 			}
 		};
 
+		propertiesChangedSignalHandler = new DBusSigHandler<PropertiesChanged>() {
+			@Override
+			public void handle(PropertiesChanged signal) {
+				if (!BLUEZ_DEVICE_INTERFACE.equals(signal.getIface())) {
+					return;
+				}
+				Variant connected = signal.getPropertiesChanged().get(CONNECTED);
+				if (connected == null) {
+					return;
+				}
+				connectedChanged(signal.getPath(), signal.getSerial(), isTrue(connected), null);
+			}
+		};
+
 		dbusConnection.addSigHandler(InterfacesAdded.class, bluezDbusBusName, bluezObjectManager, interfacesAddedSignalHandler);
 		dbusConnection.addSigHandler(InterfacesRemoved.class, bluezDbusBusName, bluezObjectManager, interfacesRemovedSignalHandler);
+		dbusConnection.addSigHandler(PropertiesChanged.class, bluezDbusBusName, propertiesChangedSignalHandler);
 	}
-	
+
+	private static boolean isTrue(Variant variant) {
+		return variant != null && Boolean.TRUE.equals(variant.getValue());
+	}
+
+	/**
+	 * Apply a change of the device's Connected property in the order BlueZ sent it: a signal older than the last
+	 * one applied is stale and dropped. BlueZ signals only the transitions, so a newer signal that finds the
+	 * device already in its state means that the transition in between is still in flight: it is applied first.
+	 */
+	private void connectedChanged(String devicePath, long serial, boolean connected, String address) {
+		synchronized (deviceSignalSerials) {
+			Long last = deviceSignalSerials.get(devicePath);
+			if (last != null && serial < last) {
+				return;
+			}
+			deviceSignalSerials.put(devicePath, serial);
+			if (last != null && deviceRegistry.isConnected(devicePath) == connected) {
+				if (connected) {
+					deviceDisconnected(devicePath);
+				} else {
+					deviceConnected(devicePath, address);
+				}
+			}
+			if (connected) {
+				deviceConnected(devicePath, address);
+			} else {
+				deviceDisconnected(devicePath);
+			}
+		}
+		dispatchDeviceEvents();
+	}
+
+	private void deviceRemoved(String devicePath, long serial) {
+		synchronized (deviceSignalSerials) {
+			Long last = deviceSignalSerials.remove(devicePath);
+			if (last == null || serial > last) {
+				deviceDisconnected(devicePath);
+			}
+		}
+		dispatchDeviceEvents();
+	}
+
+	/**
+	 * Make the queued listener calls, unless another thread is making them: a slow listener does not hold
+	 * the Connected changes of the other devices. With a callback executor the calls are made by one task,
+	 * so the listener sees the connections and disconnections in order on a pool too.
+	 */
+	private void dispatchDeviceEvents() {
+		if (pendingDeviceEvents.getAndIncrement() != 0) {
+			return;
+		}
+		Executor executor = callbackExecutor;
+		if (executor == null) {
+			drainDeviceEvents(true);
+			return;
+		}
+		try {
+			executor.execute(() -> drainDeviceEvents(true));
+		} catch (RejectedExecutionException e) {
+			LOG.warn("Device callbacks rejected by the executor: " + e.getMessage());
+			drainDeviceEvents(false);
+		}
+	}
+
+	/**
+	 * Make, or discard, the queued listener calls until no other thread queued more.
+	 */
+	private void drainDeviceEvents(boolean call) {
+		int pending = 1;
+		do {
+			Runnable event;
+			while ((event = deviceEvents.poll()) != null) {
+				if (!call) {
+					continue;
+				}
+				try {
+					event.run();
+				} catch (RuntimeException e) {
+					LOG.error("Device listener failed", e);
+				}
+			}
+		} while ((pending = pendingDeviceEvents.addAndGet(-pending)) > 0);
+	}
+
+	/**
+	 * A Connected transition to true, the listener is called once per connection.
+	 */
+	private void deviceConnected(String devicePath, String address) {
+		AdapterShard shard = getShard(devicePath);
+		if (shard == null) {
+			// connected on an adapter the application does not run on
+			return;
+		}
+		BleDevice device = deviceRegistry.connected(devicePath, address);
+		if (device == null) {
+			return;
+		}
+		GattEvents.connection(devicePath, device.getAddress(), true);
+		shard.connected();
+		connectionsChanged(shard);
+		rebalanceAdvertising();
+		if (listener != null) {
+			deviceEvents.add(() -> listener.deviceConnected(devicePath, device.getAddress()));
+		}
+	}
+
+	private void deviceDisconnected(String devicePath) {
+		BleDevice device = deviceRegistry.disconnected(devicePath);
+		if (device == null) {
+			return;
+		}
+		GattEvents.connection(devicePath, device.getAddress(), false);
+		AdapterShard shard = getShard(devicePath);
+		if (shard != null) {
+			shard.disconnected();
+			connectionsChanged(shard);
+			rebalanceAdvertising();
+		}
+		if (listener != null) {
+			deviceEvents.add(() -> listener.deviceDisconnected(devicePath));
+		}
+	}
+
+	/**
+	 * Make the call without waiting for the reply, the future completes when BlueZ replies.
+	 * The call runs on its own thread: dbus-java's callWithCallback looks the method up by the runtime classes
+	 * of the arguments, which do not match the declared parameter types (Map, DBusInterface, generic values).
+	 */
+	private static CompletableFuture<Object> callAsync(Runnable call) {
+		return CompletableFuture.supplyAsync(() -> {
+			call.run();
+			return null;
+		}, REGISTRATION_EXECUTOR);
+	}
+
+	/**
+	 * Make the call to the shard's adapter, its flight recorder event is recorded when BlueZ replies.
+	 * The event is recorded on another thread, beside the returned future: the first event initializes JFR, which
+	 * takes hundreds of milliseconds that must not count against the registration timeout.
+	 */
+	private static CompletableFuture<Object> callAsync(String method, AdapterShard shard, String objectPath, Runnable call) {
+		long start = System.nanoTime();
+		CompletableFuture<Object> reply = callAsync(call);
+		reply.whenCompleteAsync((result, error) ->
+				GattEvents.registration(method, shard.adapter.getPath(), objectPath, start, error != null), REGISTRATION_EXECUTOR);
+		return reply;
+	}
+
+	/**
+	 * Wait for the replies up to the registration timeout.
+	 * @throws DBusExecutionException the error replied by BlueZ
+	 * @throws DBusException if BlueZ does not reply in time
+	 */
+	private void awaitReplies(String phase, List<CompletableFuture<Object>> replies) throws DBusException, InterruptedException {
+		if (replies.isEmpty()) {
+			return;
+		}
+		try {
+			CompletableFuture.allOf(replies.toArray(new CompletableFuture[replies.size()]))
+					.get(registrationTimeout, TimeUnit.MILLISECONDS);
+		} catch (TimeoutException e) {
+			throw new DBusException("BlueZ did not complete the " + phase + " in " + registrationTimeout + " ms");
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof DBusExecutionException) {
+				throw (DBusExecutionException) e.getCause();
+			}
+			throw new DBusException(phase + " failed: " + e.getCause());
+		}
+	}
+
+	private static long endPhase(Map<String, Long> timings, String phase, long phaseStart) {
+		long now = System.nanoTime();
+		timings.put(phase, TimeUnit.NANOSECONDS.toMicros(now - phaseStart));
+		return now;
+	}
+
+	/**
+	 * Duration of each phase of the last start(), in microseconds, in the order they run:
+	 * connect, findAdapter, powerOn, export, signalHandlers, register.
+	 */
+	public Map<String, Long> getStartupTimings() {
+		return startupTimings;
+	}
+
+	/**
+	 * Set how long start() waits for BlueZ to acknowledge the adapter setup and the registrations.
+	 */
+	public void setRegistrationTimeout(long timeout, TimeUnit unit) {
+		this.registrationTimeout = unit.toMillis(timeout);
+	}
+
+	/**
+	 * Connect to the bus at this address instead of the system bus, i.e. a private bus for the tests.
+	 * This must set before start to take effect.
+	 * @param busAddress a D-Bus address, i.e. tcp:host=localhost,port=12345
+	 */
+	public void setBusAddress(String busAddress) {
+		this.busAddress = busAddress;
+	}
+
+	/**
+	 * Register the metrics of each characteristic and descriptor as an MXBean in the platform MBean server,
+	 * while the application is started. This must set before start to take effect.
+	 */
+	public void setJmxEnabled(boolean jmxEnabled) {
+		this.jmxEnabled = jmxEnabled;
+	}
+
+	/**
+	 * @return the metrics of the characteristics and descriptors, by path
+	 */
+	public Map<String, GattMetrics> getMetrics() {
+		Map<String, GattMetrics> metrics = new LinkedHashMap<String, GattMetrics>();
+		for (BleService service : servicesList) {
+			for (BleCharacteristic characteristic : service.getCharacteristics()) {
+				metrics.put(characteristic.getPath().getPath(), characteristic.getMetrics());
+				for (BleDescriptor descriptor : characteristic.getDescriptors().values()) {
+					metrics.put(descriptor.getDBusPath().getPath(), descriptor.getMetrics());
+				}
+			}
+		}
+		return metrics;
+	}
+
+	/**
+	 * Set the adapter to run on, by name (hci0) or address. Without it the first adapter able to advertise is used.
+	 * This must set before start to take effect.
+	 * @param nameOrAddress
+	 */
+	public void setAdapterName(String nameOrAddress) {
+		setAdapterNames(nameOrAddress);
+	}
+
+	/**
+	 * Run the application on several adapters: the services are registered on each of them and each one
+	 * advertises with its own advertisement, a mirror of getAdvertisement().
+	 * This must set before start to take effect.
+	 * @param namesOrAddresses adapters' names (hci0) or addresses
+	 */
+	public void setAdapterNames(String... namesOrAddresses) {
+		adapterNames = Collections.unmodifiableList(new ArrayList<String>(Arrays.asList(namesOrAddresses)));
+	}
+
+	/**
+	 * Pause the advertising of an adapter once this number of devices is connected on it, so the new centrals
+	 * connect to the other adapters. 0, the default, for no limit.
+	 */
+	public void setMaxConnectionsPerAdapter(int maxConnections) {
+		this.maxConnectionsPerAdapter = maxConnections;
+		rebalanceAdvertising();
+	}
+
+	/**
+	 * Advertise only on the adapters with the fewest connected devices, so the new centrals spread evenly.
+	 */
+	public void setSteerToLeastLoaded(boolean steerToLeastLoaded) {
+		this.steerToLeastLoaded = steerToLeastLoaded;
+		rebalanceAdvertising();
+	}
+
+	/**
+	 * @return the load of each adapter the application runs on
+	 */
+	public List<BleAdapterLoad> getAdapterLoads() {
+		List<BleAdapterLoad> loads = new ArrayList<BleAdapterLoad>();
+		for (AdapterShard shard : shards) {
+			loads.add(shard.getLoad(maxConnectionsPerAdapter));
+		}
+		return loads;
+	}
+
+	/**
+	 * @return the path of the adapter the device is connected on, i.e. /org/bluez/hci0 for /org/bluez/hci0/dev_00_11_22_33_44_55
+	 */
+	static String getAdapterPath(String devicePath) {
+		int index = devicePath != null ? devicePath.lastIndexOf('/') : -1;
+		return index > 0 ? devicePath.substring(0, index) : null;
+	}
+
+	private AdapterShard getShard(String devicePath) {
+		String adapterPath = getAdapterPath(devicePath);
+		return adapterPath != null ? shardsByPath.get(adapterPath) : null;
+	}
+
+	private List<BleAdapter> findAdapters() throws DBusException {
+		List<BleAdapter> adapters = new ArrayList<BleAdapter>();
+		if (adapterNames.isEmpty()) {
+			BleAdapter adapter = adapterRegistry.findPeripheralAdapter();
+			if (adapter == null) {
+				throw new RuntimeException("No BLE adapter found");
+			}
+			adapters.add(adapter);
+		}
+		for (String name : adapterNames) {
+			BleAdapter adapter = adapterRegistry.get(name);
+			if (adapter == null) {
+				throw new RuntimeException("No BLE adapter found: " + name);
+			}
+			adapters.add(adapter);
+		}
+		return adapters;
+	}
+
+	/**
+	 * Pause the advertising on the full adapters, and on the most loaded ones when steering to the least loaded,
+	 * resume it on the others. The registrations are asynchronous, an adapter whose registration is in progress
+	 * is rebalanced again when BlueZ replies.
+	 */
+	private void rebalanceAdvertising() {
+		if (!registered) {
+			return;
+		}
+		int maxConnections = maxConnectionsPerAdapter;
+		int minLoad = Integer.MAX_VALUE;
+		for (AdapterShard shard : shards) {
+			minLoad = Math.min(minLoad, shard.connectedDevices.get());
+		}
+		for (AdapterShard shard : shards) {
+			int load = shard.connectedDevices.get();
+			boolean advertise = (maxConnections <= 0 || load < maxConnections) && (!steerToLeastLoaded || load == minLoad)
+					&& !isAdvertisingPaused(shard);
+			setAdvertising(shard, advertise);
+		}
+	}
+
+	private void connectionsChanged(AdapterShard shard) {
+		BleAdvertisingController controller = getAdvertisingController(shard);
+		if (controller != null) {
+			controller.connectionsChanged(shard.connectedDevices.get());
+		}
+	}
+
+	private boolean isAdvertisingPaused(AdapterShard shard) {
+		BleAdvertisingController controller = getAdvertisingController(shard);
+		return controller != null && controller.isAdvertisingPaused();
+	}
+
+	private BleAdvertisingController getAdvertisingController(AdapterShard shard) {
+		for (BleAdvertisingController controller : advertisingControllers) {
+			if (controller.getAdapterPath().equals(shard.adapter.getPath())) {
+				return controller;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * The advertising controller of the adapter switched profile: the advertisement is registered again for a new
+	 * interval to take effect, and paused or resumed.
+	 */
+	void advertisingProfileChanged(String adapterPath, boolean intervalChanged) {
+		AdapterShard shard = shardsByPath.get(adapterPath);
+		if (shard == null) {
+			return;
+		}
+		if (intervalChanged && !isAdvertisingPaused(shard)) {
+			restartAdvertising(shard);
+		}
+		rebalanceAdvertising();
+	}
+
+	/**
+	 * Unregister and register again the advertisement, if registered, so the adapter's new advertising interval
+	 * takes effect.
+	 */
+	private void restartAdvertising(AdapterShard shard) {
+		synchronized (shard) {
+			if (shard.advChangePending || !shard.advRegistered || !registered) {
+				return;
+			}
+			shard.advChangePending = true;
+		}
+		String advPath = shard.advertisement.getPath().getPath();
+		callAsync("UnregisterAdvertisement", shard, advPath, () -> shard.advManager.UnregisterAdvertisement(shard.advertisement))
+				.thenCompose(reply -> callAsync("RegisterAdvertisement", shard, advPath,
+						() -> shard.advManager.RegisterAdvertisement(shard.advertisement, new HashMap<String, Variant>())))
+				.whenComplete((result, error) -> {
+					synchronized (shard) {
+						shard.advChangePending = false;
+						if (error != null) {
+							shard.advRegistered = false;
+							shard.advertisement.unregistered(shard.advManager);
+							LOG.warn("Restart advertising on " + shard.adapter.getPath() + " failed: " + error.getMessage());
+						}
+					}
+					rebalanceAdvertising();
+				});
+	}
+
+	private void setAdvertising(AdapterShard shard, boolean advertise) {
+		synchronized (shard) {
+			if (shard.advChangePending || shard.advRegistered == advertise || !registered) {
+				return;
+			}
+			shard.advChangePending = true;
+		}
+		CompletableFuture<Object> reply;
+		if (advertise) {
+			reply = callAsync("RegisterAdvertisement", shard, shard.advertisement.getPath().getPath(),
+					() -> shard.advManager.RegisterAdvertisement(shard.advertisement, new HashMap<String, Variant>()));
+		} else {
+			reply = callAsync("UnregisterAdvertisement", shard, shard.advertisement.getPath().getPath(),
+					() -> shard.advManager.UnregisterAdvertisement(shard.advertisement));
+		}
+		reply.whenComplete((result, error) -> {
+			synchronized (shard) {
+				shard.advChangePending = false;
+				if (error == null) {
+					shard.advRegistered = advertise;
+					if (advertise) {
+						shard.advertisement.registered(shard.advManager);
+					} else {
+						shard.advertisement.unregistered(shard.advManager);
+					}
+				} else {
+					LOG.warn((advertise ? "Resume" : "Pause") + " advertising on " + shard.adapter.getPath() + " failed: " + error.getMessage());
+				}
+			}
+			if (error == null) {
+				rebalanceAdvertising();
+			}
+		});
+		LOG.debug((advertise ? "resume" : "pause") + " advertising on " + shard.adapter.getPath());
+	}
+
 	/**
 	 * Set the alias name of the peripheral. This name is visible by the central that discover s peripheral.
 	 * This must set before start to take effect.
@@ -257,12 +971,268 @@ public class BleApplication implements GattApplication1 {
 		adapterAlias = alias;
 	}
 	
+	/**
+	 * Set who receives the errors raised while sending notifications. Without a listener the errors are logged.
+	 * @param notificationErrorListener
+	 */
+	public void setNotificationErrorListener(BleNotificationErrorListener notificationErrorListener) {
+		this.notificationErrorListener = notificationErrorListener;
+		if (notificationPublisher != null) {
+			notificationPublisher.setErrorListener(notificationErrorListener);
+		}
+	}
+
+	/**
+	 * Set the scheduler that conflates the notifications of the characteristics: the characteristics removed
+	 * from the tree are removed from it.
+	 * @param notificationScheduler
+	 */
+	public void setNotificationScheduler(BleNotificationScheduler notificationScheduler) {
+		this.notificationScheduler = notificationScheduler;
+	}
+
+	public BleNotificationScheduler getNotificationScheduler() {
+		return notificationScheduler;
+	}
+
+	/**
+	 * Set the executor that runs the listeners' callbacks, i.e. a virtual thread per task executor.
+	 * Without executor the callbacks run on the dbus-java threads, as they are received.
+	 * The connections and disconnections are still given to the listener one at a time, in order.
+	 * The D-Bus worker thread still waits for the value read or written, up to the callback timeout.
+	 * @param callbackExecutor
+	 */
+	public void setCallbackExecutor(Executor callbackExecutor) {
+		this.callbackExecutor = callbackExecutor;
+	}
+
+	Executor getCallbackExecutor() {
+		return callbackExecutor;
+	}
+
+	/**
+	 * Set how long a read or write waits for the characteristic's listener before failing.
+	 */
+	public void setCallbackTimeout(long timeout, TimeUnit unit) {
+		this.callbackTimeout = unit.toMillis(timeout);
+	}
+
+	long getCallbackTimeout() {
+		return callbackTimeout;
+	}
+
+	/**
+	 * Set the number of dbus-java threads that run the incoming method calls, so that slow listeners do not
+	 * stall the others. This must set before start to take effect.
+	 * @param threads from 1 to 127
+	 */
+	public void setDBusWorkerThreads(int threads) {
+		if (threads < 1 || threads > Byte.MAX_VALUE) {
+			throw new IllegalArgumentException("D-Bus worker threads must be between 1 and " + Byte.MAX_VALUE);
+		}
+		this.dbusWorkerThreads = threads;
+	}
+
+	/**
+	 * Set the max memory held by the values kept for the next piece of a prepared write, for all the devices and
+	 * characteristics. Beyond it a value is still delivered, and its next piece is refused with
+	 * org.bluez.Error.InvalidOffset.
+	 * @param bytes
+	 */
+	public void setMaxReassemblyMemory(int bytes) {
+		this.reassemblyPool = newReassemblyPool(bytes);
+	}
+
+	BufferPool getReassemblyPool() {
+		return reassemblyPool;
+	}
+
+	private static BufferPool newReassemblyPool(int bytes) {
+		int buffers = Math.max(1, bytes / WriteReassembler.MAX_VALUE_LENGTH);
+		return new BufferPool(WriteReassembler.MAX_VALUE_LENGTH, buffers, buffers);
+	}
+
+	/**
+	 * @return the publisher used to send the notifications, null if the application is not started
+	 */
+	public BleNotificationPublisher getNotificationPublisher() {
+		return notificationPublisher;
+	}
+
+	/**
+	 * Add the service. If the application is started the service is exported with its characteristics and
+	 * descriptors, and announced to BlueZ with InterfacesAdded.
+	 * @param service
+	 */
 	public void addService(BleService service) {
-		this.servicesList.add(service);
+		synchronized (treeLock) {
+			service.setApplication(this);
+			this.servicesList.add(service);
+			structureChanged();
+			if (exported) {
+				try {
+					exportService(service);
+				} catch (DBusException e) {
+					throw new IllegalStateException("Unable to export service " + service.getPath(), e);
+				}
+				announceAdded(service.getPath(), service.getProperties());
+				for (BleCharacteristic characteristic : service.getCharacteristics()) {
+					announceCharacteristicAdded(characteristic);
+				}
+			}
+		}
 	}
 	
+	/**
+	 * Remove the service. If the application is started the service is withdrawn with InterfacesRemoved
+	 * and unexported.
+	 * @param service
+	 */
 	public void removeService(BleService service) {
-		this.servicesList.remove(service);
+		synchronized (treeLock) {
+			if (!this.servicesList.remove(service)) {
+				return;
+			}
+			structureChanged();
+			for (BleCharacteristic characteristic : service.getCharacteristics()) {
+				forgetNotifications(characteristic);
+			}
+			if (exported) {
+				for (BleCharacteristic characteristic : service.getCharacteristics()) {
+					announceCharacteristicRemoved(characteristic);
+				}
+				announceRemoved(service.getPath(), service.getProperties());
+				unexportService(service);
+			}
+			service.setApplication(null);
+		}
+	}
+
+	/**
+	 * Start a batch of changes of the services structure, applied together by BleTreeMutation.apply().
+	 * @return
+	 */
+	public BleTreeMutation newMutation() {
+		return new BleTreeMutation(this);
+	}
+
+	/**
+	 * Apply the changes holding the tree lock, the InterfacesAdded/InterfacesRemoved signals are sent at the end.
+	 * The batch is checked against the tree before the first change. A change failing past the check, e.g. on a
+	 * lost D-Bus connection, leaves the changes before it applied: the batch is partial and none of its
+	 * signals is sent.
+	 */
+	void applyMutation(List<BleTreeMutation.Change> changes) {
+		synchronized (treeLock) {
+			BleTreeMutation.check(path, servicesList, changes);
+			batchSignals = new ArrayList<DBusSignal>();
+			List<DBusSignal> signals;
+			try {
+				for (BleTreeMutation.Change change : changes) {
+					change.apply(this);
+				}
+				signals = batchSignals;
+			} finally {
+				batchSignals = null;
+			}
+			for (DBusSignal signal : signals) {
+				dbusConnection.sendSignal(signal);
+			}
+		}
+	}
+
+	/**
+	 * @return true while the objects of the application are exported, from the start until the stop
+	 */
+	boolean isExported() {
+		return exported;
+	}
+
+	void characteristicAdded(BleCharacteristic characteristic) {
+		synchronized (treeLock) {
+			if (!exported) {
+				return;
+			}
+			try {
+				exportCharacteristic(characteristic);
+			} catch (DBusException e) {
+				throw new IllegalStateException("Unable to export characteristic " + characteristic.getPath(), e);
+			}
+			announceCharacteristicAdded(characteristic);
+		}
+	}
+
+	void characteristicRemoved(BleCharacteristic characteristic) {
+		synchronized (treeLock) {
+			forgetNotifications(characteristic);
+			if (!exported) {
+				return;
+			}
+			announceCharacteristicRemoved(characteristic);
+			unexportCharacteristic(characteristic);
+		}
+	}
+
+	private void forgetNotifications(BleCharacteristic characteristic) {
+		BleNotificationScheduler scheduler = notificationScheduler;
+		if (scheduler != null) {
+			scheduler.remove(characteristic);
+		}
+	}
+
+	void descriptorAdded(BleDescriptor descriptor) {
+		synchronized (treeLock) {
+			if (!exported) {
+				return;
+			}
+			try {
+				descriptor.export(dbusConnection);
+			} catch (DBusException e) {
+				throw new IllegalStateException("Unable to export descriptor " + descriptor.getPath(), e);
+			}
+			if (jmxEnabled) {
+				GattMetricsJmx.register(descriptor.getMetrics());
+			}
+			announceAdded(descriptor.getDBusPath(), descriptor.getProperties());
+		}
+	}
+
+	private void announceCharacteristicAdded(BleCharacteristic characteristic) {
+		announceAdded(characteristic.getPath(), characteristic.getProperties());
+		for (BleDescriptor descriptor : characteristic.getDescriptors().values()) {
+			announceAdded(descriptor.getDBusPath(), descriptor.getProperties());
+		}
+	}
+
+	private void announceCharacteristicRemoved(BleCharacteristic characteristic) {
+		for (BleDescriptor descriptor : characteristic.getDescriptors().values()) {
+			announceRemoved(descriptor.getDBusPath(), descriptor.getProperties());
+		}
+		announceRemoved(characteristic.getPath(), characteristic.getProperties());
+	}
+
+	private void announceAdded(Path objectPath, Map<String, Map<String, Variant>> interfaces) {
+		try {
+			emit(new InterfacesAdded(path, objectPath, interfaces));
+		} catch (DBusException e) {
+			LOG.error("InterfacesAdded of " + objectPath + " failed", e);
+		}
+	}
+
+	private void announceRemoved(Path objectPath, Map<String, Map<String, Variant>> interfaces) {
+		try {
+			emit(new InterfacesRemoved(path, objectPath, new ArrayList<String>(interfaces.keySet())));
+		} catch (DBusException e) {
+			LOG.error("InterfacesRemoved of " + objectPath + " failed", e);
+		}
+	}
+
+	private void emit(DBusSignal signal) {
+		if (batchSignals != null) {
+			batchSignals.add(signal);
+		} else {
+			dbusConnection.sendSignal(signal);
+		}
 	}
 	
 	public List<BleService> getServicesList() {
@@ -270,7 +1240,14 @@ public class BleApplication implements GattApplication1 {
 	}
 
 	public boolean hasDeviceConnected() {
-		return hasDeviceConnected;
+		return deviceRegistry.getConnectedCount() > 0;
+	}
+
+	/**
+	 * @return the devices connected to the application
+	 */
+	public BleDeviceRegistry getDeviceRegistry() {
+		return deviceRegistry;
 	}
 
 	public BleAdvertisement getAdvertisement() {
@@ -278,58 +1255,141 @@ public class BleApplication implements GattApplication1 {
 	}
 
 	/**
-	 * Search for a Adapter that has GattManager1 and LEAdvertisement1 interfaces, otherwise return null.
-	 * @return BleAdapter based on the map stored in the D-Bus Managed object org.bluez.Adapter1
-	 * @throws DBusException if there is an error communicating with BlueZ over D-Bus
+	 * Let the controller switch the advertising and connection settings of its adapter as the centrals connect.
+	 * This must set before start to take effect.
 	 */
-	public static BleAdapter findAdapterPath() throws DBusException {
-		DBusConnection dbusConnection = DBusConnection.getConnection(DBusConnection.SYSTEM);
-		ObjectManager bluezObjectManager = dbusConnection.getRemoteObject(BLUEZ_DBUS_BUSNAME, "/", ObjectManager.class);
-		if (bluezObjectManager == null) {
-			return null;
-		}
-
-		Map<Path, Map<String, Map<String, Variant>>> bluezManagedObject = bluezObjectManager.GetManagedObjects();
-		if (bluezManagedObject == null) {
-			return null;
-		}
+	public void addAdvertisingController(BleAdvertisingController controller) {
+		advertisingControllers.add(controller);
+	}
 
-		for (Path path : bluezManagedObject.keySet()) {
-			Map<String, Map<String, Variant>> value = bluezManagedObject.get(path);
-			boolean hasGattManager = false;
-			boolean hasAdvManager = false;
+	public List<BleAdvertisingController> getAdvertisingControllers() {
+		return Collections.unmodifiableList(advertisingControllers);
+	}
 
-			for (Map.Entry<String, Map<String, Variant>> entry : value.entrySet()) {
-				if (entry.getKey().equals(BLUEZ_GATT_INTERFACE)) {
-					hasGattManager = true;
-				}
-				if (entry.getKey().equals(BLUEZ_LE_ADV_INTERFACE)) {
-					hasAdvManager = true;
-				}
-				if (hasGattManager && hasAdvManager) {
-					return new BleAdapter(path, value.get("org.bluez.Adapter1"));
-				}
+	/**
+	 * @return the scheduler that rotates the application's other advertisements in the free advertising slots
+	 */
+	public BleAdvertisementScheduler getAdvertisementScheduler() {
+		return advertisementScheduler;
+	}
 
+	/**
+	 * @return the advertisements the adapter can still register, as LEAdvertisingManager1 SupportedInstances reports
+	 */
+	private int getAdvertisingSlots(String adapterPath) {
+		try {
+			Properties properties = dbusConnection.getRemoteObject(BLUEZ_DBUS_BUSNAME, adapterPath, Properties.class);
+			Variant supported = properties.GetAll(BLUEZ_LE_ADV_INTERFACE).get("SupportedInstances");
+			if (supported != null && supported.getValue() instanceof Number) {
+				return ((Number) supported.getValue()).intValue();
 			}
+		} catch (DBusException | DBusExecutionException e) {
+			LOG.warn("Unable to read the advertising slots of " + adapterPath + ": " + e.getMessage());
+		}
+		return DEFAULT_ADVERTISING_SLOTS;
+	}
+
+	/**
+	 * Search for a Adapter that has GattManager1 and LEAdvertisement1 interfaces, otherwise return null.
+	 * @return BleAdapter based on the map stored in the D-Bus Managed object org.bluez.Adapter1
+	 * @throws DBusException if there is an error communicating with BlueZ over D-Bus
+	 */
+	public static BleAdapter findAdapterPath() throws DBusException {
+		BleAdapterRegistry registry = new BleAdapterRegistry(DBusConnection.getConnection(DBusConnection.SYSTEM));
+		try {
+			return registry.findPeripheralAdapter();
+		} finally {
+			registry.close();
 		}
-		
-		return null;
 	}
 	
 	/**
 	 * Export the application in Dbus system.
 	 * @throws DBusException
 	 */
+	/**
+	 * Export the objects under the tree lock: the services added from then on are exported as they are added,
+	 * also before BlueZ acknowledges the registration.
+	 */
 	private void export() throws DBusException {
 		LOG.debug("export dbusConnection: " + dbusConnection.getUniqueName());
-		if (adv != null) {
-			adv.export(dbusConnection);
+		synchronized (treeLock) {
+			for (AdapterShard shard : shards) {
+				if (shard.advertisement != adv) {
+					shard.advertisement.export(dbusConnection);
+				}
+			}
+			if (adv != null) {
+				adv.export(dbusConnection);
+			}
+			for (BleService service : servicesList) {
+				LOG.debug( " service: " + service.getPath().getPath());
+				exportService(service);
+			}
+			dbusConnection.exportObject(path, this);
+			exported = true;
 		}
-		for (BleService service : servicesList) {
-			LOG.debug( " service: " + service.getPath().getPath());
-			service.export(dbusConnection);
+	}
+
+	private void exportService(BleService service) throws DBusException {
+		service.export(dbusConnection);
+		for (BleCharacteristic characteristic : service.getCharacteristics()) {
+			characteristic.setNotificationPublisher(notificationPublisher);
+			registerMetrics(characteristic);
+		}
+	}
+
+	private void exportCharacteristic(BleCharacteristic characteristic) throws DBusException {
+		characteristic.export(dbusConnection);
+		for (BleDescriptor descriptor : characteristic.getDescriptors().values()) {
+			descriptor.export(dbusConnection);
+		}
+		characteristic.setNotificationPublisher(notificationPublisher);
+		registerMetrics(characteristic);
+	}
+
+	private void unexportService(BleService service) {
+		try {
+			service.unexport(dbusConnection);
+		} catch (DBusException e) {
+			LOG.error("Unable to unexport service " + service.getPath(), e);
+		}
+		for (BleCharacteristic characteristic : service.getCharacteristics()) {
+			releaseCharacteristic(characteristic);
+		}
+	}
+
+	private void unexportCharacteristic(BleCharacteristic characteristic) {
+		try {
+			for (BleDescriptor descriptor : characteristic.getDescriptors().values()) {
+				descriptor.unexport(dbusConnection);
+			}
+			characteristic.unexport(dbusConnection);
+		} catch (DBusException e) {
+			LOG.error("Unable to unexport characteristic " + characteristic.getPath(), e);
+		}
+		releaseCharacteristic(characteristic);
+	}
+
+	private void registerMetrics(BleCharacteristic characteristic) {
+		if (!jmxEnabled) {
+			return;
+		}
+		GattMetricsJmx.register(characteristic.getMetrics());
+		for (BleDescriptor descriptor : characteristic.getDescriptors().values()) {
+			GattMetricsJmx.register(descriptor.getMetrics());
 		}
-		dbusConnection.exportObject(path, this);
+	}
+
+	private void releaseCharacteristic(BleCharacteristic characteristic) {
+		if (jmxEnabled) {
+			GattMetricsJmx.unregister(characteristic.getMetrics());
+			for (BleDescriptor descriptor : characteristic.getDescriptors().values()) {
+				GattMetricsJmx.unregister(descriptor.getMetrics());
+			}
+		}
+		characteristic.setNotificationPublisher(null);
+		characteristic.clearSubscriptions();
 	}
 
 	/**
@@ -337,13 +1397,21 @@ public class BleApplication implements GattApplication1 {
 	 * @throws DBusException
 	 */
 	private void unexport() throws DBusException {
-		if (adv != null) {
-			adv.unexport(dbusConnection);
-		}
-		for (BleService service : servicesList) {
-			service.unexport(dbusConnection);
+		synchronized (treeLock) {
+			exported = false;
+			for (AdapterShard shard : shards) {
+				if (shard.advertisement != adv) {
+					shard.advertisement.unexport(dbusConnection);
+				}
+			}
+			if (adv != null) {
+				adv.unexport(dbusConnection);
+			}
+			for (BleService service : servicesList) {
+				unexportService(service);
+			}
+			dbusConnection.unExportObject(path);
 		}
-		dbusConnection.unExportObject(path);
 	}
 
 	@Override
@@ -353,23 +1421,42 @@ public class BleApplication implements GattApplication1 {
 
 	@Override
 	public Map<Path, Map<String, Map<String, Variant>>> GetManagedObjects() {
-		LOG.debug("Application -> GetManagedObjects");
+		GattTreeSnapshot snapshot = getTreeSnapshot();
+		if (LOG.isDebugEnabled()) {
+			LOG.debug("Application -> GetManagedObjects version " + snapshot.getVersion() + ", " + snapshot.size() + " objects");
+		}
+		return snapshot.getManagedObjects();
+	}
 
-		Map<Path, Map<String, Map<String, Variant>>> response = new HashMap<Path, Map<String, Map<String, Variant>>>();
-		for (BleService service : servicesList) {
-			LOG.debug("service: " + service.getPath() + " " + service.getUuid());
-			response.put(service.getPath(), service.getProperties());
-			for (BleCharacteristic characteristic : service.getCharacteristics()) {
-				LOG.debug("   \\ characteristic: " + characteristic.getPath().getPath() + " " + characteristic.uuid);
-				response.put(characteristic.getPath(), characteristic.getProperties());
-				for (BleDescriptor bleDescriptor : characteristic.getDescriptors().values()) {
-					LOG.debug("      \\ descriptor " + bleDescriptor.getPath() + " " + bleDescriptor.getUuid());
-					response.put(new Path(bleDescriptor.getPath()), bleDescriptor.getProperties());
-				}
+	/**
+	 * @return the version of the services structure, incremented on each add or remove of a service,
+	 * characteristic or descriptor
+	 */
+	public long getStructureVersion() {
+		return structureVersion.get();
+	}
+
+	void structureChanged() {
+		structureVersion.incrementAndGet();
+	}
+
+	/**
+	 * Return the snapshot of the current services structure, rebuilding it only if the structure changed.
+	 */
+	GattTreeSnapshot getTreeSnapshot() {
+		GattTreeSnapshot snapshot = treeSnapshot;
+		if (snapshot != null && snapshot.getVersion() == structureVersion.get()) {
+			return snapshot;
+		}
+		synchronized (structureVersion) {
+			long version = structureVersion.get();
+			snapshot = treeSnapshot;
+			if (snapshot == null || snapshot.getVersion() != version) {
+				snapshot = GattTreeSnapshot.build(version, servicesList);
+				treeSnapshot = snapshot;
 			}
+			return snapshot;
 		}
-        LOG.debug(String.format("Application: %s", response));
-		return response;
 	}
 
 	public BleAdapter getBleAdapter() {
@@ -2,17 +2,27 @@ package it.tangodev.ble;
 
 import it.tangodev.utils.Utils;
 import org.bluez.GattCharacteristic1;
-import org.dbus.PropertiesChangedSignal.PropertiesChanged;
 import org.freedesktop.DBus.Properties;
+import org.freedesktop.dbus.DBusCallInfo;
 import org.freedesktop.dbus.DBusConnection;
 import org.freedesktop.dbus.Path;
 import org.freedesktop.dbus.UInt16;
 import org.freedesktop.dbus.Variant;
 import org.freedesktop.dbus.exceptions.DBusException;
+import org.freedesktop.dbus.exceptions.DBusExecutionException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.nio.ByteBuffer;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
 
 import static it.tangodev.ble.GattPropertyKeys.*;
 
@@ -26,14 +36,35 @@ public class BleCharacteristic implements GattCharacteristic1, Properties {
     private static final Logger LOG = LoggerFactory.getLogger(BleCharacteristic.class);
 
 	private static final String GATT_CHARACTERISTIC_INTERFACE = "org.bluez.GattCharacteristic1";
-
-	private BleService service = null;
+	// WriteValue "type" option of a write without response
+	private static final String WRITE_TYPE_COMMAND = "command";
+	// subscriber of the StartNotify calls made outside D-Bus
+	private static final String LOCAL_SUBSCRIBER = "local";
+	// WriteValue option set when BlueZ only asks to authorize a prepared write
+	private static final String PREPARE_AUTHORIZE_OPTION = "prepare-authorize";
+
+	private volatile BleService service = null;
 	protected String uuid = null;
-	private List<String> flags = new ArrayList<String>();;
+	private List<String> flags = new CopyOnWriteArrayList<String>();
 	protected String path = null;
-	private boolean isNotifying = false;
+	// subscriber -> subscription time in ms
+	private final Map<String, Long> subscriptions = new ConcurrentHashMap<String, Long>();
+	private volatile boolean hasSubscriptions = false;
 	protected BleCharacteristicListener listener;
-    private Map<String, BleDescriptor> descriptors = new HashMap<>();
+	private volatile BleCharacteristicAsyncListener asyncListener;
+	private volatile BleNotificationPublisher notificationPublisher;
+	private volatile BleWriteStreamConsumer writeStreamConsumer;
+	private final LongReadCache longReadCache = new LongReadCache();
+	private final GattMetrics metrics = new GattMetrics(() -> path);
+	// the listener read timed as a read, kept to not allocate a method reference per call
+	private final Function<String, byte[]> timedReader = devicePath -> readFromListener(devicePath, GattMetrics.Operation.READ);
+	private volatile WriteReassembler writeReassembler;
+    private Map<String, BleDescriptor> descriptors = new ConcurrentHashMap<>();
+	private volatile Path cachedPath;
+	private volatile Path[] cachedDescriptorPaths;
+	private volatile PropertiesCache propertiesCache;
+	// incremented on each change, a properties map built during a change is not cached
+	private volatile int modCount;
 
 	/**
 	 * A flag indicate the operation allowed on a single characteristic.
@@ -43,6 +74,7 @@ public class BleCharacteristic implements GattCharacteristic1, Properties {
 	public enum CharacteristicFlag {
 		READ("read"),
 		WRITE("write"),
+		WRITE_WITHOUT_RESPONSE("write-without-response"),
 		NOTIFY("notify");
 		
 		private String flag;
@@ -95,6 +127,23 @@ public class BleCharacteristic implements GattCharacteristic1, Properties {
 		for (CharacteristicFlag characteristicFlag : flags) {
 			this.flags.add(characteristicFlag.toString());
 		}
+		invalidateProperties();
+		structureChanged();
+	}
+
+	BleApplication getApplication() {
+		BleService service = this.service;
+		return service != null ? service.getApplication() : null;
+	}
+
+	/**
+	 * Tell the application that the tree structure changed.
+	 */
+	void structureChanged() {
+		BleService service = this.service;
+		if (service != null) {
+			service.structureChanged();
+		}
 	}
 	
 	protected void export(DBusConnection dbusConnection) throws DBusException {
@@ -107,20 +156,70 @@ public class BleCharacteristic implements GattCharacteristic1, Properties {
 		dBusConnection.unExportObject(this.getPath().toString());
 	}
 	
+	/**
+	 * Reassemble the prepared writes of each device: BlueZ delivers a long write as one value at offset 0, and the
+	 * pieces a central executes one by one at the following offsets reach the listener joined to the value before
+	 * them, at offset 0. Every write is delivered within its WriteValue call, the listener's exceptions reach the
+	 * central. The reassembly memory is bounded by the application.
+	 * @param idleTimeout time a value is kept for its next piece
+	 * @param maxValueLength max length of a reassembled value, up to 512 bytes
+	 */
+	public void enableWriteReassembly(long idleTimeout, TimeUnit unit, int maxValueLength) {
+		WriteReassembler previous = this.writeReassembler;
+		this.writeReassembler = new WriteReassembler(idleTimeout, unit, maxValueLength);
+		if (previous != null) {
+			previous.clear();
+		}
+	}
+
+	/**
+	 * Deliver each write fragment to the listener as it arrives.
+	 */
+	public void disableWriteReassembly() {
+		WriteReassembler previous = this.writeReassembler;
+		this.writeReassembler = null;
+		if (previous != null) {
+			previous.clear();
+		}
+	}
+
+	/**
+	 * Set how long the value read at offset 0 is kept for the reads at the following offsets.
+	 */
+	public void setLongReadTimeout(long timeout, TimeUnit unit) {
+		longReadCache.setTimeout(timeout, unit);
+	}
+
 	/**
 	 * Return the Path (dbus class)
 	 * @return
 	 */
 	public Path getPath() {
-		return new Path(path);
+		Path cached = cachedPath;
+		// the Path keeps the String it has been built with, so a new path field is detected by reference
+		if (cached == null || cached.getPath() != path) {
+			cached = new Path(path);
+			cachedPath = cached;
+		}
+		return cached;
 	}
 	
+	/**
+	 * Return the D-Bus properties. The map is immutable and built again only after a change of the fields.
+	 * @return
+	 */
 	public Map<String, Map<String, Variant>> getProperties() {
+		PropertiesCache cache = propertiesCache;
+		Path servicePath = service.getPath();
+		if (cache != null && cache.isValid(path, uuid, servicePath)) {
+			return cache.properties;
+		}
         LOG.debug("Characteristic-> Properties");
+		int expectedModCount = modCount;
 
 		Map<String, Variant> characteristicMap = new HashMap<String, Variant>();
 		
-		Variant<Path> servicePathProperty = new Variant<Path>(service.getPath());
+		Variant<Path> servicePathProperty = new Variant<Path>(servicePath);
         characteristicMap.put(SERVICE_PROPERTY_KEY, servicePathProperty);
 		
 		Variant<String> uuidProperty = new Variant<String>(this.uuid);
@@ -133,40 +232,120 @@ public class BleCharacteristic implements GattCharacteristic1, Properties {
         characteristicMap.put(DESCRIPTORS_PROPERTY_KEY, descriptorsPathProperty);
 		
 		Map<String, Map<String, Variant>> externalMap = new HashMap<String, Map<String, Variant>>();
-		externalMap.put(GATT_CHARACTERISTIC_INTERFACE, characteristicMap);
-		
-		return externalMap;
+		externalMap.put(GATT_CHARACTERISTIC_INTERFACE, Collections.unmodifiableMap(characteristicMap));
+
+		Map<String, Map<String, Variant>> properties = Collections.unmodifiableMap(externalMap);
+		if (expectedModCount == modCount) {
+			propertiesCache = new PropertiesCache(path, uuid, servicePath, properties);
+		}
+		return properties;
 	}
 
+	/**
+	 * The array is cached, it must not be modified.
+	 * @return
+	 */
     public Path[] getDescriptorPaths() {
-        Path[] descriptorPaths = new Path[descriptors.size()];
+        Path[] descriptorPaths = cachedDescriptorPaths;
+        if (descriptorPaths != null) {
+            return descriptorPaths;
+        }
+        int expectedModCount = modCount;
+        descriptorPaths = new Path[descriptors.size()];
         int i = 0;
-        for (String pathString : descriptors.keySet()) {
-            descriptorPaths[i] = new Path(pathString);
+        for (BleDescriptor descriptor : descriptors.values()) {
+            if (i == descriptorPaths.length) {
+                break;
+            }
+            descriptorPaths[i] = descriptor.getDBusPath();
             i++;
         }
+        if (i < descriptorPaths.length) {
+            descriptorPaths = Arrays.copyOf(descriptorPaths, i);
+        }
+        if (expectedModCount == modCount) {
+            cachedDescriptorPaths = descriptorPaths;
+        }
         return descriptorPaths;
     }
 
+	/**
+	 * Drop the cached properties, they are built again on the next request.
+	 */
+	protected void invalidateProperties() {
+		modCount++;
+		propertiesCache = null;
+	}
+
+	/**
+	 * Properties built from the given path, uuid and service path.
+	 * The protected fields can be changed by the subclasses, so they are checked by reference on each use.
+	 */
+	private static final class PropertiesCache {
+		final String path;
+		final String uuid;
+		final Path servicePath;
+		final Map<String, Map<String, Variant>> properties;
+
+		PropertiesCache(String path, String uuid, Path servicePath, Map<String, Map<String, Variant>> properties) {
+			this.path = path;
+			this.uuid = uuid;
+			this.servicePath = servicePath;
+			this.properties = properties;
+		}
+
+		boolean isValid(String path, String uuid, Path servicePath) {
+			return this.path == path && this.uuid == uuid && this.servicePath == servicePath;
+		}
+	}
+
 	/**
 	 * Call this method to send a notification to a central.
+	 * The notification is queued on the application's publisher, so the method returns without waiting for D-Bus.
+	 * Nothing is done, not even reading the value, when nobody is subscribed.
 	 */
     public void sendNotification(String devicePath) {
-		try {
-			DBusConnection dbusConnection = DBusConnection.getConnection(DBusConnection.SYSTEM);
-
-            Variant<byte[]> signalValueVariant = new Variant<byte[]>(onReadValue(devicePath));
-			Map<String, Variant> signalValue = new HashMap<String, Variant>();
-            signalValue.put(VALUE_PROPERTY_KEY, signalValueVariant);
-			
-			PropertiesChanged signal = new PropertiesChanged(this.getPath().toString(), GATT_CHARACTERISTIC_INTERFACE, signalValue, new ArrayList<String>());
-			dbusConnection.sendSignal(signal);
-			dbusConnection.disconnect();
-		} catch(Exception e) {
-			e.printStackTrace();
+		if (!isNotifying()) {
+			return;
 		}
+		byte[] value = readFromListener(devicePath, GattMetrics.Operation.NOTIFY);
+		// the listener may return an array it changes later
+		notifyValue(value != null ? value.clone() : null);
 	}
-	
+
+	/**
+	 * Queue the value on the application's publisher, which takes ownership of the array: it must not be changed.
+	 * @return false if the notification has been discarded
+	 */
+	boolean notifyValue(byte[] value) {
+		if (!isNotifying()) {
+			return false;
+		}
+		long start = System.nanoTime();
+		BleNotificationPublisher publisher = notificationPublisher;
+		if (publisher == null) {
+			LOG.warn("Notification on " + path + " discarded, the application is not started");
+			metrics.record(GattMetrics.Operation.NOTIFY, null, 0, 0, start, true);
+			return false;
+		}
+		boolean queued = publisher.notifyOwned(this, value);
+		metrics.record(GattMetrics.Operation.NOTIFY, null, 0, value != null ? value.length : 0, start, !queued);
+		return queued;
+	}
+
+	void setNotificationPublisher(BleNotificationPublisher notificationPublisher) {
+		this.notificationPublisher = notificationPublisher;
+	}
+
+	/**
+	 * Set who receives the write-without-response packets, the WriteValue calls of type "command",
+	 * as a stream instead of the listener's setValue.
+	 * @param writeStreamConsumer
+	 */
+	public void setWriteStreamConsumer(BleWriteStreamConsumer writeStreamConsumer) {
+		this.writeStreamConsumer = writeStreamConsumer;
+	}
+
 	@Override
 	public boolean isRemote() {
 		return false;
@@ -174,18 +353,29 @@ public class BleCharacteristic implements GattCharacteristic1, Properties {
 
 	/**
 	 * This method is called when the central request the Characteristic's value.
+	 * A value longer than the MTU is read with increasing offsets: the listener is called at offset 0 only,
+	 * the following chunks come from the same value.
 	 */
 	@Override
 	public byte[] ReadValue(Map<String, Variant> option) {
-        LOG.debug("ReadValue option[" + option + "]");
+        LOG.debug("ReadValue option[{}]", option);
         int offset = getIntOption(option, "offset");
 
         String devicePath = null;
         devicePath = getPathOption(option, "device");
-
-        byte[] valueBytes = onReadValue(devicePath);
-		byte[] slice = Arrays.copyOfRange(valueBytes, offset, valueBytes.length);
-		return slice;
+        updateDeviceMtu(devicePath, option);
+
+        long start = System.nanoTime();
+        boolean failed = true;
+        int length = 0;
+        try {
+            byte[] value = longReadCache.read(devicePath, offset, timedReader);
+            length = value != null ? value.length : 0;
+            failed = false;
+            return value;
+        } finally {
+            metrics.record(GattMetrics.Operation.READ, devicePath, offset, length, start, failed);
+        }
 	}
 
 	/**
@@ -193,12 +383,77 @@ public class BleCharacteristic implements GattCharacteristic1, Properties {
 	 */
 	@Override
 	public void WriteValue(byte[] value, Map<String, Variant> option) {
-        LOG.debug("WriteValue " + value.length + "  option[" + option + "]");
+        LOG.debug("WriteValue {} option[{}]", value.length, option);
         int offset = getIntOption(option, "offset");
 
         String devicePath = getPathOption(option, "device");
-        LOG.debug("WriteValue devicePath = " + devicePath);
-        onWriteValue(devicePath, offset, value);
+        updateDeviceMtu(devicePath, option);
+
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            writeValue(value, option, devicePath, offset);
+            failed = false;
+        } finally {
+            metrics.record(GattMetrics.Operation.WRITE, devicePath, offset, value.length, start, failed);
+        }
+    }
+
+    private void writeValue(byte[] value, Map<String, Variant> option, String devicePath, int offset) {
+        longReadCache.clear();
+        if (getBooleanOption(option, PREPARE_AUTHORIZE_OPTION)) {
+            // the value comes later, with the execute write
+            return;
+        }
+        BleWriteStreamConsumer consumer = writeStreamConsumer;
+        if (consumer != null && offset == 0 && WRITE_TYPE_COMMAND.equals(getStringOption(option, "type"))) {
+            consumer.onWrite(devicePath, ByteBuffer.wrap(value));
+            return;
+        }
+        WriteReassembler reassembler = writeReassembler;
+        BleApplication application = getApplication();
+        if (reassembler != null && application != null) {
+            reassembler.write(application.getReassemblyPool(), devicePath, offset, value, getStringOption(option, "type"),
+                    this::writeToListener);
+            return;
+        }
+        writeToListener(devicePath, offset, value);
+    }
+
+    private byte[] readFromListener(String devicePath, GattMetrics.Operation operation) {
+        long start = System.nanoTime();
+        try {
+            return onReadValue(devicePath);
+        } finally {
+            metrics.recordListener(operation, start);
+        }
+    }
+
+    private void writeToListener(String devicePath, int offset, byte[] value) {
+        long start = System.nanoTime();
+        try {
+            onWriteValue(devicePath, offset, value);
+        } finally {
+            metrics.recordListener(GattMetrics.Operation.WRITE, start);
+        }
+    }
+
+    /**
+     * @return the counters and latencies of the reads, writes and notifications of the characteristic
+     */
+    public GattMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * BlueZ passes the ATT MTU of the link with the requests, since 5.62.
+     */
+    private void updateDeviceMtu(String devicePath, Map<String, Variant> option) {
+        int mtu = getIntOption(option, "mtu");
+        BleApplication application = getApplication();
+        if (mtu > 0 && application != null) {
+            application.getDeviceRegistry().updateMtu(devicePath, mtu);
+        }
     }
 
     private int getIntOption(Map<String, Variant> option, String key) {
@@ -210,6 +465,11 @@ public class BleCharacteristic implements GattCharacteristic1, Properties {
         return value;
     }
 
+    private boolean getBooleanOption(Map<String, Variant> option, String key) {
+        Variant<Boolean> vvalue = option.get(key);
+        return vvalue != null && Boolean.TRUE.equals(vvalue.getValue());
+    }
+
     private String getStringOption(Map<String, Variant> option, String key) {
         String value = null;
         if (option.containsKey(key)) {
@@ -229,16 +489,94 @@ public class BleCharacteristic implements GattCharacteristic1, Properties {
         return path;
     }
 
+    /**
+     * Read the value from the listener. The call runs on the application's callback executor, if any,
+     * and waits up to the callback timeout.
+     */
     protected byte[] onReadValue(String devicePath) {
-        return listener.getValue(devicePath);
+        BleCharacteristicAsyncListener async = asyncListener;
+        BleApplication application = getApplication();
+        Executor executor = application != null ? application.getCallbackExecutor() : null;
+        if (async == null && executor == null) {
+            return listener.getValue(devicePath);
+        }
+        CompletableFuture<byte[]> future;
+        if (executor == null) {
+            future = async.getValueAsync(devicePath);
+        } else if (async == null) {
+            future = CompletableFuture.supplyAsync(() -> listener.getValue(devicePath), executor);
+        } else {
+            future = CompletableFuture.supplyAsync(() -> async.getValueAsync(devicePath), executor)
+                    .thenCompose(Function.identity());
+        }
+        return await(future, application);
     }
 
+    /**
+     * Write the value to the listener. The call runs on the application's callback executor, if any,
+     * and waits up to the callback timeout.
+     */
     protected void onWriteValue(String devicePath, int offset, byte[] value) {
-        listener.setValue(devicePath, offset, value);
+        BleCharacteristicAsyncListener async = asyncListener;
+        BleApplication application = getApplication();
+        Executor executor = application != null ? application.getCallbackExecutor() : null;
+        if (async == null && executor == null) {
+            listener.setValue(devicePath, offset, value);
+            return;
+        }
+        CompletableFuture<Void> future;
+        if (executor == null) {
+            future = async.setValueAsync(devicePath, offset, value);
+        } else if (async == null) {
+            future = CompletableFuture.runAsync(() -> listener.setValue(devicePath, offset, value), executor);
+        } else {
+            future = CompletableFuture.supplyAsync(() -> async.setValueAsync(devicePath, offset, value), executor)
+                    .thenCompose(Function.identity());
+        }
+        await(future, application);
+    }
+
+    /**
+     * Wait for the listener's result. dbus-java replies with the return value of the exported method,
+     * so the D-Bus worker thread waits for the future.
+     */
+    private <T> T await(CompletableFuture<T> future, BleApplication application) {
+        long timeout = application != null ? application.getCallbackTimeout() : BleApplication.DEFAULT_CALLBACK_TIMEOUT;
+        try {
+            return future.get(timeout, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException e) {
+            future.cancel(true);
+            throw new org.bluez.Error.Failed("Characteristic " + path + " listener timed out");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof DBusExecutionException) {
+                throw (DBusExecutionException) cause;
+            }
+            LOG.error("Characteristic " + path + " listener failed", cause);
+            throw new org.bluez.Error.Failed("Characteristic " + path + " listener failed");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new org.bluez.Error.Failed("Interrupted");
+        }
+    }
+
+    /**
+     * Set an asynchronous source of the data, used instead of the listener.
+     * @param asyncListener
+     */
+    public void setAsyncListener(BleCharacteristicAsyncListener asyncListener) {
+        this.asyncListener = asyncListener;
     }
 
     public void addDescriptor(BleDescriptor descriptor) {
         descriptors.put(descriptor.getPath(), descriptor);
+        invalidateProperties();
+        cachedDescriptorPaths = null;
+        structureChanged();
+        BleApplication application = getApplication();
+        if (application != null) {
+            application.descriptorAdded(descriptor);
+        }
     }
 
     public Map<String, BleDescriptor> getDescriptors() {
@@ -247,43 +585,115 @@ public class BleCharacteristic implements GattCharacteristic1, Properties {
 
 	@Override
 	public void StartNotify() {
-        LOG.debug("StartNotify");
-		if(isNotifying) {
-			System.out.println("Characteristic already notifying");
-			return;
-		}
-		this.isNotifying = true;
+		addSubscription(getCaller());
 	}
 
 	@Override
 	public void StopNotify() {
-        LOG.debug("StopNotify");
-		if(!isNotifying) {
-			System.out.println("Characteristic already not notifying");
-			return;
+		removeSubscription(getCaller());
+	}
+
+	/**
+	 * Record the subscription to the notifications. The listener is told when the first subscription starts.
+	 * BlueZ calls StartNotify once for all the centrals, so the subscriber is the caller of StartNotify,
+	 * unless the subscriptions are managed with this method.
+	 * @param subscriber who subscribed, i.e. the device path
+	 */
+	public void addSubscription(String subscriber) {
+		boolean first;
+		synchronized (subscriptions) {
+			if (subscriptions.containsKey(subscriber)) {
+				LOG.debug("Characteristic already notifying to {}", subscriber);
+				return;
+			}
+			first = subscriptions.isEmpty();
+			subscriptions.put(subscriber, System.currentTimeMillis());
+			hasSubscriptions = true;
+		}
+		LOG.debug("StartNotify {} subscriber {}", path, subscriber);
+		GattEvents.subscription(path, subscriber, true);
+		if (first && listener != null) {
+			listener.notifyStarted(subscriber);
+		}
+	}
+
+	/**
+	 * Remove the subscription. The listener is told when the last subscription stops.
+	 * @param subscriber who unsubscribed
+	 */
+	public void removeSubscription(String subscriber) {
+		boolean last;
+		synchronized (subscriptions) {
+			if (subscriptions.remove(subscriber) == null) {
+				LOG.debug("Characteristic already not notifying to {}", subscriber);
+				return;
+			}
+			last = subscriptions.isEmpty();
+			hasSubscriptions = !last;
+		}
+		LOG.debug("StopNotify {} subscriber {}", path, subscriber);
+		GattEvents.subscription(path, subscriber, false);
+		if (last && listener != null) {
+			listener.notifyStopped(subscriber);
+		}
+	}
+
+	void clearSubscriptions() {
+		for (String subscriber : new ArrayList<String>(subscriptions.keySet())) {
+			removeSubscription(subscriber);
 		}
-		this.isNotifying = false;
+	}
+
+	/**
+	 * @return true if someone is subscribed to the notifications
+	 */
+	public boolean isNotifying() {
+		return hasSubscriptions;
+	}
+
+	/**
+	 * @return the subscribers with the time of their subscription in ms
+	 */
+	public Map<String, Long> getSubscriptions() {
+		return Collections.unmodifiableMap(subscriptions);
+	}
+
+	private static String getCaller() {
+		DBusCallInfo callInfo = DBusConnection.getCallInfo();
+		return (callInfo != null && callInfo.getSource() != null) ? callInfo.getSource() : LOCAL_SUBSCRIBER;
 	}
 	
+	/**
+	 * Return one property. The Value is read from the listener, the others come from the cached properties.
+	 */
 	@Override
+	@SuppressWarnings("unchecked")
 	public <A> A Get(String interface_name, String property_name) {
-		// TODO Auto-generated method stub
-		
-		return null;
+		if (GATT_CHARACTERISTIC_INTERFACE.equals(interface_name) && VALUE_PROPERTY_KEY.equals(property_name)) {
+			return (A) new Variant<byte[]>(onReadValue(null));
+		}
+		return GattProperties.get(getProperties(), interface_name, property_name);
 	}
 
+	/**
+	 * Only the Value can be set: it is written to the listener and notified if it changed.
+	 */
 	@Override
 	public <A> void Set(String interface_name, String property_name, A value) {
-		// TODO Auto-generated method stub
+		GattProperties.checkWritable(getProperties(), interface_name, property_name, VALUE_PROPERTY_KEY);
+		byte[] newValue = GattProperties.toByteArray(value);
+		byte[] oldValue = onReadValue(null);
+		onWriteValue(null, 0, newValue);
+		longReadCache.clear();
+		if (!Arrays.equals(oldValue, newValue)) {
+			sendNotification(null);
+		}
 	}
 	
 	@Override
 	public Map<String, Variant> GetAll(String interfaceName) {
-        LOG.debug("GetAll " + interfaceName);
-		if(GATT_CHARACTERISTIC_INTERFACE.equals(interfaceName)) {
-			return this.getProperties().get(GATT_CHARACTERISTIC_INTERFACE);
-		}
-		throw new RuntimeException("Interfaccia sbagliata [interface_name=" + interfaceName + "]");
+        LOG.debug("GetAll {}", interfaceName);
+		return GattProperties.getAll(getProperties(), interfaceName);
 	}
 
     public BleService getService() {
@@ -292,5 +702,7 @@ public class BleCharacteristic implements GattCharacteristic1, Properties {
 
     public void setService(BleService service) {
         this.service = service;
+        invalidateProperties();
+        structureChanged();
     }
 }
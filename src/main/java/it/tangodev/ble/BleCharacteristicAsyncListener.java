@@ -0,0 +1,13 @@
+package it.tangodev.ble;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Asynchronous source of the data of one Characteristic, for values that take time to be produced
+ * (i.e. a slow sensor or a remote call). BlueZ gets the reply when the future completes.
+ */
+public interface BleCharacteristicAsyncListener {
+    public CompletableFuture<byte[]> getValueAsync(String devicePath);
+
+    public CompletableFuture<Void> setValueAsync(String devicePath, int offset, byte[] value);
+}
@@ -9,4 +9,18 @@ public interface BleCharacteristicListener {
     public byte[] getValue(String devicePath);
 
     public void setValue(String devicePath, int offset, byte[] value);
+
+    /**
+     * Called when the first central subscribes to the notifications, the value sampling can be resumed.
+     * @param subscriber who subscribed
+     */
+    public default void notifyStarted(String subscriber) {
+    }
+
+    /**
+     * Called when the last central unsubscribes from the notifications, the value sampling can be paused.
+     * @param subscriber who unsubscribed
+     */
+    public default void notifyStopped(String subscriber) {
+    }
 }
@@ -11,8 +11,11 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
 
 import static it.tangodev.ble.GattPropertyKeys.*;
 
@@ -23,11 +26,20 @@ import static it.tangodev.ble.GattPropertyKeys.*;
 public class BleDescriptor implements GattDescriptor1, Properties {
     private static final Logger LOG = LoggerFactory.getLogger(BleDescriptor.class);
 
+    private static final String GATT_DESCRIPTOR_INTERFACE = GattDescriptor1.class.getName();
+
     private final String path;
     private final BleCharacteristic characteristic;
     private final String uuid;
     protected byte[] value;
     private DescriptorFlag[] flags;
+    private final Path dbusPath;
+    private volatile Map<String, Map<String, Variant>> cachedProperties;
+    private volatile Path cachedCharacteristicPath;
+    private final LongReadCache longReadCache = new LongReadCache();
+    private final GattMetrics metrics;
+    // the listener read timed as a read, kept to not allocate a method reference per call
+    private final Function<String, byte[]> timedReader = this::readFromListener;
 
     public enum DescriptorFlag {
         READ("read"),
@@ -56,14 +68,17 @@ public class BleDescriptor implements GattDescriptor1, Properties {
         this.characteristic = characteristic;
         this.flags = flags;
         this.uuid = uuid;
+        this.dbusPath = new Path(path);
+        this.metrics = new GattMetrics(() -> path);
     }
 
     /**
      * This method is called when the central request the Characteristic's value.
+     * The chunks of a long read come from the value read at offset 0.
      */
     @Override
     public byte[] ReadValue(Map<String, Variant> option) {
-        LOG.debug("ReadValue option[" + option + "]");
+        LOG.debug("ReadValue option[{}]", option);
         int offset = 0;
         if (option.containsKey("offset")) {
             Variant<UInt16> voffset = option.get("offset");
@@ -73,9 +88,17 @@ public class BleDescriptor implements GattDescriptor1, Properties {
         String devicePath = null;
         devicePath = stringVariantToString(option, devicePath);
 
-        byte[] valueBytes = onReadValue(devicePath);
-        byte[] slice = Arrays.copyOfRange(valueBytes, offset, valueBytes.length);
-        return slice;
+        long start = System.nanoTime();
+        boolean failed = true;
+        int length = 0;
+        try {
+            byte[] value = longReadCache.read(devicePath, offset, timedReader);
+            length = value != null ? value.length : 0;
+            failed = false;
+            return value;
+        } finally {
+            metrics.record(GattMetrics.Operation.READ, devicePath, offset, length, start, failed);
+        }
     }
 
     /**
@@ -83,7 +106,7 @@ public class BleDescriptor implements GattDescriptor1, Properties {
      */
     @Override
     public void WriteValue(byte[] value, Map<String, Variant> option) {
-        LOG.debug("WriteValue Write option[" + option + "]");
+        LOG.debug("WriteValue Write option[{}]", option);
         int offset = 0;
         if (option.containsKey("offset")) {
             Variant<UInt16> voffset = option.get("offset");
@@ -91,13 +114,48 @@ public class BleDescriptor implements GattDescriptor1, Properties {
         }
 
         String devicePath = null;
-        onWriteValue(stringVariantToString(option, devicePath), offset, value);
+        devicePath = stringVariantToString(option, devicePath);
+        longReadCache.clear();
+
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            writeToListener(devicePath, offset, value);
+            failed = false;
+        } finally {
+            metrics.record(GattMetrics.Operation.WRITE, devicePath, offset, value.length, start, failed);
+        }
+    }
+
+    private void writeToListener(String devicePath, int offset, byte[] value) {
+        long start = System.nanoTime();
+        try {
+            onWriteValue(devicePath, offset, value);
+        } finally {
+            metrics.recordListener(GattMetrics.Operation.WRITE, start);
+        }
+    }
+
+    private byte[] readFromListener(String devicePath) {
+        long start = System.nanoTime();
+        try {
+            return onReadValue(devicePath);
+        } finally {
+            metrics.recordListener(GattMetrics.Operation.READ, start);
+        }
+    }
+
+    /**
+     * @return the counters and latencies of the reads and writes of the descriptor
+     */
+    public GattMetrics getMetrics() {
+        return metrics;
     }
 
     protected String stringVariantToString(Map<String, Variant> option, String devicePath) {
         if (option.containsKey("device")) {
             Variant<Path> pathVariant = null;
-            pathVariant = option.get("pathVariant");
+            pathVariant = option.get("device");
             if (pathVariant != null) devicePath = pathVariant.getValue().getPath();
         }
         return devicePath;
@@ -111,33 +169,60 @@ public class BleDescriptor implements GattDescriptor1, Properties {
         this.value = value;
     }
 
+    /**
+     * Return one property. The Value is read from onReadValue, the others come from the cached properties.
+     */
     @Override
-    public <A> A Get(String s, String s1) {
-        return null;
+    @SuppressWarnings("unchecked")
+    public <A> A Get(String interfaceName, String propertyName) {
+        if (GATT_DESCRIPTOR_INTERFACE.equals(interfaceName) && VALUE_PROPERTY_KEY.equals(propertyName)) {
+            return (A) new Variant<byte[]>(onReadValue(null));
+        }
+        return GattProperties.get(getProperties(), interfaceName, propertyName);
     }
 
+    /**
+     * Only the Value can be set, PropertiesChanged is sent if it changed.
+     */
     @Override
-    public <A> void Set(String s, String s1, A a) {
-
+    public <A> void Set(String interfaceName, String propertyName, A value) {
+        GattProperties.checkWritable(getProperties(), interfaceName, propertyName, VALUE_PROPERTY_KEY);
+        byte[] newValue = GattProperties.toByteArray(value);
+        byte[] oldValue = onReadValue(null);
+        onWriteValue(null, 0, newValue);
+        longReadCache.clear();
+        if (Arrays.equals(oldValue, newValue)) {
+            return;
+        }
+        BleApplication application = characteristic.getApplication();
+        BleNotificationPublisher publisher = application != null ? application.getNotificationPublisher() : null;
+        if (publisher != null) {
+            Map<String, Variant> changed = new HashMap<>();
+            changed.put(VALUE_PROPERTY_KEY, new Variant<byte[]>(newValue));
+            publisher.propertiesChanged(path, GATT_DESCRIPTOR_INTERFACE, changed);
+        }
     }
 
     @Override
     public Map<String, Variant> GetAll(String interfaceName) {
-        LOG.debug("GetAll " + interfaceName);
-        Map<String, Map<String, Variant>> properties = getProperties();
-        if (properties.containsKey(interfaceName)) return properties.get(interfaceName);
-        else {
-            LOG.error("GetAll Unknown interface: " + interfaceName);
-            return null;
-        }
+        LOG.debug("GetAll {}", interfaceName);
+        return GattProperties.getAll(getProperties(), interfaceName);
     }
 
+    /**
+     * Return the D-Bus properties. The map is immutable and built again only if the characteristic path changed.
+     */
     Map<String, Map<String, Variant>> getProperties() {
+        Path characteristicPath = characteristic.getPath();
+        Map<String, Map<String, Variant>> properties = cachedProperties;
+        if (properties != null && cachedCharacteristicPath == characteristicPath) {
+            return properties;
+        }
         LOG.debug("getProperties");
 
         Map<String, Variant> descriptorMap = new HashMap<>();
 
-        Variant<Path> characteristicPathProperty = new Variant<>(characteristic.getPath());
+        Variant<Path> characteristicPathProperty = new Variant<>(characteristicPath);
         descriptorMap.put(CHARACTERISTIC_PROPERTY_KEY, characteristicPathProperty);
 
         Variant<String> uuidProperty = new Variant<>(uuid);
@@ -150,9 +235,12 @@ public class BleDescriptor implements GattDescriptor1, Properties {
 //        descriptorMap.put(VALUE_PROPERTY_KEY, valueProperty);
 
         Map<String, Map<String, Variant>> externalMap = new HashMap<String, Map<String, Variant>>();
-        externalMap.put(GattDescriptor1.class.getName(), descriptorMap);
+        externalMap.put(GATT_DESCRIPTOR_INTERFACE, Collections.unmodifiableMap(descriptorMap));
 
-        return externalMap;
+        properties = Collections.unmodifiableMap(externalMap);
+        cachedCharacteristicPath = characteristicPath;
+        cachedProperties = properties;
+        return properties;
     }
 
     @Override
@@ -174,8 +262,23 @@ public class BleDescriptor implements GattDescriptor1, Properties {
         return path;
     }
 
+    /**
+     * Return the Path (dbus class)
+     */
+    public Path getDBusPath() {
+        return dbusPath;
+    }
+
     public void setValue(byte[] value) {
         this.value = value;
+        longReadCache.clear();
+    }
+
+    /**
+     * Set how long the value read at offset 0 is kept for the reads at the following offsets.
+     */
+    public void setLongReadTimeout(long timeout, TimeUnit unit) {
+        longReadCache.setTimeout(timeout, unit);
     }
 
     public byte[] getValue() {
@@ -0,0 +1,74 @@
+package it.tangodev.ble;
+
+/**
+ * A central connected to the application, as tracked by the BleDeviceRegistry.
+ * It does not tell the characteristics the central subscribed to: BlueZ merges the StartNotify of all the centrals
+ * into one, without the caller.
+ */
+public class BleDevice {
+    public enum State {
+        CONNECTED,
+        DISCONNECTED
+    }
+
+    private final String path;
+    private final String address;
+    private final long connectTime;
+    private volatile State state = State.CONNECTED;
+    private volatile int mtu = 0;
+
+    BleDevice(String path, String address, long connectTime) {
+        this.path = path;
+        this.address = address;
+        this.connectTime = connectTime;
+    }
+
+    /**
+     * @return the D-Bus path of the device, i.e. /org/bluez/hci0/dev_00_11_22_33_44_55
+     */
+    public String getPath() {
+        return path;
+    }
+
+    public String getAddress() {
+        return address;
+    }
+
+    /**
+     * @return the path of the adapter the device is connected on
+     */
+    public String getAdapterPath() {
+        return BleApplication.getAdapterPath(path);
+    }
+
+    /**
+     * @return when the device connected, in milliseconds since the epoch
+     */
+    public long getConnectTime() {
+        return connectTime;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    /**
+     * @return the ATT MTU reported by BlueZ with the device's requests, 0 while unknown
+     */
+    public int getMtu() {
+        return mtu;
+    }
+
+    void setState(State state) {
+        this.state = state;
+    }
+
+    void setMtu(int mtu) {
+        this.mtu = mtu;
+    }
+
+    @Override
+    public String toString() {
+        return path + " [" + address + ", " + state + ", mtu=" + mtu + "]";
+    }
+}
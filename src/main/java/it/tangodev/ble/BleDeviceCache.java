@@ -0,0 +1,512 @@
+package it.tangodev.ble;
+
+import it.tangodev.utils.Utils;
+import org.bluez.Adapter1;
+import org.dbus.InterfacesAddedSignal.InterfacesAdded;
+import org.dbus.InterfacesRomovedSignal.InterfacesRemoved;
+import org.dbus.ObjectManager;
+import org.dbus.PropertiesChangedSignal.PropertiesChanged;
+import org.freedesktop.DBus;
+import org.freedesktop.DBus.Introspectable;
+import org.freedesktop.DBus.Properties;
+import org.freedesktop.dbus.DBusConnection;
+import org.freedesktop.dbus.DBusSigHandler;
+import org.freedesktop.dbus.Variant;
+import org.freedesktop.dbus.exceptions.DBusException;
+import org.freedesktop.dbus.exceptions.DBusExecutionException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * BleDeviceCache bounds the remote devices BlueZ keeps under an adapter. BlueZ keeps an object for every device
+ * it has seen, so on a long running gateway the object tree, and the signals and lookups that go through it, grow
+ * with every passer-by.
+ *
+ * The cache follows the Device1 objects with the InterfacesAdded, PropertiesChanged and InterfacesRemoved signals,
+ * a device is seen again with each change of its properties, i.e. each advertisement while discovering.
+ * A sweep removes with Adapter1.RemoveDevice the devices that are:
+ * - expired: not seen for the time to live
+ * - the least recently seen, while there are more devices than the max devices
+ * The connected, paired, bonded and trusted devices are never removed, but they count in the max devices.
+ */
+public class BleDeviceCache {
+    private static final Logger LOG = LoggerFactory.getLogger(BleDeviceCache.class);
+
+    public static final int DEFAULT_MAX_DEVICES = 512;
+    public static final long DEFAULT_TIME_TO_LIVE = 600000; // in ms, 10 min
+    public static final long DEFAULT_SWEEP_INTERVAL = 30000; // in ms
+
+    public enum EvictionReason {
+        EXPIRED,
+        CAPACITY
+    }
+
+    private static final String DOES_NOT_EXIST = "org.bluez.Error.DoesNotExist";
+    private static final Pattern DEVICE_NODE = Pattern.compile("<node\\s+name=\"(dev_[^\"]+)\"");
+    // the properties that keep a device, Bonded since BlueZ 5.66
+    private static final String[] KEEP_PROPERTIES = { "Connected", "Paired", "Bonded", "Trusted" };
+
+    private static final class Entry {
+        final String path;
+        long lastSeen;
+        // lastSeen when a sweep selected the device, it is not evicted if seen since
+        long selectedLastSeen;
+        // false once the entry left the cache, a device added again gets a new entry
+        boolean cached = true;
+        // true once one of the KEEP_PROPERTIES is, false once they are all known to be false, null until then
+        Boolean kept;
+        final boolean[] keep = new boolean[KEEP_PROPERTIES.length];
+        // the KEEP_PROPERTIES told by a signal or a query, the others are unknown
+        final boolean[] known = new boolean[KEEP_PROPERTIES.length];
+
+        Entry(String path, long lastSeen) {
+            this.path = path;
+            this.lastSeen = lastSeen;
+        }
+
+        /**
+         * @param all true if the properties are all those of the device, i.e. those of InterfacesAdded or GetAll:
+         *            a missing one is false. A PropertiesChanged carries only the changed ones, the device is not
+         *            known to be evictable until all the others are known.
+         */
+        void update(Map<String, Variant> properties, boolean all) {
+            for (int i = 0; i < KEEP_PROPERTIES.length; i++) {
+                Variant value = properties.get(KEEP_PROPERTIES[i]);
+                if (value != null || all) {
+                    keep[i] = value != null && Boolean.TRUE.equals(value.getValue());
+                    known[i] = true;
+                }
+            }
+            boolean allKnown = true;
+            kept = null;
+            for (int i = 0; i < KEEP_PROPERTIES.length; i++) {
+                if (known[i] && keep[i]) {
+                    kept = true;
+                    return;
+                }
+                allKnown &= known[i];
+            }
+            if (allKnown) {
+                kept = false;
+            }
+        }
+    }
+
+    private final String adapter;
+    private final String devicePathPrefix;
+    private volatile int maxDevices = DEFAULT_MAX_DEVICES;
+    private volatile long timeToLiveNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_TIME_TO_LIVE);
+    private long sweepIntervalMillis = DEFAULT_SWEEP_INTERVAL;
+    private String busAddress;
+
+    // by device path, in the order they were last seen, guarded by itself
+    private final LinkedHashMap<String, Entry> devices = new LinkedHashMap<String, Entry>(64, 0.75f, true);
+
+    private DBusConnection dbusConnection;
+    private Adapter1 bluezAdapter;
+    private String bluezOwner;
+    private ObjectManager bluezObjectManager;
+    private DBusSigHandler<InterfacesAdded> interfacesAddedHandler;
+    private DBusSigHandler<InterfacesRemoved> interfacesRemovedHandler;
+    private DBusSigHandler<PropertiesChanged> propertiesChangedHandler;
+    private volatile ScheduledExecutorService executor;
+    // a sweep is queued when the cap is exceeded, before the next periodic one
+    private final AtomicBoolean sweepQueued = new AtomicBoolean();
+
+    private final Map<EvictionReason, AtomicLong> evictedCounts = new EnumMap<EvictionReason, AtomicLong>(EvictionReason.class);
+    private final AtomicLong addedCount = new AtomicLong();
+    private final AtomicLong removedByBluezCount = new AtomicLong();
+    private final AtomicLong failedCount = new AtomicLong();
+    private final AtomicLong sweepCount = new AtomicLong();
+    private volatile long lastSweepNanos;
+
+    /**
+     * @param adapter the adapter name, usually hci0
+     */
+    public BleDeviceCache(String adapter) {
+        this.adapter = adapter;
+        this.devicePathPrefix = getAdapterPath() + "/dev_";
+        for (EvictionReason reason : EvictionReason.values()) {
+            evictedCounts.put(reason, new AtomicLong());
+        }
+    }
+
+    public String getAdapter() {
+        return adapter;
+    }
+
+    public String getAdapterPath() {
+        return "/org/bluez/" + adapter;
+    }
+
+    /**
+     * Connect to this D-Bus address instead of the system bus.
+     * @param busAddress a D-Bus address, i.e. tcp:host=localhost,port=12345
+     */
+    public void setBusAddress(String busAddress) {
+        this.busAddress = busAddress;
+    }
+
+    /**
+     * Set the devices kept under the adapter, DEFAULT_MAX_DEVICES by default.
+     */
+    public void setMaxDevices(int maxDevices) {
+        if (maxDevices <= 0) {
+            throw new IllegalArgumentException("Invalid max devices " + maxDevices);
+        }
+        this.maxDevices = maxDevices;
+    }
+
+    public int getMaxDevices() {
+        return maxDevices;
+    }
+
+    /**
+     * Set how long a device is kept after it was last seen, DEFAULT_TIME_TO_LIVE by default.
+     */
+    public void setTimeToLive(long timeToLive, TimeUnit unit) {
+        this.timeToLiveNanos = unit.toNanos(timeToLive);
+    }
+
+    /**
+     * Set the time between two sweeps, DEFAULT_SWEEP_INTERVAL by default. Applied at the next start.
+     */
+    public synchronized void setSweepInterval(long interval, TimeUnit unit) {
+        this.sweepIntervalMillis = Math.max(1, unit.toMillis(interval));
+    }
+
+    /**
+     * Read the devices already under the adapter and follow their changes.
+     */
+    public synchronized void start() throws DBusException {
+        if (dbusConnection != null) {
+            throw new IllegalStateException("Device cache of " + adapter + " already started");
+        }
+        dbusConnection = DBusConnection.getConnection(Utils.getPrivateBusAddress(busAddress, "ble-device-cache-" + adapter));
+        // the signals are handled in order: a Connected change handled before the InterfacesAdded of the device
+        // would leave it evictable
+        dbusConnection.changeThreadCount((byte) 1);
+        try {
+            DBus dbus = dbusConnection.getRemoteObject(BleApplication.DBUS_BUSNAME, "/org/freedesktop/DBus", DBus.class);
+            bluezOwner = dbus.GetNameOwner(BleApplication.BLUEZ_DBUS_BUSNAME);
+            bluezObjectManager = dbusConnection.getRemoteObject(BleApplication.BLUEZ_DBUS_BUSNAME, "/", ObjectManager.class);
+            bluezAdapter = dbusConnection.getRemoteObject(BleApplication.BLUEZ_DBUS_BUSNAME, getAdapterPath(), Adapter1.class);
+            initHandlers();
+            load();
+            executor = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "ble-device-cache");
+                thread.setDaemon(true);
+                return thread;
+            });
+            executor.scheduleWithFixedDelay(this::sweep, sweepIntervalMillis, sweepIntervalMillis, TimeUnit.MILLISECONDS);
+            queueSweep();
+        } catch (DBusException | RuntimeException e) {
+            close();
+            throw e;
+        }
+    }
+
+    public synchronized void stop() {
+        if (dbusConnection != null) {
+            close();
+        }
+    }
+
+    private void close() {
+        if (executor != null) {
+            executor.shutdownNow();
+            executor = null;
+        }
+        try {
+            if (interfacesAddedHandler != null) {
+                dbusConnection.removeSigHandler(InterfacesAdded.class, bluezOwner, bluezObjectManager, interfacesAddedHandler);
+                dbusConnection.removeSigHandler(InterfacesRemoved.class, bluezOwner, bluezObjectManager, interfacesRemovedHandler);
+                dbusConnection.removeSigHandler(PropertiesChanged.class, bluezOwner, propertiesChangedHandler);
+            }
+        } catch (DBusException e) {
+            LOG.warn("Unable to remove the device cache signal handlers: " + e.getMessage());
+        }
+        interfacesAddedHandler = null;
+        interfacesRemovedHandler = null;
+        propertiesChangedHandler = null;
+        synchronized (devices) {
+            devices.clear();
+        }
+        bluezAdapter = null;
+        dbusConnection.disconnect();
+        dbusConnection = null;
+    }
+
+    /**
+     * @return the devices under the adapter
+     */
+    public int getDeviceCount() {
+        synchronized (devices) {
+            return devices.size();
+        }
+    }
+
+    /**
+     * @return the devices known to be connected, paired, bonded or trusted
+     */
+    public int getKeptCount() {
+        synchronized (devices) {
+            int count = 0;
+            for (Entry entry : devices.values()) {
+                if (Boolean.TRUE.equals(entry.kept)) {
+                    count++;
+                }
+            }
+            return count;
+        }
+    }
+
+    public long getEvictedCount(EvictionReason reason) {
+        return evictedCounts.get(reason).get();
+    }
+
+    public long getEvictedCount() {
+        long count = 0;
+        for (AtomicLong evicted : evictedCounts.values()) {
+            count += evicted.get();
+        }
+        return count;
+    }
+
+    /**
+     * @return the devices added under the adapter since the start
+     */
+    public long getAddedCount() {
+        return addedCount.get();
+    }
+
+    /**
+     * @return the devices BlueZ removed itself, i.e. its temporary devices after its own timeout
+     */
+    public long getRemovedByBluezCount() {
+        return removedByBluezCount.get();
+    }
+
+    /**
+     * @return the RemoveDevice calls that failed
+     */
+    public long getFailedCount() {
+        return failedCount.get();
+    }
+
+    public long getSweepCount() {
+        return sweepCount.get();
+    }
+
+    /**
+     * @return the duration of the last sweep, with its RemoveDevice calls
+     */
+    public long getLastSweepDuration(TimeUnit unit) {
+        return unit.convert(lastSweepNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * The device nodes under the adapter, the node names only: their properties are read when a device is about
+     * to be evicted, while the signals tell those of the devices seen afterwards.
+     */
+    private void load() throws DBusException {
+        Introspectable introspectable = dbusConnection.getRemoteObject(BleApplication.BLUEZ_DBUS_BUSNAME, getAdapterPath(), Introspectable.class);
+        Matcher matcher = DEVICE_NODE.matcher(introspectable.Introspect());
+        long now = System.nanoTime();
+        synchronized (devices) {
+            while (matcher.find()) {
+                String path = getAdapterPath() + "/" + matcher.group(1);
+                if (!devices.containsKey(path)) {
+                    devices.put(path, new Entry(path, now));
+                }
+            }
+            LOG.debug("{} devices under {}", devices.size(), adapter);
+        }
+    }
+
+    private void initHandlers() throws DBusException {
+        interfacesAddedHandler = new DBusSigHandler<InterfacesAdded>() {
+            @Override
+            public void handle(InterfacesAdded signal) {
+                Map<String, Variant> properties = signal.getInterfacesAdded().get(BleApplication.BLUEZ_DEVICE_INTERFACE);
+                if (properties != null) {
+                    seen(signal.getObjectPath().toString(), properties, true);
+                }
+            }
+        };
+        interfacesRemovedHandler = new DBusSigHandler<InterfacesRemoved>() {
+            @Override
+            public void handle(InterfacesRemoved signal) {
+                if (signal.getInterfacesRemoved().contains(BleApplication.BLUEZ_DEVICE_INTERFACE)) {
+                    synchronized (devices) {
+                        // the devices evicted by the cache are already gone
+                        Entry entry = devices.remove(signal.getObjectPath().toString());
+                        if (entry != null) {
+                            entry.cached = false;
+                            removedByBluezCount.incrementAndGet();
+                        }
+                    }
+                }
+            }
+        };
+        propertiesChangedHandler = new DBusSigHandler<PropertiesChanged>() {
+            @Override
+            public void handle(PropertiesChanged signal) {
+                if (BleApplication.BLUEZ_DEVICE_INTERFACE.equals(signal.getIface())) {
+                    seen(signal.getPath(), signal.getPropertiesChanged(), false);
+                }
+            }
+        };
+        dbusConnection.addSigHandler(InterfacesAdded.class, bluezOwner, bluezObjectManager, interfacesAddedHandler);
+        dbusConnection.addSigHandler(InterfacesRemoved.class, bluezOwner, bluezObjectManager, interfacesRemovedHandler);
+        dbusConnection.addSigHandler(PropertiesChanged.class, bluezOwner, propertiesChangedHandler);
+    }
+
+    /**
+     * A signal of the device: it moves to the most recently seen end.
+     */
+    private void seen(String path, Map<String, Variant> properties, boolean all) {
+        if (!path.startsWith(devicePathPrefix)) {
+            return;
+        }
+        boolean overCapacity;
+        synchronized (devices) {
+            Entry entry = devices.get(path);
+            if (entry == null) {
+                entry = new Entry(path, 0);
+                devices.put(path, entry);
+                addedCount.incrementAndGet();
+            }
+            entry.lastSeen = System.nanoTime();
+            entry.update(properties, all);
+            overCapacity = devices.size() > maxDevices;
+        }
+        if (overCapacity) {
+            queueSweep();
+        }
+    }
+
+    private void queueSweep() {
+        ScheduledExecutorService executor = this.executor;
+        if (executor != null && sweepQueued.compareAndSet(false, true)) {
+            try {
+                executor.execute(this::sweep);
+            } catch (RuntimeException e) {
+                // stopped
+                sweepQueued.set(false);
+            }
+        }
+    }
+
+    /**
+     * Select the devices to evict under the lock, then remove them from BlueZ without it.
+     */
+    private void sweep() {
+        sweepQueued.set(false);
+        long start = System.nanoTime();
+        List<Entry> expired = new ArrayList<Entry>();
+        List<Entry> overCapacity = new ArrayList<Entry>();
+        synchronized (devices) {
+            int excess = devices.size() - maxDevices;
+            // from the least recently seen
+            for (Entry entry : devices.values()) {
+                boolean isExpired = start - entry.lastSeen >= timeToLiveNanos;
+                if (!isExpired && excess <= 0) {
+                    break;
+                }
+                if (Boolean.TRUE.equals(entry.kept)) {
+                    continue;
+                }
+                entry.selectedLastSeen = entry.lastSeen;
+                if (isExpired) {
+                    expired.add(entry);
+                } else {
+                    overCapacity.add(entry);
+                }
+                excess--;
+            }
+        }
+        evict(expired, EvictionReason.EXPIRED);
+        evict(overCapacity, EvictionReason.CAPACITY);
+        sweepCount.incrementAndGet();
+        lastSweepNanos = System.nanoTime() - start;
+        if (!expired.isEmpty() || !overCapacity.isEmpty()) {
+            LOG.debug("{} sweep: {} expired, {} over capacity, {} devices left in {} us", adapter, expired.size(),
+                    overCapacity.size(), getDeviceCount(), TimeUnit.NANOSECONDS.toMicros(lastSweepNanos));
+        }
+    }
+
+    private void evict(List<Entry> entries, EvictionReason reason) {
+        for (Entry entry : entries) {
+            if (Thread.currentThread().isInterrupted()) {
+                return;
+            }
+            Adapter1 bluezAdapter;
+            DBusConnection dbusConnection;
+            synchronized (this) {
+                bluezAdapter = this.bluezAdapter;
+                dbusConnection = this.dbusConnection;
+            }
+            if (bluezAdapter == null) {
+                return;
+            }
+            try {
+                Properties device = dbusConnection.getRemoteObject(BleApplication.BLUEZ_DBUS_BUSNAME, entry.path, Properties.class);
+                if (entry.kept == null) {
+                    // loaded at the start, or only partly told by PropertiesChanged since
+                    Map<String, Variant> properties = device.GetAll(BleApplication.BLUEZ_DEVICE_INTERFACE);
+                    synchronized (devices) {
+                        entry.update(properties, true);
+                    }
+                    if (Boolean.TRUE.equals(entry.kept)) {
+                        continue;
+                    }
+                }
+                synchronized (devices) {
+                    // removed, seen or connected since the selection: seen() updates the entry in place, and a
+                    // lookup would move it in the access order
+                    if (!entry.cached || entry.lastSeen != entry.selectedLastSeen || Boolean.TRUE.equals(entry.kept)) {
+                        continue;
+                    }
+                    devices.remove(entry.path);
+                    entry.cached = false;
+                }
+                // the device is passed as its path
+                bluezAdapter.RemoveDevice(device);
+                evictedCounts.get(reason).incrementAndGet();
+            } catch (DBusException | DBusExecutionException e) {
+                failedCount.incrementAndGet();
+                boolean removed = e instanceof DBusExecutionException
+                        && DOES_NOT_EXIST.equals(((DBusExecutionException) e).getType());
+                synchronized (devices) {
+                    if (removed) {
+                        // removed meanwhile
+                        if (entry.cached) {
+                            devices.remove(entry.path);
+                            entry.cached = false;
+                        }
+                    } else if (!entry.cached && !devices.containsKey(entry.path)) {
+                        // i.e. no reply: BlueZ still has the device, it is counted again and the next sweep
+                        // retries it, a device that is gone by then fails with DoesNotExist
+                        entry.cached = true;
+                        devices.put(entry.path, entry);
+                    }
+                }
+                LOG.debug("RemoveDevice {}: {}", entry.path, e.getMessage());
+            }
+        }
+    }
+}
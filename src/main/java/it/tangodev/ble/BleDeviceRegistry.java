@@ -0,0 +1,90 @@
+package it.tangodev.ble;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The devices connected to a BleApplication, by device path. The entries follow the Connected property of
+ * org.bluez.Device1: a device is added when it connects and removed when it disconnects, a device that is
+ * only discovered is not tracked.
+ */
+public class BleDeviceRegistry {
+    private static final String DEVICE_PATH_PREFIX = "dev_";
+
+    private final Map<String, BleDevice> devices = new ConcurrentHashMap<String, BleDevice>();
+    private final AtomicInteger connectedCount = new AtomicInteger();
+
+    /**
+     * @return the connected device or null
+     */
+    public BleDevice get(String devicePath) {
+        return devicePath != null ? devices.get(devicePath) : null;
+    }
+
+    public boolean isConnected(String devicePath) {
+        return get(devicePath) != null;
+    }
+
+    public int getConnectedCount() {
+        return connectedCount.get();
+    }
+
+    public Collection<BleDevice> getConnectedDevices() {
+        return Collections.unmodifiableCollection(new ArrayList<BleDevice>(devices.values()));
+    }
+
+    /**
+     * @param address the device's address, or null to take it from the path
+     * @return the new device, null if the device was already connected
+     */
+    BleDevice connected(String devicePath, String address) {
+        BleDevice device = new BleDevice(devicePath, address != null ? address : addressOf(devicePath), System.currentTimeMillis());
+        if (devices.putIfAbsent(devicePath, device) != null) {
+            return null;
+        }
+        connectedCount.incrementAndGet();
+        return device;
+    }
+
+    /**
+     * @return the device, null if the device was not connected
+     */
+    BleDevice disconnected(String devicePath) {
+        BleDevice device = devices.remove(devicePath);
+        if (device == null) {
+            return null;
+        }
+        connectedCount.decrementAndGet();
+        device.setState(BleDevice.State.DISCONNECTED);
+        return device;
+    }
+
+    void updateMtu(String devicePath, int mtu) {
+        BleDevice device = get(devicePath);
+        if (device != null && device.getMtu() != mtu) {
+            device.setMtu(mtu);
+        }
+    }
+
+    void clear() {
+        for (String devicePath : new ArrayList<String>(devices.keySet())) {
+            disconnected(devicePath);
+        }
+    }
+
+    /**
+     * BlueZ names the device objects after their address: /org/bluez/hci0/dev_00_11_22_33_44_55.
+     */
+    static String addressOf(String devicePath) {
+        int index = devicePath.lastIndexOf('/');
+        String name = devicePath.substring(index + 1);
+        if (!name.startsWith(DEVICE_PATH_PREFIX)) {
+            return null;
+        }
+        return name.substring(DEVICE_PATH_PREFIX.length()).replace('_', ':');
+    }
+}
@@ -0,0 +1,141 @@
+package it.tangodev.ble;
+
+import it.tangodev.utils.BleKernelSettings;
+
+/**
+ * A set of advertising and connection settings the BleAdvertisingController applies to the kernel of an adapter.
+ * The values are in the kernel units of BleKernelSettings: the advertising intervals in 0.625 ms, the connection
+ * intervals in 1.25 ms, the supervision timeout in 10 ms. A profile is immutable, the with methods return a copy.
+ */
+public class BleLinkProfile {
+    // 0 leaves the kernel setting as it is
+    public static final int UNCHANGED = 0;
+
+    /** 20 to 30 ms advertising, for the first seconds when a central is expected to look for the peripheral. */
+    public static final BleLinkProfile FAST_ADVERTISING = new BleLinkProfile("fast advertising", 32, 48);
+    /** 1022.5 to 1285 ms advertising, still discoverable for little power. */
+    public static final BleLinkProfile SLOW_ADVERTISING = new BleLinkProfile("slow advertising", 1636, 2056);
+    /** Advertising paused, 7.5 to 15 ms connection interval with no latency, 1 s supervision timeout. */
+    public static final BleLinkProfile CONNECTED_THROUGHPUT = new BleLinkProfile("connected throughput", 1636, 2056)
+            .withAdvertisingPaused().withConnectionParameters(6, 12, 0, 100);
+    /** Advertising slow, 100 to 200 ms connection interval skipping up to 4 events, 6 s supervision timeout. */
+    public static final BleLinkProfile CONNECTED_POWER_SAVING = new BleLinkProfile("connected power saving", 1636, 2056)
+            .withConnectionParameters(80, 160, 4, 600);
+
+    private final String name;
+    private final int advertiseIntervalMin;
+    private final int advertiseIntervalMax;
+    private final boolean advertisingPaused;
+    private final int connectionIntervalMin;
+    private final int connectionIntervalMax;
+    private final int connectionLatency;
+    private final int supervisionTimeout;
+
+    /**
+     * A profile that changes the advertising interval only.
+     * @param advertiseIntervalMin in 0.625 ms units, from 0x0020
+     * @param advertiseIntervalMax in 0.625 ms units, up to 0x4000
+     */
+    public BleLinkProfile(String name, int advertiseIntervalMin, int advertiseIntervalMax) {
+        this(name, advertiseIntervalMin, advertiseIntervalMax, false, UNCHANGED, UNCHANGED, UNCHANGED, UNCHANGED);
+    }
+
+    private BleLinkProfile(String name, int advertiseIntervalMin, int advertiseIntervalMax, boolean advertisingPaused,
+                           int connectionIntervalMin, int connectionIntervalMax, int connectionLatency,
+                           int supervisionTimeout) {
+        if (advertiseIntervalMin < BleKernelSettings.MIN_ADVERTISE_INTERVAL
+                || advertiseIntervalMax > BleKernelSettings.MAX_ADVERTISE_INTERVAL
+                || advertiseIntervalMin > advertiseIntervalMax) {
+            throw new IllegalArgumentException("Invalid advertise interval " + advertiseIntervalMin + "-" + advertiseIntervalMax);
+        }
+        this.name = name;
+        this.advertiseIntervalMin = advertiseIntervalMin;
+        this.advertiseIntervalMax = advertiseIntervalMax;
+        this.advertisingPaused = advertisingPaused;
+        this.connectionIntervalMin = connectionIntervalMin;
+        this.connectionIntervalMax = connectionIntervalMax;
+        this.connectionLatency = connectionLatency;
+        this.supervisionTimeout = supervisionTimeout;
+    }
+
+    /**
+     * The connection parameters the kernel uses for the next connections.
+     * The supervision timeout must exceed twice the time the peripheral can stay silent, (1 + latency) * max interval.
+     * @param intervalMin in 1.25 ms units, from 0x0006
+     * @param intervalMax in 1.25 ms units, up to 0x0c80
+     * @param latency the connection events the peripheral can skip, up to 0x01f3
+     * @param supervisionTimeout in 10 ms units, from 0x000a to 0x0c80
+     */
+    public BleLinkProfile withConnectionParameters(int intervalMin, int intervalMax, int latency, int supervisionTimeout) {
+        if (intervalMin < BleKernelSettings.MIN_CONNECTION_INTERVAL || intervalMax > BleKernelSettings.MAX_CONNECTION_INTERVAL
+                || intervalMin > intervalMax) {
+            throw new IllegalArgumentException("Invalid connection interval " + intervalMin + "-" + intervalMax);
+        }
+        if (latency < 0 || latency > BleKernelSettings.MAX_CONNECTION_LATENCY) {
+            throw new IllegalArgumentException("Invalid connection latency " + latency);
+        }
+        if (supervisionTimeout < BleKernelSettings.MIN_SUPERVISION_TIMEOUT
+                || supervisionTimeout > BleKernelSettings.MAX_SUPERVISION_TIMEOUT) {
+            throw new IllegalArgumentException("Invalid supervision timeout " + supervisionTimeout);
+        }
+        // in 1.25 ms units on both sides: timeout * 10 ms > 2 * (1 + latency) * max * 1.25 ms
+        if (supervisionTimeout * 8L <= 2L * (1 + latency) * intervalMax) {
+            throw new IllegalArgumentException("Supervision timeout " + supervisionTimeout
+                    + " too short for the connection interval " + intervalMax + " and latency " + latency);
+        }
+        return new BleLinkProfile(name, advertiseIntervalMin, advertiseIntervalMax, advertisingPaused,
+                intervalMin, intervalMax, latency, supervisionTimeout);
+    }
+
+    /**
+     * The application's advertisement is unregistered while this profile is active.
+     */
+    public BleLinkProfile withAdvertisingPaused() {
+        return new BleLinkProfile(name, advertiseIntervalMin, advertiseIntervalMax, true, connectionIntervalMin,
+                connectionIntervalMax, connectionLatency, supervisionTimeout);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getAdvertiseIntervalMin() {
+        return advertiseIntervalMin;
+    }
+
+    public int getAdvertiseIntervalMax() {
+        return advertiseIntervalMax;
+    }
+
+    public boolean isAdvertisingPaused() {
+        return advertisingPaused;
+    }
+
+    public boolean hasConnectionParameters() {
+        return connectionIntervalMin != UNCHANGED;
+    }
+
+    public int getConnectionIntervalMin() {
+        return connectionIntervalMin;
+    }
+
+    public int getConnectionIntervalMax() {
+        return connectionIntervalMax;
+    }
+
+    public int getConnectionLatency() {
+        return connectionLatency;
+    }
+
+    public int getSupervisionTimeout() {
+        return supervisionTimeout;
+    }
+
+    @Override
+    public String toString() {
+        return name + ": advertise " + advertiseIntervalMin + "-" + advertiseIntervalMax
+                + (advertisingPaused ? " paused" : "")
+                + (hasConnectionParameters() ? ", connection " + connectionIntervalMin + "-" + connectionIntervalMax
+                + " latency " + connectionLatency + " timeout " + supervisionTimeout : "");
+    }
+}
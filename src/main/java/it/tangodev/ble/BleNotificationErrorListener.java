@@ -0,0 +1,9 @@
+package it.tangodev.ble;
+
+/**
+ * Receives the errors raised while a notification is delivered to BlueZ.
+ * Called from the publisher thread, so implementations must not block.
+ */
+public interface BleNotificationErrorListener {
+    public void notificationFailed(BleCharacteristic characteristic, Exception e);
+}
@@ -0,0 +1,251 @@
+package it.tangodev.ble;
+
+import org.dbus.PropertiesChangedSignal.PropertiesChanged;
+import org.freedesktop.dbus.DBusConnection;
+import org.freedesktop.dbus.Variant;
+import org.freedesktop.dbus.exceptions.DBusException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static it.tangodev.ble.GattPropertyKeys.VALUE_PROPERTY_KEY;
+
+/**
+ * BleNotificationPublisher sends the characteristic notifications over the D-Bus connection owned by the
+ * BleApplication, instead of opening a new connection for each notification.
+ * Notifications are queued and sent in order by a single publisher thread, so notify() never blocks the caller.
+ */
+public class BleNotificationPublisher {
+    private static final Logger LOG = LoggerFactory.getLogger(BleNotificationPublisher.class);
+
+    public static final int DEFAULT_QUEUE_CAPACITY = 1024;
+
+    private static final String GATT_CHARACTERISTIC_INTERFACE = "org.bluez.GattCharacteristic1";
+    private static final List<String> NO_INVALIDATED_PROPERTIES = Collections.emptyList();
+    private static final long RATE_WINDOW_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    private final DBusConnection dbusConnection;
+    private final BlockingQueue<Notification> queue;
+    private final Thread publisherThread;
+    private volatile boolean running = true;
+    private volatile BleNotificationErrorListener errorListener;
+
+    private final AtomicLong sentCount = new AtomicLong();
+    private final AtomicLong droppedCount = new AtomicLong();
+    private final AtomicLong failedCount = new AtomicLong();
+
+    // written only by the publisher thread
+    private long windowStart = System.nanoTime();
+    private long windowCount = 0;
+    private volatile double notificationsPerSecond = 0;
+    private volatile long lastRateUpdate = windowStart;
+    // the drops already logged, they are logged once per rate window
+    private long loggedDroppedCount = 0;
+
+    private static final class Notification {
+        // null for the changes of the other objects' properties
+        final BleCharacteristic characteristic;
+        final byte[] value;
+        final String path;
+        final String iface;
+        final Map<String, Variant> changed;
+
+        Notification(BleCharacteristic characteristic, byte[] value) {
+            this.characteristic = characteristic;
+            this.value = value;
+            this.path = null;
+            this.iface = GATT_CHARACTERISTIC_INTERFACE;
+            this.changed = null;
+        }
+
+        Notification(String path, String iface, Map<String, Variant> changed) {
+            this.characteristic = null;
+            this.value = null;
+            this.path = path;
+            this.iface = iface;
+            this.changed = changed;
+        }
+
+        String getPath() {
+            return characteristic != null ? characteristic.getPath().toString() : path;
+        }
+    }
+
+    public BleNotificationPublisher(DBusConnection dbusConnection) {
+        this(dbusConnection, DEFAULT_QUEUE_CAPACITY);
+    }
+
+    /**
+     * @param dbusConnection the connection used to send the PropertiesChanged signals, it is not closed by the publisher
+     * @param queueCapacity  max number of notifications waiting to be sent, the newer ones are dropped when full
+     */
+    public BleNotificationPublisher(DBusConnection dbusConnection, int queueCapacity) {
+        this.dbusConnection = dbusConnection;
+        this.queue = new ArrayBlockingQueue<Notification>(queueCapacity);
+        this.publisherThread = new Thread(this::publishLoop, "ble-notification-publisher");
+        this.publisherThread.setDaemon(true);
+        this.publisherThread.start();
+    }
+
+    public void setErrorListener(BleNotificationErrorListener errorListener) {
+        this.errorListener = errorListener;
+    }
+
+    /**
+     * Queue the value to be notified to the centrals subscribed to the characteristic.
+     * The value is copied, the caller can refill its array.
+     * A dropped notification is not reported to the error listener: it is counted by getDroppedCount, and the
+     * publisher thread logs the count of the drops at most once per second.
+     * @return false if the notification has been dropped because the queue is full or the publisher is closed
+     */
+    public boolean notify(BleCharacteristic characteristic, byte[] value) {
+        return notifyOwned(characteristic, value != null ? value.clone() : null);
+    }
+
+    /**
+     * Queue the value without copying it: the publisher takes ownership of the array, the caller must not change it.
+     * @return false if the notification has been dropped because the queue is full or the publisher is closed
+     */
+    boolean notifyOwned(BleCharacteristic characteristic, byte[] value) {
+        if (!running || !queue.offer(new Notification(characteristic, value))) {
+            droppedCount.incrementAndGet();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Queue a PropertiesChanged signal for the properties of any object exported by the application.
+     * A dropped signal is counted and logged as a dropped notification.
+     * @return false if the signal has been dropped because the queue is full or the publisher is closed
+     */
+    public boolean propertiesChanged(String path, String iface, Map<String, Variant> changed) {
+        if (!running || !queue.offer(new Notification(path, iface, changed))) {
+            droppedCount.incrementAndGet();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Stop the publisher thread. Notifications still in the queue are discarded.
+     */
+    public void close() {
+        running = false;
+        publisherThread.interrupt();
+        queue.clear();
+    }
+
+    public long getSentCount() {
+        return sentCount.get();
+    }
+
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    public long getFailedCount() {
+        return failedCount.get();
+    }
+
+    public int getQueueSize() {
+        return queue.size();
+    }
+
+    /**
+     * @return the sustained throughput measured on the last complete one second window, 0 when idle
+     */
+    public double getNotificationsPerSecond() {
+        if (System.nanoTime() - lastRateUpdate > 2 * RATE_WINDOW_NANOS) {
+            return 0;
+        }
+        return notificationsPerSecond;
+    }
+
+    private void publishLoop() {
+        while (running) {
+            Notification notification;
+            try {
+                notification = queue.poll(RATE_WINDOW_NANOS, TimeUnit.NANOSECONDS);
+            } catch (InterruptedException e) {
+                break;
+            }
+            if (notification != null) {
+                publish(notification);
+            }
+            updateRate(notification != null);
+        }
+        LOG.debug("notification publisher stopped");
+    }
+
+    private void publish(Notification notification) {
+        try {
+            PropertiesChanged signal;
+            if (notification.changed != null) {
+                signal = new PropertiesChanged(notification.path, notification.iface, notification.changed,
+                        NO_INVALIDATED_PROPERTIES);
+            } else {
+                signal = valueChanged(notification.getPath(), notification.value);
+            }
+            dbusConnection.sendSignal(signal);
+            sentCount.incrementAndGet();
+        } catch (Exception e) {
+            failedCount.incrementAndGet();
+            if (notification.characteristic != null) {
+                reportError(notification.characteristic, e);
+            } else {
+                LOG.error("PropertiesChanged of " + notification.path + " failed", e);
+            }
+        }
+    }
+
+    /**
+     * Build the PropertiesChanged signal of a notification: it is marshalled when constructed, sending it only
+     * writes the message.
+     */
+    static PropertiesChanged valueChanged(String characteristicPath, byte[] value) throws DBusException {
+        Map<String, Variant> changed = new HashMap<String, Variant>(2);
+        changed.put(VALUE_PROPERTY_KEY, new Variant<byte[]>(value));
+        return new PropertiesChanged(characteristicPath, GATT_CHARACTERISTIC_INTERFACE, changed, NO_INVALIDATED_PROPERTIES);
+    }
+
+    private void updateRate(boolean sent) {
+        if (sent) {
+            windowCount++;
+        }
+        long now = System.nanoTime();
+        long elapsed = now - windowStart;
+        if (elapsed >= RATE_WINDOW_NANOS) {
+            notificationsPerSecond = windowCount * (double) RATE_WINDOW_NANOS / elapsed;
+            lastRateUpdate = now;
+            windowStart = now;
+            windowCount = 0;
+            logDropped();
+        }
+    }
+
+    private void logDropped() {
+        long dropped = droppedCount.get();
+        if (dropped != loggedDroppedCount) {
+            LOG.warn("{} notifications dropped, the queue was full or the publisher closed", dropped - loggedDroppedCount);
+            loggedDroppedCount = dropped;
+        }
+    }
+
+    private void reportError(BleCharacteristic characteristic, Exception e) {
+        BleNotificationErrorListener listener = errorListener;
+        if (listener != null) {
+            listener.notificationFailed(characteristic, e);
+        } else {
+            LOG.error("Notification failed on " + characteristic.getPath(), e);
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package it.tangodev.ble;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * BleNotificationScheduler conflates the values notified on the characteristics: between two flushes only the
+ * newest value of each characteristic is kept, and it is not sent if equal to the last one sent.
+ * Each characteristic can have a min interval between two notifications.
+ * flush() sends the pending values of all the characteristics in one pass, start() flushes periodically.
+ * Set on the application with BleApplication.setNotificationScheduler(), the characteristics removed from the tree
+ * are forgotten, otherwise remove() must be called.
+ */
+public class BleNotificationScheduler {
+    private static final Logger LOG = LoggerFactory.getLogger(BleNotificationScheduler.class);
+
+    private final Map<BleCharacteristic, Slot> slots = new ConcurrentHashMap<BleCharacteristic, Slot>();
+    private ScheduledExecutorService executor;
+    private ScheduledFuture<?> flushTask;
+
+    private final AtomicLong conflatedCount = new AtomicLong();
+    private final AtomicLong suppressedCount = new AtomicLong();
+    private final AtomicLong sentCount = new AtomicLong();
+
+    private static final class Slot {
+        final AtomicReference<byte[]> pending = new AtomicReference<byte[]>();
+        volatile long minIntervalNanos;
+        // written only while flushing, under the slot lock, a private copy
+        byte[] lastSent;
+        long lastSentTime;
+        boolean sentOnce;
+
+        Slot(long minIntervalNanos) {
+            this.minIntervalNanos = minIntervalNanos;
+        }
+    }
+
+    /**
+     * Set the newest value of the characteristic, it replaces the value still waiting for the flush.
+     * The value is copied, the caller can refill its array.
+     */
+    public void update(BleCharacteristic characteristic, byte[] value) {
+        if (slot(characteristic).pending.getAndSet(value != null ? value.clone() : null) != null) {
+            conflatedCount.incrementAndGet();
+        }
+    }
+
+    /**
+     * Set the min interval between two notifications of the characteristic, 0 to notify at each flush.
+     */
+    public void setMinInterval(BleCharacteristic characteristic, long interval, TimeUnit unit) {
+        slot(characteristic).minIntervalNanos = unit.toNanos(interval);
+    }
+
+    /**
+     * Forget the characteristic and its pending value.
+     */
+    public void remove(BleCharacteristic characteristic) {
+        slots.remove(characteristic);
+    }
+
+    /**
+     * Send the pending values of all the characteristics whose min interval has elapsed.
+     * @return the number of notifications sent
+     */
+    public int flush() {
+        long now = System.nanoTime();
+        int sent = 0;
+        for (Map.Entry<BleCharacteristic, Slot> entry : slots.entrySet()) {
+            if (flush(entry.getKey(), entry.getValue(), now)) {
+                sent++;
+            }
+        }
+        return sent;
+    }
+
+    /**
+     * Flush the pending values every period.
+     */
+    public synchronized void start(long period, TimeUnit unit) {
+        if (executor != null) {
+            throw new IllegalStateException("Notification scheduler already started");
+        }
+        executor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "ble-notification-scheduler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        flushTask = executor.scheduleAtFixedRate(this::scheduledFlush, period, period, unit);
+    }
+
+    public synchronized void stop() {
+        if (executor == null) {
+            return;
+        }
+        flushTask.cancel(false);
+        executor.shutdown();
+        executor = null;
+        flushTask = null;
+    }
+
+    public long getConflatedCount() {
+        return conflatedCount.get();
+    }
+
+    public long getSuppressedCount() {
+        return suppressedCount.get();
+    }
+
+    public long getSentCount() {
+        return sentCount.get();
+    }
+
+    private Slot slot(BleCharacteristic characteristic) {
+        Slot slot = slots.get(characteristic);
+        if (slot == null) {
+            slot = slots.computeIfAbsent(characteristic, c -> new Slot(0));
+        }
+        return slot;
+    }
+
+    private void scheduledFlush() {
+        try {
+            flush();
+        } catch (RuntimeException e) {
+            LOG.error("Scheduled notification flush failed", e);
+        }
+    }
+
+    private boolean flush(BleCharacteristic characteristic, Slot slot, long now) {
+        synchronized (slot) {
+            if (slot.pending.get() == null) {
+                return false;
+            }
+            if (slot.sentOnce && now - slot.lastSentTime < slot.minIntervalNanos) {
+                return false;
+            }
+            byte[] value = slot.pending.getAndSet(null);
+            if (value == null) {
+                return false;
+            }
+            if (slot.sentOnce && Arrays.equals(slot.lastSent, value)) {
+                suppressedCount.incrementAndGet();
+                return false;
+            }
+            if (!characteristic.notifyValue(value)) {
+                // keep it for the next flush, unless a newer value arrived meanwhile
+                slot.pending.compareAndSet(null, value);
+                return false;
+            }
+            slot.lastSent = value;
+            slot.lastSentTime = now;
+            slot.sentOnce = true;
+            sentCount.incrementAndGet();
+            return true;
+        }
+    }
+}
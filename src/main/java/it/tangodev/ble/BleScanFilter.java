@@ -0,0 +1,125 @@
+package it.tangodev.ble;
+
+import it.tangodev.utils.Utils;
+import org.freedesktop.dbus.UInt16;
+import org.freedesktop.dbus.Variant;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The discovery filter the BleScanner passes to org.bluez.Adapter1.SetDiscoveryFilter. BlueZ applies it in the
+ * controller and in bluetoothd, so the reports it drops never reach D-Bus. Every criterion is optional.
+ */
+public class BleScanFilter {
+    public static final String TRANSPORT_AUTO = "auto";
+    public static final String TRANSPORT_LE = "le";
+    public static final String TRANSPORT_BREDR = "bredr";
+
+    // BlueZ ignores an RSSI or pathloss criterion set to these values
+    public static final int NO_RSSI = Short.MIN_VALUE;
+    public static final int NO_PATHLOSS = -1;
+
+    private List<String> uuids = Collections.emptyList();
+    private int rssi = NO_RSSI;
+    private int pathloss = NO_PATHLOSS;
+    private String transport = TRANSPORT_LE;
+    private boolean duplicateData = true;
+
+    /**
+     * Report only the devices advertising one of these service UUIDs, all the devices when empty.
+     */
+    public void setUuids(List<String> uuids) {
+        this.uuids = uuids != null ? new ArrayList<String>(uuids) : Collections.<String>emptyList();
+    }
+
+    public List<String> getUuids() {
+        return Collections.unmodifiableList(uuids);
+    }
+
+    /**
+     * Report only the devices received at or above this level, in dBm. Exclusive with the pathloss.
+     */
+    public void setRssi(int rssi) {
+        if (rssi != NO_RSSI && (rssi < -127 || rssi > 20)) {
+            throw new IllegalArgumentException("Invalid RSSI threshold " + rssi);
+        }
+        this.rssi = rssi;
+    }
+
+    public int getRssi() {
+        return rssi;
+    }
+
+    /**
+     * Report only the devices whose advertised TX power minus the RSSI is at or below this value, in dB.
+     * Exclusive with the RSSI.
+     */
+    public void setPathloss(int pathloss) {
+        if (pathloss != NO_PATHLOSS && (pathloss < 0 || pathloss > 0xffff)) {
+            throw new IllegalArgumentException("Invalid pathloss threshold " + pathloss);
+        }
+        this.pathloss = pathloss;
+    }
+
+    public int getPathloss() {
+        return pathloss;
+    }
+
+    /**
+     * @param transport TRANSPORT_LE (the default), TRANSPORT_BREDR or TRANSPORT_AUTO
+     */
+    public void setTransport(String transport) {
+        if (!TRANSPORT_AUTO.equals(transport) && !TRANSPORT_LE.equals(transport) && !TRANSPORT_BREDR.equals(transport)) {
+            throw new IllegalArgumentException("Invalid transport " + transport);
+        }
+        this.transport = transport;
+    }
+
+    public String getTransport() {
+        return transport;
+    }
+
+    /**
+     * With duplicate data, true by default, BlueZ signals every advertisement it receives, not only the changes.
+     * Beacons repeat the same data, so it is needed to see them again; the BleScanner deduplicates them itself.
+     */
+    public void setDuplicateData(boolean duplicateData) {
+        this.duplicateData = duplicateData;
+    }
+
+    public boolean isDuplicateData() {
+        return duplicateData;
+    }
+
+    /**
+     * @return the properties of SetDiscoveryFilter
+     */
+    public Map<String, Variant> toDiscoveryFilter() {
+        if (rssi != NO_RSSI && pathloss != NO_PATHLOSS) {
+            throw new IllegalStateException("The RSSI and the pathloss thresholds cannot be set together");
+        }
+        Map<String, Variant> filter = new HashMap<String, Variant>();
+        if (!uuids.isEmpty()) {
+            filter.put("UUIDs", new Variant<String[]>(Utils.getStringArrayFromList(uuids)));
+        }
+        if (rssi != NO_RSSI) {
+            filter.put("RSSI", new Variant<Short>((short) rssi));
+        }
+        if (pathloss != NO_PATHLOSS) {
+            filter.put("Pathloss", new Variant<UInt16>(new UInt16(pathloss)));
+        }
+        filter.put("Transport", new Variant<String>(transport));
+        filter.put("DuplicateData", new Variant<Boolean>(duplicateData));
+        return filter;
+    }
+
+    @Override
+    public String toString() {
+        return "uuids=" + uuids + ", rssi=" + (rssi != NO_RSSI ? rssi : "any") + ", pathloss="
+                + (pathloss != NO_PATHLOSS ? pathloss : "any") + ", transport=" + transport + ", duplicateData=" + duplicateData;
+    }
+}
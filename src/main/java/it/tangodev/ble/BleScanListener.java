@@ -0,0 +1,12 @@
+package it.tangodev.ble;
+
+/**
+ * Receives the advertisement reports of a BleScanner, after the deduplication and the rate limiting.
+ * Called from the scanner's dispatch thread, one report at a time, so implementations must not block.
+ */
+public interface BleScanListener {
+    /**
+     * @param report valid until the method returns, use report.copy() to keep it
+     */
+    public void reportReceived(BleScanReport report);
+}
@@ -0,0 +1,269 @@
+package it.tangodev.ble;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * An advertisement report of a remote device, decoded from the org.bluez.Device1 properties that BlueZ signals
+ * while discovering: with InterfacesAdded when the device is first seen, then with PropertiesChanged.
+ * A report carries the properties of its signal only, e.g. a new RSSI without the data.
+ *
+ * The BleScanner reuses the report objects: a listener gets one that is valid until it returns, and must copy()
+ * it to keep it. The byte arrays are shared, they are never modified.
+ */
+public class BleScanReport {
+    public static final int NO_VALUE = Integer.MIN_VALUE;
+
+    private static final int INITIAL_ENTRIES = 2;
+
+    private String devicePath;
+    private String address;
+    private long timestamp;
+    private boolean discovered;
+    private int rssi = NO_VALUE;
+    private int txPower = NO_VALUE;
+    private List<String> uuids;
+    private int manufacturerDataCount;
+    private int[] manufacturerIds = new int[INITIAL_ENTRIES];
+    private byte[][] manufacturerData = new byte[INITIAL_ENTRIES][];
+    private int serviceDataCount;
+    private String[] serviceDataUuids = new String[INITIAL_ENTRIES];
+    private byte[][] serviceData = new byte[INITIAL_ENTRIES][];
+
+    /**
+     * @return the D-Bus path of the device, i.e. /org/bluez/hci0/dev_00_11_22_33_44_55
+     */
+    public String getDevicePath() {
+        return devicePath;
+    }
+
+    public String getAddress() {
+        return address;
+    }
+
+    /**
+     * @return when the signal was received, in System.nanoTime()
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * @return true for the first report of a device, from InterfacesAdded
+     */
+    public boolean isDiscovered() {
+        return discovered;
+    }
+
+    /**
+     * @return the RSSI in dBm, NO_VALUE if the signal did not carry it
+     */
+    public int getRssi() {
+        return rssi;
+    }
+
+    /**
+     * @return the advertised TX power in dBm, NO_VALUE if the signal did not carry it
+     */
+    public int getTxPower() {
+        return txPower;
+    }
+
+    /**
+     * @return the advertised service UUIDs, empty if the signal did not carry them
+     */
+    public List<String> getUuids() {
+        return uuids != null ? Collections.unmodifiableList(uuids) : Collections.<String>emptyList();
+    }
+
+    public boolean hasData() {
+        return manufacturerDataCount > 0 || serviceDataCount > 0;
+    }
+
+    public int getManufacturerDataCount() {
+        return manufacturerDataCount;
+    }
+
+    /**
+     * @param index from 0 to getManufacturerDataCount() - 1
+     */
+    public int getManufacturerId(int index) {
+        checkIndex(index, manufacturerDataCount);
+        return manufacturerIds[index];
+    }
+
+    /**
+     * @param index from 0 to getManufacturerDataCount() - 1
+     */
+    public byte[] getManufacturerData(int index) {
+        checkIndex(index, manufacturerDataCount);
+        return manufacturerData[index];
+    }
+
+    /**
+     * @return the data of the manufacturer, i.e. 0x004c for iBeacon, or null
+     */
+    public byte[] getManufacturerDataById(int manufacturerId) {
+        for (int i = 0; i < manufacturerDataCount; i++) {
+            if (manufacturerIds[i] == manufacturerId) {
+                return manufacturerData[i];
+            }
+        }
+        return null;
+    }
+
+    public int getServiceDataCount() {
+        return serviceDataCount;
+    }
+
+    /**
+     * @param index from 0 to getServiceDataCount() - 1
+     */
+    public String getServiceDataUuid(int index) {
+        checkIndex(index, serviceDataCount);
+        return serviceDataUuids[index];
+    }
+
+    /**
+     * @param index from 0 to getServiceDataCount() - 1
+     */
+    public byte[] getServiceData(int index) {
+        checkIndex(index, serviceDataCount);
+        return serviceData[index];
+    }
+
+    /**
+     * @param uuid the 128 bit UUID of the service, i.e. 0000feaa-0000-1000-8000-00805f9b34fb for Eddystone
+     * @return the data of the service or null
+     */
+    public byte[] getServiceDataByUuid(String uuid) {
+        for (int i = 0; i < serviceDataCount; i++) {
+            if (serviceDataUuids[i].equalsIgnoreCase(uuid)) {
+                return serviceData[i];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return a copy that stays valid after the listener returned
+     */
+    public BleScanReport copy() {
+        BleScanReport copy = new BleScanReport();
+        copyTo(copy);
+        return copy;
+    }
+
+    /**
+     * A hash of the manufacturer and service data, 0 without data. Equal data gives equal hashes.
+     */
+    int dataHash() {
+        if (!hasData()) {
+            return 0;
+        }
+        int hash = 1;
+        for (int i = 0; i < manufacturerDataCount; i++) {
+            hash = 31 * (31 * hash + manufacturerIds[i]) + Arrays.hashCode(manufacturerData[i]);
+        }
+        for (int i = 0; i < serviceDataCount; i++) {
+            hash = 31 * (31 * hash + serviceDataUuids[i].hashCode()) + Arrays.hashCode(serviceData[i]);
+        }
+        return hash != 0 ? hash : 1;
+    }
+
+    void set(String devicePath, String address, long timestamp, boolean discovered) {
+        clear();
+        this.devicePath = devicePath;
+        this.address = address;
+        this.timestamp = timestamp;
+        this.discovered = discovered;
+    }
+
+    void setRssi(int rssi) {
+        this.rssi = rssi;
+    }
+
+    void setTxPower(int txPower) {
+        this.txPower = txPower;
+    }
+
+    void setUuids(List<String> uuids) {
+        this.uuids = uuids;
+    }
+
+    void addManufacturerData(int manufacturerId, byte[] data) {
+        if (manufacturerDataCount == manufacturerIds.length) {
+            manufacturerIds = Arrays.copyOf(manufacturerIds, manufacturerDataCount * 2);
+            manufacturerData = Arrays.copyOf(manufacturerData, manufacturerDataCount * 2);
+        }
+        manufacturerIds[manufacturerDataCount] = manufacturerId;
+        manufacturerData[manufacturerDataCount++] = data;
+    }
+
+    void addServiceData(String uuid, byte[] data) {
+        if (serviceDataCount == serviceDataUuids.length) {
+            serviceDataUuids = Arrays.copyOf(serviceDataUuids, serviceDataCount * 2);
+            serviceData = Arrays.copyOf(serviceData, serviceDataCount * 2);
+        }
+        serviceDataUuids[serviceDataCount] = uuid;
+        serviceData[serviceDataCount++] = data;
+    }
+
+    /**
+     * Copy the fields to the other report, whose arrays grow only when it has fewer entries.
+     */
+    void copyTo(BleScanReport other) {
+        other.set(devicePath, address, timestamp, discovered);
+        other.rssi = rssi;
+        other.txPower = txPower;
+        other.uuids = uuids;
+        for (int i = 0; i < manufacturerDataCount; i++) {
+            other.addManufacturerData(manufacturerIds[i], manufacturerData[i]);
+        }
+        for (int i = 0; i < serviceDataCount; i++) {
+            other.addServiceData(serviceDataUuids[i], serviceData[i]);
+        }
+    }
+
+    /**
+     * Drop the references, so that a report waiting in the buffer does not keep the data of an old signal.
+     */
+    void clear() {
+        devicePath = null;
+        address = null;
+        discovered = false;
+        rssi = NO_VALUE;
+        txPower = NO_VALUE;
+        uuids = null;
+        Arrays.fill(manufacturerData, 0, manufacturerDataCount, null);
+        manufacturerDataCount = 0;
+        Arrays.fill(serviceDataUuids, 0, serviceDataCount, null);
+        Arrays.fill(serviceData, 0, serviceDataCount, null);
+        serviceDataCount = 0;
+    }
+
+    private static void checkIndex(int index, int count) {
+        if (index < 0 || index >= count) {
+            throw new IndexOutOfBoundsException("Index " + index + ", count " + count);
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder(devicePath).append(" [").append(address);
+        if (rssi != NO_VALUE) {
+            sb.append(", rssi=").append(rssi);
+        }
+        if (txPower != NO_VALUE) {
+            sb.append(", txPower=").append(txPower);
+        }
+        for (int i = 0; i < manufacturerDataCount; i++) {
+            sb.append(", 0x").append(String.format("%04x", manufacturerIds[i])).append('=').append(manufacturerData[i].length).append(" bytes");
+        }
+        for (int i = 0; i < serviceDataCount; i++) {
+            sb.append(", ").append(serviceDataUuids[i]).append('=').append(serviceData[i].length).append(" bytes");
+        }
+        return sb.append(discovered ? ", discovered]" : "]").toString();
+    }
+}
@@ -0,0 +1,84 @@
+package it.tangodev.ble;
+
+/**
+ * The bounded ring of reports between the D-Bus signal threads and the dispatch thread of a BleScanner.
+ * The slots are allocated once: offer() copies a report into the next slot and take() copies the oldest one out,
+ * so a report crosses the buffer without allocation. When the buffer is full the oldest report is overwritten,
+ * a gateway wants the latest advertisements rather than a backlog.
+ */
+final class BleScanReportBuffer {
+    private final BleScanReport[] slots;
+    private int head;
+    private int size;
+    private long overwrittenCount;
+    private boolean closed;
+
+    BleScanReportBuffer(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Invalid capacity " + capacity);
+        }
+        slots = new BleScanReport[capacity];
+        for (int i = 0; i < capacity; i++) {
+            slots[i] = new BleScanReport();
+        }
+    }
+
+    /**
+     * @return false if the buffer was full and the oldest report has been overwritten
+     */
+    synchronized boolean offer(BleScanReport report) {
+        boolean overwritten = size == slots.length;
+        if (overwritten) {
+            head = (head + 1) % slots.length;
+            size--;
+            overwrittenCount++;
+        }
+        report.copyTo(slots[(head + size) % slots.length]);
+        size++;
+        if (size == 1) {
+            // the consumer waits only on an empty buffer
+            notify();
+        }
+        return !overwritten;
+    }
+
+    /**
+     * Wait for a report and copy it to the target.
+     * @return false once the buffer is closed
+     */
+    synchronized boolean take(BleScanReport target) throws InterruptedException {
+        while (size == 0 && !closed) {
+            wait();
+        }
+        if (closed) {
+            return false;
+        }
+        BleScanReport slot = slots[head];
+        slot.copyTo(target);
+        slot.clear();
+        head = (head + 1) % slots.length;
+        size--;
+        return true;
+    }
+
+    synchronized void close() {
+        closed = true;
+        for (BleScanReport slot : slots) {
+            slot.clear();
+        }
+        size = 0;
+        notifyAll();
+    }
+
+    synchronized int size() {
+        return size;
+    }
+
+    int capacity() {
+        return slots.length;
+    }
+
+    synchronized long getOverwrittenCount() {
+        return overwrittenCount;
+    }
+}
@@ -0,0 +1,472 @@
+package it.tangodev.ble;
+
+import it.tangodev.utils.Utils;
+import org.bluez.Adapter1;
+import org.dbus.InterfacesAddedSignal.InterfacesAdded;
+import org.dbus.InterfacesRomovedSignal.InterfacesRemoved;
+import org.dbus.ObjectManager;
+import org.dbus.PropertiesChangedSignal.PropertiesChanged;
+import org.freedesktop.DBus;
+import org.freedesktop.dbus.DBusConnection;
+import org.freedesktop.dbus.DBusSigHandler;
+import org.freedesktop.dbus.UInt16;
+import org.freedesktop.dbus.Variant;
+import org.freedesktop.dbus.exceptions.DBusException;
+import org.freedesktop.dbus.exceptions.DBusExecutionException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * BleScanner discovers the advertising devices around an adapter, e.g. the beacons seen by a gateway, next to
+ * or without a BleApplication. It configures the discovery of org.bluez.Adapter1 with a BleScanFilter and turns
+ * the InterfacesAdded and PropertiesChanged signals of org.bluez.Device1 into BleScanReports.
+ *
+ * The scanner has its own D-Bus connection, so the advertisement signals are read by other threads than the GATT
+ * calls of an application in the same process. The reports go through a bounded ring buffer to a single dispatch
+ * thread that calls the listeners, the signal threads only decode a signal and copy it into the buffer.
+ * Before the buffer each device is:
+ * - deduplicated: a report with the same data as the last accepted one of the device is dropped for the
+ *   deduplication window, a report with new data passes at once
+ * - rate limited: at most one report of the device is accepted per minimum report interval
+ */
+public class BleScanner {
+    private static final Logger LOG = LoggerFactory.getLogger(BleScanner.class);
+
+    public static final int DEFAULT_BUFFER_CAPACITY = 4096;
+    public static final long DEFAULT_DEDUPLICATION_WINDOW = 1000; // in ms
+    public static final long DEFAULT_MIN_REPORT_INTERVAL = 0; // in ms, no limit
+
+    private static final String RSSI = "RSSI";
+    private static final String TX_POWER = "TxPower";
+    private static final String UUIDS = "UUIDs";
+    private static final String MANUFACTURER_DATA = "ManufacturerData";
+    private static final String SERVICE_DATA = "ServiceData";
+
+    // decoding scratch of each signal thread, copied into the buffer
+    private static final ThreadLocal<BleScanReport> DECODED = ThreadLocal.withInitial(BleScanReport::new);
+
+    private static final class DeviceState {
+        final String address;
+        boolean accepted = false;
+        long lastAccepted;
+        int dataHash;
+
+        DeviceState(String address) {
+            this.address = address;
+        }
+    }
+
+    private final String adapter;
+    private final String devicePathPrefix;
+    private final List<BleScanListener> listeners = new CopyOnWriteArrayList<BleScanListener>();
+    private volatile BleScanFilter filter = new BleScanFilter();
+    private volatile long deduplicationWindowNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_DEDUPLICATION_WINDOW);
+    private volatile long minReportIntervalNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_MIN_REPORT_INTERVAL);
+    private int bufferCapacity = DEFAULT_BUFFER_CAPACITY;
+    private String busAddress;
+
+    // by device path, guarded by itself
+    private final Map<String, DeviceState> devices = new HashMap<String, DeviceState>();
+
+    private DBusConnection dbusConnection;
+    private Adapter1 bluezAdapter;
+    private String bluezOwner;
+    private ObjectManager bluezObjectManager;
+    private DBusSigHandler<InterfacesAdded> interfacesAddedHandler;
+    private DBusSigHandler<InterfacesRemoved> interfacesRemovedHandler;
+    private DBusSigHandler<PropertiesChanged> propertiesChangedHandler;
+    private volatile BleScanReportBuffer buffer;
+    private Thread dispatchThread;
+
+    private final AtomicLong receivedCount = new AtomicLong();
+    private final AtomicLong duplicateCount = new AtomicLong();
+    private final AtomicLong rateLimitedCount = new AtomicLong();
+    private final AtomicLong deliveredCount = new AtomicLong();
+    private final AtomicLong listenerErrorCount = new AtomicLong();
+    private final LatencyHistogram deliveryLatency = new LatencyHistogram();
+
+    /**
+     * @param adapter the adapter name, usually hci0
+     */
+    public BleScanner(String adapter) {
+        this.adapter = adapter;
+        this.devicePathPrefix = getAdapterPath() + "/dev_";
+    }
+
+    public String getAdapter() {
+        return adapter;
+    }
+
+    public String getAdapterPath() {
+        return "/org/bluez/" + adapter;
+    }
+
+    /**
+     * Connect to this D-Bus address instead of the system bus.
+     * @param busAddress a D-Bus address, i.e. tcp:host=localhost,port=12345
+     */
+    public void setBusAddress(String busAddress) {
+        this.busAddress = busAddress;
+    }
+
+    public void addListener(BleScanListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(BleScanListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Set the discovery filter, applied at the start or at once while scanning.
+     */
+    public synchronized void setFilter(BleScanFilter filter) {
+        this.filter = filter;
+        if (bluezAdapter != null) {
+            bluezAdapter.SetDiscoveryFilter(filter.toDiscoveryFilter());
+        }
+    }
+
+    public BleScanFilter getFilter() {
+        return filter;
+    }
+
+    /**
+     * Set how long an unchanged report of a device is dropped after the last accepted one,
+     * DEFAULT_DEDUPLICATION_WINDOW by default, 0 to pass the duplicates.
+     */
+    public void setDeduplicationWindow(long window, TimeUnit unit) {
+        this.deduplicationWindowNanos = unit.toNanos(window);
+    }
+
+    /**
+     * Set the minimum time between two accepted reports of a device, changed or not,
+     * DEFAULT_MIN_REPORT_INTERVAL (no limit) by default.
+     */
+    public void setMinReportInterval(long interval, TimeUnit unit) {
+        this.minReportIntervalNanos = unit.toNanos(interval);
+    }
+
+    /**
+     * Set the number of reports waiting for the listeners, DEFAULT_BUFFER_CAPACITY by default.
+     * When the listeners fall behind the oldest reports are overwritten. Applied at the next start.
+     */
+    public synchronized void setBufferCapacity(int bufferCapacity) {
+        if (bufferCapacity <= 0) {
+            throw new IllegalArgumentException("Invalid buffer capacity " + bufferCapacity);
+        }
+        this.bufferCapacity = bufferCapacity;
+    }
+
+    public synchronized boolean isScanning() {
+        return bluezAdapter != null;
+    }
+
+    /**
+     * Set the discovery filter and start the discovery on the adapter.
+     */
+    public synchronized void start() throws DBusException {
+        if (dbusConnection != null) {
+            throw new IllegalStateException("Scanner of " + adapter + " already started");
+        }
+        dbusConnection = DBusConnection.getConnection(Utils.getPrivateBusAddress(busAddress, "ble-scanner-" + adapter));
+        try {
+            DBus dbus = dbusConnection.getRemoteObject(BleApplication.DBUS_BUSNAME, "/org/freedesktop/DBus", DBus.class);
+            bluezOwner = dbus.GetNameOwner(BleApplication.BLUEZ_DBUS_BUSNAME);
+            bluezObjectManager = dbusConnection.getRemoteObject(BleApplication.BLUEZ_DBUS_BUSNAME, "/", ObjectManager.class);
+            BleScanReportBuffer buffer = new BleScanReportBuffer(bufferCapacity);
+            this.buffer = buffer;
+            dispatchThread = new Thread(() -> dispatchLoop(buffer), "ble-scanner");
+            dispatchThread.setDaemon(true);
+            dispatchThread.start();
+            initHandlers();
+
+            Adapter1 bluezAdapter = dbusConnection.getRemoteObject(BleApplication.BLUEZ_DBUS_BUSNAME, getAdapterPath(), Adapter1.class);
+            bluezAdapter.SetDiscoveryFilter(filter.toDiscoveryFilter());
+            bluezAdapter.StartDiscovery();
+            this.bluezAdapter = bluezAdapter;
+            LOG.debug("Scanning on {} with {}", adapter, filter);
+        } catch (DBusException | RuntimeException e) {
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * Stop the discovery. The reports still in the buffer are discarded.
+     */
+    public synchronized void stop() {
+        if (dbusConnection == null) {
+            return;
+        }
+        if (bluezAdapter != null) {
+            try {
+                bluezAdapter.StopDiscovery();
+            } catch (DBusExecutionException e) {
+                // the discovery was stopped by someone else, i.e. the adapter powered off
+                LOG.debug("StopDiscovery on {}: {}", adapter, e.getMessage());
+            }
+            bluezAdapter = null;
+        }
+        close();
+    }
+
+    private void close() {
+        try {
+            if (interfacesAddedHandler != null) {
+                dbusConnection.removeSigHandler(InterfacesAdded.class, bluezOwner, bluezObjectManager, interfacesAddedHandler);
+                dbusConnection.removeSigHandler(InterfacesRemoved.class, bluezOwner, bluezObjectManager, interfacesRemovedHandler);
+                dbusConnection.removeSigHandler(PropertiesChanged.class, bluezOwner, propertiesChangedHandler);
+            }
+        } catch (DBusException e) {
+            LOG.warn("Unable to remove the scanner signal handlers: " + e.getMessage());
+        }
+        interfacesAddedHandler = null;
+        interfacesRemovedHandler = null;
+        propertiesChangedHandler = null;
+        if (buffer != null) {
+            buffer.close();
+            buffer = null;
+        }
+        dispatchThread = null;
+        synchronized (devices) {
+            devices.clear();
+        }
+        dbusConnection.disconnect();
+        dbusConnection = null;
+    }
+
+    /**
+     * @return the reports decoded from the signals, before the deduplication and the rate limiting
+     */
+    public long getReceivedCount() {
+        return receivedCount.get();
+    }
+
+    public long getDuplicateCount() {
+        return duplicateCount.get();
+    }
+
+    public long getRateLimitedCount() {
+        return rateLimitedCount.get();
+    }
+
+    /**
+     * @return the reports overwritten in the buffer before the listeners got them
+     */
+    public long getOverflowCount() {
+        BleScanReportBuffer buffer = this.buffer;
+        return buffer != null ? buffer.getOverwrittenCount() : 0;
+    }
+
+    public long getDeliveredCount() {
+        return deliveredCount.get();
+    }
+
+    public long getListenerErrorCount() {
+        return listenerErrorCount.get();
+    }
+
+    /**
+     * @return the reports waiting for the listeners
+     */
+    public int getPendingCount() {
+        BleScanReportBuffer buffer = this.buffer;
+        return buffer != null ? buffer.size() : 0;
+    }
+
+    /**
+     * @return the time from the signal to the listeners
+     */
+    public LatencyHistogram getDeliveryLatency() {
+        return deliveryLatency;
+    }
+
+    /**
+     * @return the devices with a report since the start
+     */
+    public int getDeviceCount() {
+        synchronized (devices) {
+            return devices.size();
+        }
+    }
+
+    private void initHandlers() throws DBusException {
+        interfacesAddedHandler = new DBusSigHandler<InterfacesAdded>() {
+            @Override
+            public void handle(InterfacesAdded signal) {
+                Map<String, Variant> properties = signal.getInterfacesAdded().get(BleApplication.BLUEZ_DEVICE_INTERFACE);
+                if (properties != null) {
+                    received(signal.getObjectPath().toString(), properties, true);
+                }
+            }
+        };
+        interfacesRemovedHandler = new DBusSigHandler<InterfacesRemoved>() {
+            @Override
+            public void handle(InterfacesRemoved signal) {
+                if (signal.getInterfacesRemoved().contains(BleApplication.BLUEZ_DEVICE_INTERFACE)) {
+                    synchronized (devices) {
+                        devices.remove(signal.getObjectPath().toString());
+                    }
+                }
+            }
+        };
+        propertiesChangedHandler = new DBusSigHandler<PropertiesChanged>() {
+            @Override
+            public void handle(PropertiesChanged signal) {
+                if (BleApplication.BLUEZ_DEVICE_INTERFACE.equals(signal.getIface())) {
+                    received(signal.getPath(), signal.getPropertiesChanged(), false);
+                }
+            }
+        };
+        // the ObjectManager signals are matched on the object, like in BleApplication
+        dbusConnection.addSigHandler(InterfacesAdded.class, bluezOwner, bluezObjectManager, interfacesAddedHandler);
+        dbusConnection.addSigHandler(InterfacesRemoved.class, bluezOwner, bluezObjectManager, interfacesRemovedHandler);
+        dbusConnection.addSigHandler(PropertiesChanged.class, bluezOwner, propertiesChangedHandler);
+    }
+
+    /**
+     * Decode the Device1 properties of a signal, then deduplicate, rate limit and buffer the report.
+     * Runs on the D-Bus signal threads.
+     */
+    private void received(String devicePath, Map<String, Variant> properties, boolean discovered) {
+        BleScanReportBuffer buffer = this.buffer;
+        // the device objects of the other adapters, and the changes that are not advertisements, i.e. Connected
+        if (buffer == null || !devicePath.startsWith(devicePathPrefix) || !isAdvertisement(properties, discovered)) {
+            return;
+        }
+        long now = System.nanoTime();
+        BleScanReport report = DECODED.get();
+        try {
+            DeviceState state = getDeviceState(devicePath, properties);
+            report.set(devicePath, state.address, now, discovered);
+            decode(report, properties);
+            receivedCount.incrementAndGet();
+            if (accept(state, report.dataHash(), now)) {
+                buffer.offer(report);
+            }
+        } catch (RuntimeException e) {
+            // a property of an unexpected type
+            LOG.warn("Unable to decode the advertisement of {}: {}", devicePath, e.toString());
+        } finally {
+            report.clear();
+        }
+    }
+
+    private static boolean isAdvertisement(Map<String, Variant> properties, boolean discovered) {
+        return discovered || properties.containsKey(RSSI) || properties.containsKey(MANUFACTURER_DATA)
+                || properties.containsKey(SERVICE_DATA) || properties.containsKey(TX_POWER) || properties.containsKey(UUIDS);
+    }
+
+    private DeviceState getDeviceState(String devicePath, Map<String, Variant> properties) {
+        synchronized (devices) {
+            DeviceState state = devices.get(devicePath);
+            if (state == null) {
+                Variant address = properties.get(BleApplication.ADDRESS);
+                state = new DeviceState(address != null ? (String) address.getValue() : BleDeviceRegistry.addressOf(devicePath));
+                devices.put(devicePath, state);
+            }
+            return state;
+        }
+    }
+
+    /**
+     * @param dataHash the hash of the report's data, 0 for a report without data, i.e. a new RSSI
+     */
+    private boolean accept(DeviceState state, int dataHash, long now) {
+        synchronized (devices) {
+            if (state.accepted) {
+                long elapsed = now - state.lastAccepted;
+                boolean changed = dataHash != 0 && dataHash != state.dataHash;
+                if (!changed && elapsed < deduplicationWindowNanos) {
+                    duplicateCount.incrementAndGet();
+                    return false;
+                }
+                if (elapsed < minReportIntervalNanos) {
+                    rateLimitedCount.incrementAndGet();
+                    return false;
+                }
+            }
+            state.accepted = true;
+            state.lastAccepted = now;
+            if (dataHash != 0) {
+                state.dataHash = dataHash;
+            }
+            return true;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void decode(BleScanReport report, Map<String, Variant> properties) {
+        Variant rssi = properties.get(RSSI);
+        if (rssi != null) {
+            report.setRssi(((Number) rssi.getValue()).intValue());
+        }
+        Variant txPower = properties.get(TX_POWER);
+        if (txPower != null) {
+            report.setTxPower(((Number) txPower.getValue()).intValue());
+        }
+        Variant uuids = properties.get(UUIDS);
+        if (uuids != null) {
+            Object value = uuids.getValue();
+            report.setUuids(value instanceof String[] ? Arrays.asList((String[]) value) : (List<String>) value);
+        }
+        Variant manufacturerData = properties.get(MANUFACTURER_DATA);
+        if (manufacturerData != null) {
+            for (Map.Entry<UInt16, Variant> entry : ((Map<UInt16, Variant>) manufacturerData.getValue()).entrySet()) {
+                report.addManufacturerData(entry.getKey().intValue(), toBytes(entry.getValue().getValue()));
+            }
+        }
+        Variant serviceData = properties.get(SERVICE_DATA);
+        if (serviceData != null) {
+            for (Map.Entry<String, Variant> entry : ((Map<String, Variant>) serviceData.getValue()).entrySet()) {
+                report.addServiceData(entry.getKey(), toBytes(entry.getValue().getValue()));
+            }
+        }
+    }
+
+    /**
+     * dbus-java returns an ay in a variant as a byte[], or as a List of Byte on some versions.
+     */
+    @SuppressWarnings("unchecked")
+    private static byte[] toBytes(Object value) {
+        if (value instanceof byte[]) {
+            return (byte[]) value;
+        }
+        List<Byte> list = (List<Byte>) value;
+        byte[] bytes = new byte[list.size()];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = list.get(i);
+        }
+        return bytes;
+    }
+
+    private void dispatchLoop(BleScanReportBuffer buffer) {
+        BleScanReport report = new BleScanReport();
+        try {
+            while (buffer.take(report)) {
+                deliveryLatency.record(System.nanoTime() - report.getTimestamp());
+                for (BleScanListener listener : listeners) {
+                    try {
+                        listener.reportReceived(report);
+                    } catch (RuntimeException e) {
+                        listenerErrorCount.incrementAndGet();
+                        LOG.warn("Scan listener failed on " + report.getDevicePath(), e);
+                    }
+                }
+                deliveredCount.incrementAndGet();
+                report.clear();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -9,10 +9,11 @@ import org.freedesktop.dbus.exceptions.DBusException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * BleService class rapresent the service.
@@ -29,8 +30,13 @@ public class BleService implements GattService1, Properties {
 
     private String uuid = null;
     private Boolean primary = true;
-    private List<BleCharacteristic> characteristics = new ArrayList<BleCharacteristic>();
+    private final List<BleCharacteristic> characteristics = new CopyOnWriteArrayList<BleCharacteristic>();
     private String path = null;
+    private volatile BleApplication application;
+    private volatile Path cachedPath;
+    private volatile Map<String, Map<String, Variant>> cachedProperties;
+    // incremented on each change, a properties map built during a change is not cached
+    private volatile int modCount;
 
     /**
      * Remember that the path need to have this format APPLICATION/SERVICE
@@ -48,16 +54,50 @@ public class BleService implements GattService1, Properties {
     public void addCharacteristic(BleCharacteristic characteristic) {
         LOG.debug("addCharacteristic " + characteristic.getPath().getPath());
         this.characteristics.add(characteristic);
+        structureChanged();
+        BleApplication application = this.application;
+        if (application != null) {
+            application.characteristicAdded(characteristic);
+        }
     }
 
     public void removeCharacteristic(BleCharacteristic characteristic) {
-        this.characteristics.remove(characteristic);
+        if (this.characteristics.remove(characteristic)) {
+            structureChanged();
+            BleApplication application = this.application;
+            if (application != null) {
+                application.characteristicRemoved(characteristic);
+            }
+        }
     }
 
+    /**
+     * The list must not be modified directly, use addCharacteristic and removeCharacteristic.
+     */
     public List<BleCharacteristic> getCharacteristics() {
         return characteristics;
     }
 
+    BleApplication getApplication() {
+        return application;
+    }
+
+    void setApplication(BleApplication application) {
+        this.application = application;
+    }
+
+    /**
+     * Tell the application that the tree structure changed.
+     */
+    void structureChanged() {
+        modCount++;
+        cachedProperties = null;
+        BleApplication application = this.application;
+        if (application != null) {
+            application.structureChanged();
+        }
+    }
+
     protected void export(DBusConnection dbusConnection) throws DBusException {
         LOG.debug(String.format("export: %s", getPath().toString()));
         for (BleCharacteristic characteristic : characteristics) {
@@ -87,24 +127,34 @@ public class BleService implements GattService1, Properties {
      * @return
      */
     public Path getPath() {
-        return new Path(path);
+        Path cached = cachedPath;
+        if (cached == null || cached.getPath() != path) {
+            cached = new Path(path);
+            cachedPath = cached;
+        }
+        return cached;
     }
 
     /**
-     * Convert the list in array[]
+     * Convert the list in array[], from a single snapshot of the list: it can change while the tree is mutated.
      *
      * @return
      */
     private Path[] getCharacteristicsPathArray() {
-        Path[] pathArray = new Path[characteristics.size()];
-        for (int i = 0; i < characteristics.size(); i++) {
-            pathArray[i] = characteristics.get(i).getPath();
-        }
-        return pathArray;
+        return characteristics.stream().map(BleCharacteristic::getPath).toArray(Path[]::new);
     }
 
+    /**
+     * Return the D-Bus properties. The map is immutable and built again only after a change of the service.
+     *
+     * @return
+     */
     public Map<String, Map<String, Variant>> getProperties() {
-        System.out.println("Service -> getServiceProperties");
+        Map<String, Map<String, Variant>> properties = cachedProperties;
+        if (properties != null) {
+            return properties;
+        }
+        int expectedModCount = modCount;
         Map<String, Variant> serviceMap = new HashMap<String, Variant>();
 
         Variant<String> uuidProperty = new Variant<String>(this.uuid);
@@ -117,9 +167,13 @@ public class BleService implements GattService1, Properties {
         serviceMap.put(SERVICE_CHARACTERISTIC_PROPERTY_KEY, characteristicsPat);
 
         Map<String, Map<String, Variant>> externalMap = new HashMap<String, Map<String, Variant>>();
-        externalMap.put(GATT_SERVICE_INTERFACE, serviceMap);
+        externalMap.put(GATT_SERVICE_INTERFACE, Collections.unmodifiableMap(serviceMap));
 
-        return externalMap;
+        properties = Collections.unmodifiableMap(externalMap);
+        if (expectedModCount == modCount) {
+            cachedProperties = properties;
+        }
+        return properties;
     }
 
     public Boolean isPrimary() {
@@ -128,6 +182,7 @@ public class BleService implements GattService1, Properties {
 
     public void setPrimary(Boolean primary) {
         this.primary = primary;
+        structureChanged();
     }
 
     public String getUuid() {
@@ -136,14 +191,36 @@ public class BleService implements GattService1, Properties {
 
     public void setUuid(String uuid) {
         this.uuid = uuid;
+        structureChanged();
     }
 
+    /**
+     * Replace the characteristics with removeCharacteristic and addCharacteristic, so that a running application
+     * exports and announces the change. The characteristics in both lists are kept.
+     */
     public void setCharacteristics(List<BleCharacteristic> characteristics) {
-        this.characteristics = characteristics;
+        for (BleCharacteristic characteristic : this.characteristics) {
+            if (!characteristics.contains(characteristic)) {
+                removeCharacteristic(characteristic);
+            }
+        }
+        for (BleCharacteristic characteristic : characteristics) {
+            if (!this.characteristics.contains(characteristic)) {
+                addCharacteristic(characteristic);
+            }
+        }
     }
 
+    /**
+     * @throws IllegalStateException if the service belongs to a running application: it is exported at its path
+     */
     public void setPath(String path) {
+        BleApplication application = this.application;
+        if (application != null && application.isExported()) {
+            throw new IllegalStateException("Path of service " + this.path + " changed while the application is running");
+        }
         this.path = path;
+        structureChanged();
     }
 
     @Override
@@ -153,21 +230,20 @@ public class BleService implements GattService1, Properties {
 
     @Override
     public <A> A Get(String interface_name, String property_name) {
-        // TODO Auto-generated method stub
-        return null;
+        return GattProperties.get(getProperties(), interface_name, property_name);
     }
 
+    /**
+     * The service properties are read only.
+     */
     @Override
     public <A> void Set(String interface_name, String property_name, A value) {
-        // TODO Auto-generated method stub
+        GattProperties.checkWritable(getProperties(), interface_name, property_name);
     }
 
     @Override
     public Map<String, Variant> GetAll(String interfaceName) {
-        if (GATT_SERVICE_INTERFACE.equals(interfaceName)) {
-            return this.getProperties().get(GATT_SERVICE_INTERFACE);
-        }
-        throw new RuntimeException("Interfaccia sbagliata [interface_name=" + interfaceName + "]");
+        return GattProperties.getAll(getProperties(), interfaceName);
     }
 
 }
@@ -0,0 +1,202 @@
+package it.tangodev.ble;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * A batch of changes of the services structure of a BleApplication. The changes are applied together by apply():
+ * the tree snapshot is rebuilt once and, if the application is started, the InterfacesAdded and
+ * InterfacesRemoved signals are sent after the last change.
+ */
+public class BleTreeMutation {
+    // the object paths D-Bus accepts
+    private static final Pattern OBJECT_PATH = Pattern.compile("/|(/[A-Za-z0-9_]+)+");
+
+    private final BleApplication application;
+    private final List<Change> changes = new ArrayList<Change>();
+
+    BleTreeMutation(BleApplication application) {
+        this.application = application;
+    }
+
+    public BleTreeMutation addService(BleService service) {
+        changes.add(new Change(ChangeType.ADD_SERVICE, service, null, null));
+        return this;
+    }
+
+    public BleTreeMutation removeService(BleService service) {
+        changes.add(new Change(ChangeType.REMOVE_SERVICE, service, null, null));
+        return this;
+    }
+
+    public BleTreeMutation addCharacteristic(BleService service, BleCharacteristic characteristic) {
+        changes.add(new Change(ChangeType.ADD_CHARACTERISTIC, service, characteristic, null));
+        return this;
+    }
+
+    public BleTreeMutation removeCharacteristic(BleService service, BleCharacteristic characteristic) {
+        changes.add(new Change(ChangeType.REMOVE_CHARACTERISTIC, service, characteristic, null));
+        return this;
+    }
+
+    public BleTreeMutation addDescriptor(BleCharacteristic characteristic, BleDescriptor descriptor) {
+        changes.add(new Change(ChangeType.ADD_DESCRIPTOR, null, characteristic, descriptor));
+        return this;
+    }
+
+    /**
+     * Apply the changes in the order they have been added. The batch is checked first: if it would export two
+     * objects at one path or an object at an invalid path, an IllegalArgumentException is thrown and nothing
+     * is changed. A change failing after the check, on a lost D-Bus connection, leaves the batch partial and
+     * none of its signals is sent.
+     */
+    public void apply() {
+        application.applyMutation(new ArrayList<Change>(changes));
+        changes.clear();
+    }
+
+    enum ChangeType {
+        ADD_SERVICE, REMOVE_SERVICE, ADD_CHARACTERISTIC, REMOVE_CHARACTERISTIC, ADD_DESCRIPTOR
+    }
+
+    static final class Change {
+        final ChangeType type;
+        final BleService service;
+        final BleCharacteristic characteristic;
+        final BleDescriptor descriptor;
+
+        Change(ChangeType type, BleService service, BleCharacteristic characteristic, BleDescriptor descriptor) {
+            this.type = type;
+            this.service = service;
+            this.characteristic = characteristic;
+            this.descriptor = descriptor;
+        }
+
+        void apply(BleApplication application) {
+            switch (type) {
+            case ADD_SERVICE:
+                application.addService(service);
+                break;
+            case REMOVE_SERVICE:
+                application.removeService(service);
+                break;
+            case ADD_CHARACTERISTIC:
+                service.addCharacteristic(characteristic);
+                break;
+            case REMOVE_CHARACTERISTIC:
+                service.removeCharacteristic(characteristic);
+                break;
+            case ADD_DESCRIPTOR:
+                characteristic.addDescriptor(descriptor);
+                break;
+            }
+        }
+    }
+
+    /**
+     * Play the changes on a copy of the tree, the caller holds the tree lock.
+     * @param applicationPath the path of the application object
+     * @param services the services of the application
+     * @throws IllegalArgumentException if a change would export an object at a path taken or invalid
+     */
+    static void check(String applicationPath, List<BleService> services, List<Change> changes) {
+        TreeCopy tree = new TreeCopy(applicationPath, services);
+        for (Change change : changes) {
+            switch (change.type) {
+            case ADD_SERVICE:
+                if (!tree.services.add(change.service)) {
+                    throw new IllegalArgumentException("Service " + change.service.getPath() + " added twice");
+                }
+                tree.take(change.service.getPath().getPath());
+                for (BleCharacteristic characteristic : tree.characteristics(change.service)) {
+                    tree.takeCharacteristic(characteristic);
+                }
+                break;
+            case REMOVE_SERVICE:
+                if (tree.services.remove(change.service)) {
+                    tree.paths.remove(change.service.getPath().getPath());
+                    for (BleCharacteristic characteristic : tree.characteristics(change.service)) {
+                        tree.releaseCharacteristic(characteristic);
+                    }
+                }
+                break;
+            case ADD_CHARACTERISTIC:
+                tree.characteristics(change.service).add(change.characteristic);
+                if (tree.services.contains(change.service)) {
+                    tree.takeCharacteristic(change.characteristic);
+                }
+                break;
+            case REMOVE_CHARACTERISTIC:
+                if (tree.characteristics(change.service).remove(change.characteristic)
+                        && tree.services.contains(change.service)) {
+                    tree.releaseCharacteristic(change.characteristic);
+                }
+                break;
+            case ADD_DESCRIPTOR:
+                String path = change.descriptor.getPath();
+                tree.descriptors(change.characteristic).put(path, change.descriptor);
+                if (tree.services.contains(change.characteristic.getService())) {
+                    tree.take(path);
+                }
+                break;
+            }
+        }
+    }
+
+    /**
+     * The services, characteristics and descriptors as the batch leaves them, with the paths exported.
+     */
+    private static final class TreeCopy {
+        final Set<BleService> services;
+        final Map<BleService, List<BleCharacteristic>> characteristics = new HashMap<BleService, List<BleCharacteristic>>();
+        final Map<BleCharacteristic, Map<String, BleDescriptor>> descriptors = new HashMap<BleCharacteristic, Map<String, BleDescriptor>>();
+        final Set<String> paths = new HashSet<String>();
+
+        TreeCopy(String applicationPath, List<BleService> services) {
+            this.services = new HashSet<BleService>(services);
+            paths.add(applicationPath);
+            for (BleService service : services) {
+                paths.add(service.getPath().getPath());
+                for (BleCharacteristic characteristic : service.getCharacteristics()) {
+                    paths.add(characteristic.getPath().getPath());
+                    paths.addAll(characteristic.getDescriptors().keySet());
+                }
+            }
+        }
+
+        List<BleCharacteristic> characteristics(BleService service) {
+            return characteristics.computeIfAbsent(service, s -> new ArrayList<BleCharacteristic>(s.getCharacteristics()));
+        }
+
+        Map<String, BleDescriptor> descriptors(BleCharacteristic characteristic) {
+            return descriptors.computeIfAbsent(characteristic, c -> new LinkedHashMap<String, BleDescriptor>(c.getDescriptors()));
+        }
+
+        void take(String path) {
+            if (path == null || !OBJECT_PATH.matcher(path).matches()) {
+                throw new IllegalArgumentException("Invalid object path " + path);
+            }
+            if (!paths.add(path)) {
+                throw new IllegalArgumentException("Object path " + path + " already exported");
+            }
+        }
+
+        void takeCharacteristic(BleCharacteristic characteristic) {
+            take(characteristic.getPath().getPath());
+            for (String path : descriptors(characteristic).keySet()) {
+                take(path);
+            }
+        }
+
+        void releaseCharacteristic(BleCharacteristic characteristic) {
+            paths.remove(characteristic.getPath().getPath());
+            paths.removeAll(descriptors(characteristic).keySet());
+        }
+    }
+}
@@ -0,0 +1,11 @@
+package it.tangodev.ble;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Streaming consumer of the write-without-response packets of one Characteristic.
+ * The buffer wraps the value of the packet, it is not reused for the next one.
+ */
+public interface BleWriteStreamConsumer {
+    public void onWrite(String devicePath, ByteBuffer value);
+}
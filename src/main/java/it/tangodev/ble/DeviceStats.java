@@ -0,0 +1,103 @@
+package it.tangodev.ble;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Operations of one device on a GATT object.
+ */
+public class DeviceStats {
+    private final LongAdder reads = new LongAdder();
+    private final LongAdder writes = new LongAdder();
+    private final LongAdder notifications = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    // the records in progress, RETIRED once the counts were added to another device's
+    private final AtomicInteger recording = new AtomicInteger();
+    // System.nanoTime() of the last record
+    private volatile long lastActive = System.nanoTime();
+
+    private static final int RETIRED = -1;
+
+    /**
+     * Record an operation, unless the device was retired.
+     * @return false if the device was retired, the operation is not counted
+     */
+    boolean tryRecord(GattMetrics.Operation operation, int length, boolean error, long nanos) {
+        int current;
+        do {
+            current = recording.get();
+            if (current == RETIRED) {
+                return false;
+            }
+        } while (!recording.compareAndSet(current, current + 1));
+        try {
+            lastActive = nanos;
+            record(operation, length, error);
+        } finally {
+            recording.decrementAndGet();
+        }
+        return true;
+    }
+
+    /**
+     * Stop the records, once the ones in progress are done: the counts do not change anymore.
+     */
+    void retire() {
+        while (!recording.compareAndSet(0, RETIRED)) {
+            Thread.yield();
+        }
+    }
+
+    long getLastActive() {
+        return lastActive;
+    }
+
+    private void record(GattMetrics.Operation operation, int length, boolean error) {
+        switch (operation) {
+            case READ:
+                reads.increment();
+                break;
+            case WRITE:
+                writes.increment();
+                break;
+            default:
+                notifications.increment();
+        }
+        bytes.add(length);
+        if (error) {
+            errors.increment();
+        }
+    }
+
+    /**
+     * Add the counts of another device.
+     */
+    void add(DeviceStats stats) {
+        reads.add(stats.getReads());
+        writes.add(stats.getWrites());
+        notifications.add(stats.getNotifications());
+        bytes.add(stats.getBytes());
+        errors.add(stats.getErrors());
+    }
+
+    public long getReads() {
+        return reads.sum();
+    }
+
+    public long getWrites() {
+        return writes.sum();
+    }
+
+    public long getNotifications() {
+        return notifications.sum();
+    }
+
+    public long getBytes() {
+        return bytes.sum();
+    }
+
+    public long getErrors() {
+        return errors.sum();
+    }
+}
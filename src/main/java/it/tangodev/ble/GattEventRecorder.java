@@ -0,0 +1,16 @@
+package it.tangodev.ble;
+
+/**
+ * Records the GATT events, see GattEvents. The Flight Recorder implementation is in the jfr source set.
+ */
+interface GattEventRecorder {
+
+    void operation(GattMetrics.Operation operation, String path, String devicePath, int offset, int size,
+                   long startNanos, boolean failed);
+
+    void subscription(String path, String subscriber, boolean subscribed);
+
+    void connection(String devicePath, String address, boolean connected);
+
+    void registration(String method, String adapterPath, String objectPath, long startNanos, boolean failed);
+}
@@ -0,0 +1,64 @@
+package it.tangodev.ble;
+
+/**
+ * Java Flight Recorder events of the GATT operations, the subscriptions, the device connections and the
+ * registrations on BlueZ. An event costs a check of its enabled flag when it is not recorded.
+ *
+ * The events are defined by JfrGattEventRecorder, in the jfr source set: it is loaded by name only when jdk.jfr
+ * is available (Java 8u262 or better), elsewhere nothing is recorded. This class does not reference jdk.jfr, so the
+ * library compiles and runs on any Java 8.
+ */
+final class GattEvents {
+    static final String CATEGORY = "Bluetooth";
+
+    private static final String JFR_RECORDER = "it.tangodev.ble.JfrGattEventRecorder";
+
+    // null when jdk.jfr is not available
+    private static final GattEventRecorder RECORDER = loadRecorder();
+
+    private GattEvents() {
+    }
+
+    private static GattEventRecorder loadRecorder() {
+        ClassLoader classLoader = GattEvents.class.getClassLoader();
+        try {
+            Class.forName("jdk.jfr.Event", false, classLoader);
+            return (GattEventRecorder) Class.forName(JFR_RECORDER, true, classLoader).getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError | ClassCastException e) {
+            return null;
+        }
+    }
+
+    /**
+     * A completed read, write or notification.
+     * @param startNanos System.nanoTime() at the start of the call
+     */
+    static void operation(GattMetrics.Operation operation, String path, String devicePath, int offset, int size,
+                          long startNanos, boolean failed) {
+        if (RECORDER != null) {
+            RECORDER.operation(operation, path, devicePath, offset, size, startNanos, failed);
+        }
+    }
+
+    static void subscription(String path, String subscriber, boolean subscribed) {
+        if (RECORDER != null) {
+            RECORDER.subscription(path, subscriber, subscribed);
+        }
+    }
+
+    static void connection(String devicePath, String address, boolean connected) {
+        if (RECORDER != null) {
+            RECORDER.connection(devicePath, address, connected);
+        }
+    }
+
+    /**
+     * A call to a BlueZ manager, i.e. RegisterApplication, that completed.
+     * @param startNanos System.nanoTime() when the call was made
+     */
+    static void registration(String method, String adapterPath, String objectPath, long startNanos, boolean failed) {
+        if (RECORDER != null) {
+            RECORDER.registration(method, adapterPath, objectPath, startNanos, failed);
+        }
+    }
+}
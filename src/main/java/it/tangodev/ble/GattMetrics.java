@@ -0,0 +1,187 @@
+package it.tangodev.ble;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Metrics of a characteristic or descriptor: for reads, writes and notifications the count, the bytes, the
+ * errors and the latency histograms of the whole call and of the listener. The counts are also kept per device,
+ * for the MAX_DEVICES most recently active devices: the counts of a device that leaves them are added under
+ * OTHER_DEVICES.
+ */
+public class GattMetrics implements GattMetricsMXBean {
+    public static final int MAX_DEVICES = 32;
+    public static final String OTHER_DEVICES = "other";
+    public static final String NO_DEVICE = "none";
+
+    enum Operation {
+        READ,
+        WRITE,
+        NOTIFY
+    }
+
+    private final Supplier<String> path;
+    private final OperationMetrics read = new OperationMetrics();
+    private final OperationMetrics write = new OperationMetrics();
+    private final OperationMetrics notify = new OperationMetrics();
+    // by device path, the records look a device up without a lock, the insertions and evictions are made under it
+    private final Map<String, DeviceStats> devices = new ConcurrentHashMap<String, DeviceStats>();
+    // the devices that left the most recently active ones, null until one did, written under devices
+    private volatile DeviceStats otherDevices;
+
+    static final class OperationMetrics {
+        final LongAdder count = new LongAdder();
+        final LongAdder bytes = new LongAdder();
+        final LongAdder errors = new LongAdder();
+        final LatencyHistogram total = new LatencyHistogram();
+        final LatencyHistogram listener = new LatencyHistogram();
+
+        OperationStats snapshot() {
+            return new OperationStats(count.sum(), bytes.sum(), errors.sum(),
+                    total.getMean(TimeUnit.MICROSECONDS),
+                    total.getPercentile(50, TimeUnit.MICROSECONDS),
+                    total.getPercentile(99, TimeUnit.MICROSECONDS),
+                    total.getMax(TimeUnit.MICROSECONDS),
+                    listener.getPercentile(50, TimeUnit.MICROSECONDS),
+                    listener.getPercentile(99, TimeUnit.MICROSECONDS));
+        }
+
+        void reset() {
+            count.reset();
+            bytes.reset();
+            errors.reset();
+            total.reset();
+            listener.reset();
+        }
+    }
+
+    GattMetrics(Supplier<String> path) {
+        this.path = path;
+    }
+
+    /**
+     * Record a completed operation, and its flight recorder event.
+     * @param devicePath the device, null if unknown
+     * @param offset the offset of the read or write
+     * @param length the bytes read, written or notified
+     * @param startNanos System.nanoTime() at the start of the call
+     * @param error true if the call failed
+     */
+    void record(Operation operation, String devicePath, int offset, int length, long startNanos, boolean error) {
+        OperationMetrics metrics = metrics(operation);
+        metrics.count.increment();
+        metrics.bytes.add(length);
+        if (error) {
+            metrics.errors.increment();
+        }
+        long now = System.nanoTime();
+        metrics.total.record(now - startNanos);
+        String key = devicePath != null ? devicePath : NO_DEVICE;
+        DeviceStats stats = devices.get(key);
+        // a device evicted in between is retired and refuses the record, it is made again on the new entry
+        while (stats == null || !stats.tryRecord(operation, length, error, now)) {
+            stats = insert(key);
+        }
+        GattEvents.operation(operation, path.get(), devicePath, offset, length, startNanos, error);
+    }
+
+    void recordListener(Operation operation, long startNanos) {
+        metrics(operation).listener.record(System.nanoTime() - startNanos);
+    }
+
+    @Override
+    public String getPath() {
+        return path.get();
+    }
+
+    @Override
+    public OperationStats getRead() {
+        return read.snapshot();
+    }
+
+    @Override
+    public OperationStats getWrite() {
+        return write.snapshot();
+    }
+
+    @Override
+    public OperationStats getNotify() {
+        return notify.snapshot();
+    }
+
+    @Override
+    public Map<String, DeviceStats> getDevices() {
+        Map<String, DeviceStats> copy = new HashMap<String, DeviceStats>(devices);
+        DeviceStats other = otherDevices;
+        if (other != null) {
+            copy.put(OTHER_DEVICES, other);
+        }
+        return Collections.unmodifiableMap(copy);
+    }
+
+    @Override
+    public void reset() {
+        read.reset();
+        write.reset();
+        notify.reset();
+        synchronized (devices) {
+            devices.clear();
+            otherDevices = null;
+        }
+    }
+
+    private OperationMetrics metrics(Operation operation) {
+        switch (operation) {
+            case READ:
+                return read;
+            case WRITE:
+                return write;
+            default:
+                return notify;
+        }
+    }
+
+    /**
+     * The device's entry, inserted if missing: the least recently active device leaves its slot and its counts
+     * are added under OTHER_DEVICES once the records in progress on it are done.
+     */
+    private DeviceStats insert(String key) {
+        synchronized (devices) {
+            DeviceStats stats = devices.get(key);
+            if (stats != null) {
+                return stats;
+            }
+            if (devices.size() >= MAX_DEVICES) {
+                evictLeastRecentlyActive();
+            }
+            stats = new DeviceStats();
+            devices.put(key, stats);
+            return stats;
+        }
+    }
+
+    private void evictLeastRecentlyActive() {
+        String eldestKey = null;
+        DeviceStats eldest = null;
+        for (Map.Entry<String, DeviceStats> entry : devices.entrySet()) {
+            DeviceStats stats = entry.getValue();
+            if (eldest == null || stats.getLastActive() - eldest.getLastActive() < 0) {
+                eldestKey = entry.getKey();
+                eldest = stats;
+            }
+        }
+        devices.remove(eldestKey);
+        eldest.retire();
+        DeviceStats other = otherDevices;
+        if (other == null) {
+            other = new DeviceStats();
+        }
+        other.add(eldest);
+        otherDevices = other;
+    }
+}
@@ -0,0 +1,52 @@
+package it.tangodev.ble;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.InstanceNotFoundException;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+
+/**
+ * Registers the GattMetrics in the platform MBean server, under it.tangodev.ble:type=GattMetrics,path="...".
+ */
+final class GattMetricsJmx {
+    private static final Logger LOG = LoggerFactory.getLogger(GattMetricsJmx.class);
+    private static final String DOMAIN = "it.tangodev.ble";
+
+    private GattMetricsJmx() {
+    }
+
+    static void register(GattMetrics metrics) {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            ObjectName name = objectName(metrics.getPath());
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+            server.registerMBean(metrics, name);
+        } catch (InstanceAlreadyExistsException e) {
+            LOG.debug("metrics of " + metrics.getPath() + " already registered");
+        } catch (JMException e) {
+            LOG.warn("Unable to register the metrics of " + metrics.getPath() + ": " + e.getMessage());
+        }
+    }
+
+    static void unregister(GattMetrics metrics) {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            server.unregisterMBean(objectName(metrics.getPath()));
+        } catch (InstanceNotFoundException e) {
+            // not registered
+        } catch (JMException e) {
+            LOG.warn("Unable to unregister the metrics of " + metrics.getPath() + ": " + e.getMessage());
+        }
+    }
+
+    private static ObjectName objectName(String path) throws JMException {
+        return new ObjectName(DOMAIN + ":type=GattMetrics,path=" + ObjectName.quote(path));
+    }
+}
@@ -0,0 +1,20 @@
+package it.tangodev.ble;
+
+import java.util.Map;
+
+/**
+ * JMX view of the metrics of a characteristic or descriptor.
+ */
+public interface GattMetricsMXBean {
+    String getPath();
+
+    OperationStats getRead();
+
+    OperationStats getWrite();
+
+    OperationStats getNotify();
+
+    Map<String, DeviceStats> getDevices();
+
+    void reset();
+}
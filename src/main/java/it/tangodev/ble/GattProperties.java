@@ -0,0 +1,85 @@
+package it.tangodev.ble;
+
+import org.freedesktop.dbus.Variant;
+import org.freedesktop.dbus.exceptions.DBusExecutionException;
+
+import java.util.Map;
+
+/**
+ * org.freedesktop.DBus.Properties lookups shared by the GATT objects and the advertisement.
+ * The properties come from the immutable map each object keeps, so Get is a constant time lookup.
+ */
+final class GattProperties {
+    private static final String INVALID_ARGS_ERROR = "org.freedesktop.DBus.Error.InvalidArgs";
+    private static final String PROPERTY_READ_ONLY_ERROR = "org.freedesktop.DBus.Error.PropertyReadOnly";
+
+    private GattProperties() {
+    }
+
+    /**
+     * @throws DBusExecutionException org.freedesktop.DBus.Error.InvalidArgs if the object does not implement the interface
+     */
+    static Map<String, Variant> getAll(Map<String, Map<String, Variant>> properties, String interfaceName) {
+        Map<String, Variant> interfaceProperties = properties.get(interfaceName);
+        if (interfaceProperties == null) {
+            throw invalidArgs("Unknown interface [interface_name=" + interfaceName + "]");
+        }
+        return interfaceProperties;
+    }
+
+    /**
+     * @return the Variant of the property, marshalled as it is by dbus-java
+     * @throws DBusExecutionException org.freedesktop.DBus.Error.InvalidArgs for an unknown interface or property
+     */
+    @SuppressWarnings("unchecked")
+    static <A> A get(Map<String, Map<String, Variant>> properties, String interfaceName, String propertyName) {
+        Variant variant = getAll(properties, interfaceName).get(propertyName);
+        if (variant == null) {
+            throw invalidArgs("Unknown property [property_name=" + propertyName + "]");
+        }
+        return (A) variant;
+    }
+
+    /**
+     * Check that the property can be set: it must exist and be one of the writable ones.
+     * @throws DBusExecutionException org.freedesktop.DBus.Error.InvalidArgs for an unknown interface or property,
+     * org.freedesktop.DBus.Error.PropertyReadOnly for a read only property
+     */
+    static void checkWritable(Map<String, Map<String, Variant>> properties, String interfaceName, String propertyName,
+                              String... writableProperties) {
+        Map<String, Variant> interfaceProperties = getAll(properties, interfaceName);
+        for (String writable : writableProperties) {
+            if (writable.equals(propertyName)) {
+                return;
+            }
+        }
+        if (!interfaceProperties.containsKey(propertyName)) {
+            throw invalidArgs("Unknown property [property_name=" + propertyName + "]");
+        }
+        throw error(PROPERTY_READ_ONLY_ERROR, "Property " + propertyName + " is read only");
+    }
+
+    /**
+     * Return the value set through Properties.Set as a byte array.
+     * @throws DBusExecutionException org.freedesktop.DBus.Error.InvalidArgs if the value is not a byte array
+     */
+    static byte[] toByteArray(Object value) {
+        if (value instanceof Variant) {
+            value = ((Variant) value).getValue();
+        }
+        if (!(value instanceof byte[])) {
+            throw invalidArgs("Value must be a byte array");
+        }
+        return (byte[]) value;
+    }
+
+    static DBusExecutionException invalidArgs(String message) {
+        return error(INVALID_ARGS_ERROR, message);
+    }
+
+    private static DBusExecutionException error(String type, String message) {
+        DBusExecutionException e = new DBusExecutionException(message);
+        e.setType(type);
+        return e;
+    }
+}
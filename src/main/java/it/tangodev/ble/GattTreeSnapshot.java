@@ -0,0 +1,56 @@
+package it.tangodev.ble;
+
+import org.freedesktop.dbus.Path;
+import org.freedesktop.dbus.Variant;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Immutable view of the services, characteristics and descriptors of a BleApplication, as returned by
+ * GetManagedObjects. It is rebuilt only when the structure of the tree changes, the version tells which
+ * change it reflects.
+ */
+final class GattTreeSnapshot {
+    private final long version;
+    private final Map<Path, Map<String, Map<String, Variant>>> managedObjects;
+
+    private GattTreeSnapshot(long version, Map<Path, Map<String, Map<String, Variant>>> managedObjects) {
+        this.version = version;
+        this.managedObjects = managedObjects;
+    }
+
+    static GattTreeSnapshot build(long version, List<BleService> services) {
+        Map<Path, Map<String, Map<String, Variant>>> managedObjects = new HashMap<Path, Map<String, Map<String, Variant>>>();
+        for (BleService service : services) {
+            put(managedObjects, service.getPath(), service.getProperties());
+            for (BleCharacteristic characteristic : service.getCharacteristics()) {
+                put(managedObjects, characteristic.getPath(), characteristic.getProperties());
+                for (BleDescriptor descriptor : characteristic.getDescriptors().values()) {
+                    put(managedObjects, descriptor.getDBusPath(), descriptor.getProperties());
+                }
+            }
+        }
+        return new GattTreeSnapshot(version, Collections.unmodifiableMap(managedObjects));
+    }
+
+    private static void put(Map<Path, Map<String, Map<String, Variant>>> managedObjects,
+                            Path path, Map<String, Map<String, Variant>> properties) {
+        // the objects' properties are already immutable and cached, they are shared with the snapshot
+        managedObjects.put(path, properties);
+    }
+
+    long getVersion() {
+        return version;
+    }
+
+    Map<Path, Map<String, Map<String, Variant>>> getManagedObjects() {
+        return managedObjects;
+    }
+
+    int size() {
+        return managedObjects.size();
+    }
+}
@@ -0,0 +1,100 @@
+package it.tangodev.ble;
+
+import org.bluez.Error;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Keeps, for each device, the value read at offset 0 of a value longer than one ATT PDU, so that the following
+ * ReadValue calls at increasing offsets are served from the same version of the value without calling the
+ * listener again. The snapshot is released once the last chunk is read or after the timeout.
+ */
+class LongReadCache {
+    static final long DEFAULT_TIMEOUT_MS = 1000;
+
+    // the value of a ReadValue reply with the default ATT MTU of 23
+    private static final int MIN_CHUNK_LENGTH = 22;
+    // devices with an expired snapshot are purged when the cache grows above this size
+    private static final int PURGE_THRESHOLD = 64;
+    private static final String NO_DEVICE = "";
+
+    private final Map<String, Snapshot> snapshots = new ConcurrentHashMap<String, Snapshot>();
+    private volatile long timeoutNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_TIMEOUT_MS);
+
+    private static final class Snapshot {
+        final byte[] value;
+        final long expiry;
+
+        Snapshot(byte[] value, long expiry) {
+            this.value = value;
+            this.expiry = expiry;
+        }
+    }
+
+    void setTimeout(long timeout, TimeUnit unit) {
+        this.timeoutNanos = unit.toNanos(timeout);
+    }
+
+    /**
+     * Return the value from the offset, reading it with the reader at offset 0 or when there is no valid snapshot.
+     * @throws Error.InvalidOffset if the offset is beyond the value
+     */
+    byte[] read(String devicePath, int offset, Function<String, byte[]> reader) {
+        String key = devicePath != null ? devicePath : NO_DEVICE;
+        byte[] value;
+        if (offset == 0) {
+            value = reader.apply(devicePath);
+            // the timeout runs from the read, a slow listener does not shorten it
+            long now = System.nanoTime();
+            if (value != null && value.length > MIN_CHUNK_LENGTH) {
+                if (snapshots.size() >= PURGE_THRESHOLD) {
+                    purge(now);
+                }
+                snapshots.put(key, new Snapshot(value, now + timeoutNanos));
+            } else {
+                snapshots.remove(key);
+            }
+            return value;
+        }
+
+        Snapshot snapshot = snapshots.get(key);
+        if (snapshot != null && System.nanoTime() - snapshot.expiry < 0) {
+            value = snapshot.value;
+        } else {
+            value = reader.apply(devicePath);
+        }
+        if (value == null) {
+            value = new byte[0];
+        }
+        if (offset > value.length) {
+            snapshots.remove(key);
+            throw new Error.InvalidOffset("Offset " + offset + " beyond value length " + value.length);
+        }
+        if (snapshot != null && value.length - offset <= MIN_CHUNK_LENGTH) {
+            // last chunk whatever the MTU is
+            snapshots.remove(key, snapshot);
+        }
+        return Arrays.copyOfRange(value, offset, value.length);
+    }
+
+    /**
+     * Drop the snapshots, i.e. because the value changed.
+     */
+    void clear() {
+        snapshots.clear();
+    }
+
+    private void purge(long now) {
+        Iterator<Snapshot> iterator = snapshots.values().iterator();
+        while (iterator.hasNext()) {
+            if (now - iterator.next().expiry >= 0) {
+                iterator.remove();
+            }
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package it.tangodev.ble;
+
+/**
+ * Counters and latencies of one kind of operation (read, write or notification) on a GATT object,
+ * at the time they were taken. The latencies are in microseconds: the total time of the D-Bus call and
+ * the time spent in the listener.
+ */
+public class OperationStats {
+    private final long count;
+    private final long bytes;
+    private final long errors;
+    private final long meanMicros;
+    private final long p50Micros;
+    private final long p99Micros;
+    private final long maxMicros;
+    private final long listenerP50Micros;
+    private final long listenerP99Micros;
+
+    OperationStats(long count, long bytes, long errors, long meanMicros, long p50Micros, long p99Micros,
+                   long maxMicros, long listenerP50Micros, long listenerP99Micros) {
+        this.count = count;
+        this.bytes = bytes;
+        this.errors = errors;
+        this.meanMicros = meanMicros;
+        this.p50Micros = p50Micros;
+        this.p99Micros = p99Micros;
+        this.maxMicros = maxMicros;
+        this.listenerP50Micros = listenerP50Micros;
+        this.listenerP99Micros = listenerP99Micros;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getBytes() {
+        return bytes;
+    }
+
+    public long getErrors() {
+        return errors;
+    }
+
+    public long getMeanMicros() {
+        return meanMicros;
+    }
+
+    public long getP50Micros() {
+        return p50Micros;
+    }
+
+    public long getP99Micros() {
+        return p99Micros;
+    }
+
+    public long getMaxMicros() {
+        return maxMicros;
+    }
+
+    public long getListenerP50Micros() {
+        return listenerP50Micros;
+    }
+
+    public long getListenerP99Micros() {
+        return listenerP99Micros;
+    }
+
+    @Override
+    public String toString() {
+        return "count=" + count + ", bytes=" + bytes + ", errors=" + errors + ", p50=" + p50Micros + "us, p99="
+                + p99Micros + "us, max=" + maxMicros + "us, listener p99=" + listenerP99Micros + "us";
+    }
+}
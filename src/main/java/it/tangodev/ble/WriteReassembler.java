@@ -0,0 +1,159 @@
+package it.tangodev.ble;
+
+import it.tangodev.utils.BufferPool;
+import org.bluez.Error;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reassembles, for each device, the pieces of a long or prepared write into one contiguous value.
+ * BlueZ joins the contiguous Prepare Write fragments before executing them: a long write reaches WriteValue as one
+ * call of type "reliable" at offset 0 with the whole value, and is delivered at once. A central that executes its
+ * prepared writes piece by piece, or a BlueZ that does not join them, sends the next pieces as "reliable" writes at
+ * the following offsets: each one is delivered joined to the value before it, at offset 0. The value is kept for its
+ * next piece until the idle timeout.
+ * The writes of type "request" and "command" are whole values and are delivered at once.
+ * Every value is delivered within its WriteValue call, so that the exceptions of the listener reach the central.
+ * The values kept for their next piece are held in buffers taken from the application's pool, which bounds the
+ * total memory.
+ */
+class WriteReassembler {
+    // the ATT max attribute value length
+    static final int MAX_VALUE_LENGTH = 512;
+    // WriteValue "type" option of an executed prepared write
+    static final String TYPE_RELIABLE = "reliable";
+    private static final ScheduledExecutorService EXPIRY_EXECUTOR = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "ble-write-reassembler");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    interface Delivery {
+        void deliver(String devicePath, int offset, byte[] value);
+    }
+
+    private static final class Assembly {
+        final String devicePath;
+        final ByteBuffer buffer;
+        final BufferPool bufferPool;
+        ScheduledFuture<?> expiryTask;
+
+        Assembly(String devicePath, ByteBuffer buffer, BufferPool bufferPool) {
+            this.devicePath = devicePath;
+            this.buffer = buffer;
+            this.bufferPool = bufferPool;
+        }
+    }
+
+    private final long idleTimeoutNanos;
+    private final int maxValueLength;
+    private final Map<String, Assembly> assemblies = new HashMap<String, Assembly>();
+
+    /**
+     * @param idleTimeout    time a value is kept for its next piece
+     * @param maxValueLength max length of a reassembled value for one device
+     */
+    WriteReassembler(long idleTimeout, TimeUnit unit, int maxValueLength) {
+        this.idleTimeoutNanos = unit.toNanos(idleTimeout);
+        this.maxValueLength = Math.min(maxValueLength, MAX_VALUE_LENGTH);
+    }
+
+    /**
+     * Add the write to the device's value and deliver the value on the calling thread, so that the exceptions of
+     * the delivery reach the caller, i.e. the central as a D-Bus error.
+     * @param bufferPool pool of MAX_VALUE_LENGTH buffers, shared by all the characteristics
+     * @param type the "type" option of WriteValue, null if BlueZ did not pass it
+     * @throws Error.InvalidOffset if the piece does not follow the previous one
+     * @throws Error.InvalidValueLength if the value exceeds the max length
+     */
+    void write(BufferPool bufferPool, String devicePath, int offset, byte[] value, String type, Delivery delivery) {
+        if (!TYPE_RELIABLE.equals(type)) {
+            discard(devicePath);
+            delivery.deliver(devicePath, offset, value);
+            return;
+        }
+        byte[] joined;
+        synchronized (this) {
+            Assembly assembly = assemblies.get(devicePath);
+            if (offset == 0) {
+                if (assembly != null) {
+                    discard(assembly);
+                    assembly = null;
+                }
+                if (value.length > maxValueLength) {
+                    throw new Error.InvalidValueLength("Value longer than " + maxValueLength + " bytes");
+                }
+                // kept for a next piece if the memory allows, the value itself is delivered anyway
+                ByteBuffer buffer = value.length < maxValueLength ? bufferPool.tryAcquire() : null;
+                if (buffer != null) {
+                    assembly = new Assembly(devicePath, buffer, bufferPool);
+                    assemblies.put(devicePath, assembly);
+                }
+            } else if (assembly == null || assembly.buffer.position() != offset) {
+                if (assembly != null) {
+                    discard(assembly);
+                }
+                throw new Error.InvalidOffset("Unexpected write offset " + offset);
+            } else if (offset + value.length > Math.min(maxValueLength, assembly.buffer.capacity())) {
+                discard(assembly);
+                throw new Error.InvalidValueLength("Value longer than " + maxValueLength + " bytes");
+            }
+            if (assembly == null) {
+                joined = value;
+            } else {
+                assembly.buffer.put(value);
+                ByteBuffer content = assembly.buffer.duplicate();
+                content.flip();
+                joined = new byte[content.remaining()];
+                content.get(joined);
+                if (assembly.expiryTask != null) {
+                    assembly.expiryTask.cancel(false);
+                }
+                if (joined.length == maxValueLength) {
+                    // nothing can follow
+                    discard(assembly);
+                } else {
+                    final Assembly scheduled = assembly;
+                    assembly.expiryTask = EXPIRY_EXECUTOR.schedule(() -> expire(scheduled), idleTimeoutNanos, TimeUnit.NANOSECONDS);
+                }
+            }
+        }
+        delivery.deliver(devicePath, 0, joined);
+    }
+
+    /**
+     * Drop the values kept for all the devices.
+     */
+    synchronized void clear() {
+        for (Assembly assembly : assemblies.values().toArray(new Assembly[0])) {
+            discard(assembly);
+        }
+    }
+
+    private synchronized void expire(Assembly assembly) {
+        if (assemblies.get(assembly.devicePath) == assembly) {
+            discard(assembly);
+        }
+    }
+
+    private synchronized void discard(String devicePath) {
+        Assembly assembly = assemblies.get(devicePath);
+        if (assembly != null) {
+            discard(assembly);
+        }
+    }
+
+    private void discard(Assembly assembly) {
+        assemblies.remove(assembly.devicePath);
+        if (assembly.expiryTask != null) {
+            assembly.expiryTask.cancel(false);
+        }
+        assembly.bufferPool.release(assembly.buffer);
+    }
+}
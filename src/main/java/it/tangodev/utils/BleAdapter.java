@@ -4,11 +4,14 @@ package it.tangodev.utils;
 import org.freedesktop.dbus.Path;
 import org.freedesktop.dbus.Variant;
 
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Consolidates the information about the local Bluetooth Adapter returned by BlueZ
  * Provides Java-friendly getters for the BlueZ D-Bus mappings of Variant values
+ * The properties are kept current by the BleAdapterRegistry that created the adapter.
  */
 public class BleAdapter {
     private final Map<String, Variant> fields;
@@ -22,7 +25,16 @@ public class BleAdapter {
      */
     public BleAdapter(Path path, Map<String, Variant> value) {
         this.path = path;
-        this.fields = value;
+        this.fields = new ConcurrentHashMap<String, Variant>(value);
+    }
+
+    void update(Map<String, Variant> changed, List<String> invalidated) {
+        fields.putAll(changed);
+        if (invalidated != null) {
+            for (String name : invalidated) {
+                fields.remove(name);
+            }
+        }
     }
 
     public String getPath() {
@@ -30,14 +42,25 @@ public class BleAdapter {
     }
 
     public String getAddress() {
-        return fields.get("Address").toString();
+        return getString("Address");
     }
 
     public String getName() {
-        return fields.get("Name").toString();
+        return getString("Name");
     }
 
     public String getAlias() {
-        return fields.get("Alias").toString();
+        return getString("Alias");
+    }
+
+    private String getString(String key) {
+        Variant value = fields.get(key);
+        // Variant.toString() wraps the value in brackets
+        return value != null ? String.valueOf(value.getValue()) : null;
+    }
+
+    public boolean isPowered() {
+        Variant powered = fields.get("Powered");
+        return powered != null && Boolean.TRUE.equals(powered.getValue());
     }
 }
@@ -0,0 +1,220 @@
+package it.tangodev.utils;
+
+import org.dbus.InterfacesAddedSignal.InterfacesAdded;
+import org.dbus.InterfacesRomovedSignal.InterfacesRemoved;
+import org.dbus.PropertiesChangedSignal.PropertiesChanged;
+import org.freedesktop.DBus;
+import org.freedesktop.DBus.Introspectable;
+import org.freedesktop.DBus.Properties;
+import org.freedesktop.dbus.DBusConnection;
+import org.freedesktop.dbus.DBusSigHandler;
+import org.freedesktop.dbus.Path;
+import org.freedesktop.dbus.Variant;
+import org.freedesktop.dbus.exceptions.DBusException;
+import org.freedesktop.dbus.exceptions.DBusExecutionException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Resolves the local Bluetooth adapters by name (hci0) or address and keeps their properties current.
+ * An adapter is looked up on its own path, /org/bluez/hci0, instead of walking the whole BlueZ object tree
+ * that also holds every remote device known to BlueZ. The BleAdapter objects are then updated by the
+ * PropertiesChanged, InterfacesAdded and InterfacesRemoved signals of org.bluez, without querying again.
+ */
+public class BleAdapterRegistry {
+    private static final Logger LOG = LoggerFactory.getLogger(BleAdapterRegistry.class);
+
+    public static final String BLUEZ_DBUS_BUSNAME = "org.bluez";
+    public static final String BLUEZ_ROOT_PATH = "/org/bluez";
+    public static final String BLUEZ_ADAPTER_INTERFACE = "org.bluez.Adapter1";
+    public static final String BLUEZ_LE_ADV_INTERFACE = "org.bluez.LEAdvertisingManager1";
+
+    private static final Pattern CHILD_NODE = Pattern.compile("<node\\s+name=\"([^\"]+)\"");
+
+    private final DBusConnection dbusConnection;
+    // by adapter path
+    private final Map<String, BleAdapter> adapters = new ConcurrentHashMap<String, BleAdapter>();
+    private volatile boolean enumerated = false;
+
+    private DBusSigHandler<PropertiesChanged> propertiesChangedHandler;
+    private DBusSigHandler<InterfacesAdded> interfacesAddedHandler;
+    private DBusSigHandler<InterfacesRemoved> interfacesRemovedHandler;
+    private String bluezOwner;
+
+    public BleAdapterRegistry(DBusConnection dbusConnection) throws DBusException {
+        this.dbusConnection = dbusConnection;
+        initHandlers();
+    }
+
+    /**
+     * @param nameOrAddress the adapter's name, i.e. hci0, or its address, i.e. 00:1A:7D:DA:71:13
+     * @return the adapter or null if there is no such adapter
+     */
+    public BleAdapter get(String nameOrAddress) throws DBusException {
+        if (nameOrAddress.indexOf(':') >= 0) {
+            return getByAddress(nameOrAddress);
+        }
+        return getByName(nameOrAddress);
+    }
+
+    /**
+     * @param name the adapter's name, i.e. hci0
+     * @return the adapter or null if there is no such adapter
+     */
+    public BleAdapter getByName(String name) throws DBusException {
+        String path = BLUEZ_ROOT_PATH + "/" + name;
+        BleAdapter adapter = adapters.get(path);
+        if (adapter == null) {
+            adapter = load(path);
+        }
+        return adapter;
+    }
+
+    /**
+     * @param address the adapter's address, the case does not matter
+     * @return the adapter or null if there is no such adapter
+     */
+    public BleAdapter getByAddress(String address) throws DBusException {
+        BleAdapter adapter = findByAddress(address);
+        if (adapter == null && !enumerated) {
+            enumerate();
+            adapter = findByAddress(address);
+        }
+        return adapter;
+    }
+
+    /**
+     * @return the first adapter able to advertise, i.e. to run a peripheral, or null if there is none
+     */
+    public BleAdapter findPeripheralAdapter() throws DBusException {
+        for (BleAdapter adapter : getAdapters()) {
+            if (supportsAdvertising(adapter)) {
+                return adapter;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the adapters, sorted by path
+     */
+    public List<BleAdapter> getAdapters() throws DBusException {
+        if (!enumerated) {
+            enumerate();
+        }
+        List<BleAdapter> list = new ArrayList<BleAdapter>(adapters.values());
+        Collections.sort(list, (a, b) -> a.getPath().compareTo(b.getPath()));
+        return list;
+    }
+
+    /**
+     * Stop following the adapters' changes.
+     */
+    public void close() {
+        try {
+            dbusConnection.removeSigHandler(PropertiesChanged.class, bluezOwner, propertiesChangedHandler);
+            dbusConnection.removeSigHandler(InterfacesAdded.class, bluezOwner, interfacesAddedHandler);
+            dbusConnection.removeSigHandler(InterfacesRemoved.class, bluezOwner, interfacesRemovedHandler);
+        } catch (DBusException e) {
+            LOG.warn("Unable to remove the adapter signal handlers: " + e.getMessage());
+        }
+    }
+
+    private BleAdapter findByAddress(String address) {
+        for (BleAdapter adapter : adapters.values()) {
+            if (address.equalsIgnoreCase(adapter.getAddress())) {
+                return adapter;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * List the children of /org/bluez: only the adapters' nodes, the devices are one level below.
+     */
+    private void enumerate() throws DBusException {
+        Introspectable root = dbusConnection.getRemoteObject(BLUEZ_DBUS_BUSNAME, BLUEZ_ROOT_PATH, Introspectable.class);
+        Matcher matcher = CHILD_NODE.matcher(root.Introspect());
+        while (matcher.find()) {
+            String path = BLUEZ_ROOT_PATH + "/" + matcher.group(1);
+            if (!adapters.containsKey(path)) {
+                load(path);
+            }
+        }
+        enumerated = true;
+    }
+
+    private BleAdapter load(String path) throws DBusException {
+        Properties properties = dbusConnection.getRemoteObject(BLUEZ_DBUS_BUSNAME, path, Properties.class);
+        Map<String, Variant> values;
+        try {
+            values = properties.GetAll(BLUEZ_ADAPTER_INTERFACE);
+        } catch (DBusExecutionException e) {
+            // no such object or not an adapter
+            LOG.debug("No adapter at " + path + ": " + e.getMessage());
+            return null;
+        }
+        BleAdapter adapter = new BleAdapter(new Path(path), values);
+        BleAdapter previous = adapters.putIfAbsent(path, adapter);
+        return previous != null ? previous : adapter;
+    }
+
+    private boolean supportsAdvertising(BleAdapter adapter) throws DBusException {
+        Properties properties = dbusConnection.getRemoteObject(BLUEZ_DBUS_BUSNAME, adapter.getPath(), Properties.class);
+        try {
+            properties.GetAll(BLUEZ_LE_ADV_INTERFACE);
+            return true;
+        } catch (DBusExecutionException e) {
+            return false;
+        }
+    }
+
+    private void initHandlers() throws DBusException {
+        DBus dbus = dbusConnection.getRemoteObject("org.freedesktop.DBus", "/org/freedesktop/DBus", DBus.class);
+        bluezOwner = dbus.GetNameOwner(BLUEZ_DBUS_BUSNAME);
+
+        propertiesChangedHandler = new DBusSigHandler<PropertiesChanged>() {
+            @Override
+            public void handle(PropertiesChanged signal) {
+                if (!BLUEZ_ADAPTER_INTERFACE.equals(signal.getIface())) {
+                    return;
+                }
+                BleAdapter adapter = adapters.get(signal.getPath());
+                if (adapter != null) {
+                    adapter.update(signal.getPropertiesChanged(), signal.getPropertiesRemoved());
+                }
+            }
+        };
+        interfacesAddedHandler = new DBusSigHandler<InterfacesAdded>() {
+            @Override
+            public void handle(InterfacesAdded signal) {
+                Map<String, Variant> values = signal.getInterfacesAdded().get(BLUEZ_ADAPTER_INTERFACE);
+                if (values != null) {
+                    Path path = signal.getObjectPath();
+                    adapters.put(path.toString(), new BleAdapter(path, values));
+                }
+            }
+        };
+        interfacesRemovedHandler = new DBusSigHandler<InterfacesRemoved>() {
+            @Override
+            public void handle(InterfacesRemoved signal) {
+                if (signal.getInterfacesRemoved().contains(BLUEZ_ADAPTER_INTERFACE)) {
+                    adapters.remove(signal.getObjectPath().toString());
+                }
+            }
+        };
+
+        dbusConnection.addSigHandler(PropertiesChanged.class, bluezOwner, propertiesChangedHandler);
+        dbusConnection.addSigHandler(InterfacesAdded.class, bluezOwner, interfacesAddedHandler);
+        dbusConnection.addSigHandler(InterfacesRemoved.class, bluezOwner, interfacesRemovedHandler);
+    }
+}
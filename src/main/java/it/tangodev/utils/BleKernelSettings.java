@@ -0,0 +1,194 @@
+package it.tangodev.utils;
+
+import it.tangodev.ble.InvalidSettingException;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The advertising and connection settings of an adapter in the kernel debugfs, /sys/kernel/debug/bluetooth/hciX.
+ * The files are opened once and kept open, a change is one write per file. Requires root.
+ *
+ * The values are in the kernel units: the advertising intervals in 0.625 ms, the connection intervals in 1.25 ms,
+ * the supervision timeout in 10 ms and the connection latency in connection events. They are checked against the
+ * ranges the kernel accepts before writing, and a min/max pair is written in the order that keeps min <= max at
+ * each step, so the kernel never refuses the first of the two writes.
+ */
+public class BleKernelSettings implements Closeable {
+    public static final String KERNEL_DEBUG_PATH = "/sys/kernel/debug/bluetooth/";
+
+    public static final int MIN_ADVERTISE_INTERVAL = 0x0020;
+    public static final int MAX_ADVERTISE_INTERVAL = 0x4000;
+    public static final int MIN_CONNECTION_INTERVAL = 0x0006;
+    public static final int MAX_CONNECTION_INTERVAL = 0x0c80;
+    public static final int MAX_CONNECTION_LATENCY = 0x01f3;
+    public static final int MIN_SUPERVISION_TIMEOUT = 0x000a;
+    public static final int MAX_SUPERVISION_TIMEOUT = 0x0c80;
+
+    private final String adapter;
+    private final FileChannel advMinInterval;
+    private final FileChannel advMaxInterval;
+    private final FileChannel connMinInterval;
+    private final FileChannel connMaxInterval;
+    private final FileChannel connLatency;
+    private final FileChannel supervisionTimeout;
+
+    /**
+     * @param adapter usually hci0
+     * @throws IOException if a setting file is missing or cannot be opened
+     */
+    public BleKernelSettings(String adapter) throws IOException {
+        this.adapter = adapter;
+        FileChannel[] channels = new FileChannel[6];
+        String[] names = { "adv_min_interval", "adv_max_interval", "conn_min_interval", "conn_max_interval",
+                "conn_latency", "supervision_timeout" };
+        try {
+            for (int i = 0; i < names.length; i++) {
+                channels[i] = open(adapter, names[i]);
+            }
+        } catch (IOException e) {
+            for (FileChannel channel : channels) {
+                if (channel != null) {
+                    channel.close();
+                }
+            }
+            throw e;
+        }
+        advMinInterval = channels[0];
+        advMaxInterval = channels[1];
+        connMinInterval = channels[2];
+        connMaxInterval = channels[3];
+        connLatency = channels[4];
+        supervisionTimeout = channels[5];
+    }
+
+    private static FileChannel open(String adapter, String name) throws IOException {
+        File file = new File(KERNEL_DEBUG_PATH + adapter + "/" + name);
+        if (!file.exists()) throw new FileNotFoundException("No file " + file.getPath());
+        return new RandomAccessFile(file, "rw").getChannel();
+    }
+
+    public String getAdapter() {
+        return adapter;
+    }
+
+    /**
+     * @param min in 0.625 ms units, from 0x0020 (20 ms)
+     * @param max in 0.625 ms units, up to 0x4000 (10.24 s)
+     */
+    public synchronized void setAdvertiseInterval(int min, int max) throws IOException, InvalidSettingException {
+        checkRange("Advertise interval", min, max, MIN_ADVERTISE_INTERVAL, MAX_ADVERTISE_INTERVAL);
+        writePair(advMinInterval, advMaxInterval, min, max);
+    }
+
+    /**
+     * @param min in 1.25 ms units, from 0x0006 (7.5 ms)
+     * @param max in 1.25 ms units, up to 0x0c80 (4 s)
+     */
+    public synchronized void setConnectionInterval(int min, int max) throws IOException, InvalidSettingException {
+        checkRange("Connection interval", min, max, MIN_CONNECTION_INTERVAL, MAX_CONNECTION_INTERVAL);
+        writePair(connMinInterval, connMaxInterval, min, max);
+    }
+
+    /**
+     * @param latency the connection events the peripheral can skip, up to 0x01f3
+     */
+    public synchronized void setConnectionLatency(int latency) throws IOException, InvalidSettingException {
+        if (latency < 0 || latency > MAX_CONNECTION_LATENCY) throw new InvalidSettingException(
+                "Connection latency must be between 0 and " + MAX_CONNECTION_LATENCY);
+        write(connLatency, latency);
+    }
+
+    /**
+     * @param timeout in 10 ms units, from 0x000a (100 ms) to 0x0c80 (32 s)
+     */
+    public synchronized void setSupervisionTimeout(int timeout) throws IOException, InvalidSettingException {
+        if (timeout < MIN_SUPERVISION_TIMEOUT || timeout > MAX_SUPERVISION_TIMEOUT) throw new InvalidSettingException(
+                "Supervision timeout must be between " + MIN_SUPERVISION_TIMEOUT + " and " + MAX_SUPERVISION_TIMEOUT);
+        write(supervisionTimeout, timeout);
+    }
+
+    public synchronized int getAdvertiseIntervalMin() throws IOException {
+        return read(advMinInterval);
+    }
+
+    public synchronized int getAdvertiseIntervalMax() throws IOException {
+        return read(advMaxInterval);
+    }
+
+    public synchronized int getConnectionIntervalMin() throws IOException {
+        return read(connMinInterval);
+    }
+
+    public synchronized int getConnectionIntervalMax() throws IOException {
+        return read(connMaxInterval);
+    }
+
+    public synchronized int getConnectionLatency() throws IOException {
+        return read(connLatency);
+    }
+
+    public synchronized int getSupervisionTimeout() throws IOException {
+        return read(supervisionTimeout);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        for (FileChannel channel : new FileChannel[] { advMinInterval, advMaxInterval, connMinInterval,
+                connMaxInterval, connLatency, supervisionTimeout }) {
+            channel.close();
+        }
+    }
+
+    private static void checkRange(String name, int min, int max, int lowest, int highest) throws InvalidSettingException {
+        if (min < lowest || max > highest) throw new InvalidSettingException(
+                name + " must be between " + lowest + " and " + highest);
+        if (min > max) throw new InvalidSettingException(name + " min must not be larger than max");
+    }
+
+    /**
+     * The kernel refuses a min above the current max and a max below the current min: when the new min is above
+     * the current max the max is written first. If the second write fails the first one is undone.
+     */
+    private static void writePair(FileChannel minChannel, FileChannel maxChannel, int min, int max) throws IOException {
+        int currentMin = read(minChannel);
+        int currentMax = read(maxChannel);
+        if (min > currentMax) {
+            write(maxChannel, max);
+            try {
+                write(minChannel, min);
+            } catch (IOException e) {
+                write(maxChannel, currentMax);
+                throw e;
+            }
+        } else {
+            write(minChannel, min);
+            try {
+                write(maxChannel, max);
+            } catch (IOException e) {
+                write(minChannel, currentMin);
+                throw e;
+            }
+        }
+    }
+
+    private static int read(FileChannel channel) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(32);
+        // a read at offset 0 makes the kernel format the current value again
+        int length = channel.read(buffer, 0);
+        if (length <= 0) throw new IOException("Empty kernel setting");
+        return Integer.parseInt(new String(buffer.array(), 0, length, StandardCharsets.US_ASCII).trim());
+    }
+
+    private static void write(FileChannel channel, int value) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(Integer.toString(value).getBytes(StandardCharsets.US_ASCII));
+        // the kernel parses the value of each write on its own
+        if (channel.write(buffer, 0) != buffer.capacity()) throw new IOException("Partial write of kernel setting " + value);
+    }
+}
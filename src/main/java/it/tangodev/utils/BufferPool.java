@@ -0,0 +1,77 @@
+package it.tangodev.utils;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Bounded pool of fixed size heap ByteBuffers.
+ * When the pool is empty a new buffer is allocated, when it is full the released buffer is left to the GC.
+ * tryAcquire() bounds the number of buffers in use, to cap the memory held by the users of the pool.
+ */
+public class BufferPool {
+    private final int bufferSize;
+    private final BlockingQueue<ByteBuffer> buffers;
+    private final int maxInUse;
+    private final AtomicInteger inUse = new AtomicInteger();
+
+    /**
+     * @param bufferSize capacity of each buffer
+     * @param maxPooled  max number of buffers kept in the pool
+     * @param maxInUse   max number of buffers tryAcquire() hands out at the same time
+     */
+    public BufferPool(int bufferSize, int maxPooled, int maxInUse) {
+        this.bufferSize = bufferSize;
+        this.buffers = new ArrayBlockingQueue<ByteBuffer>(maxPooled);
+        this.maxInUse = maxInUse;
+    }
+
+    public int getBufferSize() {
+        return bufferSize;
+    }
+
+    /**
+     * @return a cleared buffer, or null if maxInUse buffers are already in use
+     */
+    public ByteBuffer tryAcquire() {
+        int current;
+        do {
+            current = inUse.get();
+            if (current >= maxInUse) {
+                return null;
+            }
+        } while (!inUse.compareAndSet(current, current + 1));
+        ByteBuffer buffer = buffers.poll();
+        if (buffer == null) {
+            buffer = ByteBuffer.allocate(bufferSize);
+        }
+        return buffer;
+    }
+
+    /**
+     * Give the buffer back to the pool, it must not be used afterwards.
+     */
+    public void release(ByteBuffer buffer) {
+        if (buffer == null || buffer.capacity() != bufferSize) {
+            return;
+        }
+        inUse.decrementAndGet();
+        buffer.clear();
+        buffers.offer(buffer);
+    }
+
+    /**
+     * @return number of buffers ready in the pool
+     */
+    public int getPooledCount() {
+        return buffers.size();
+    }
+
+    /**
+     * @return number of buffers acquired and not released yet
+     */
+    public int getInUseCount() {
+        return inUse.get();
+    }
+}
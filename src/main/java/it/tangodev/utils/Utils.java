@@ -1,8 +1,33 @@
 package it.tangodev.utils;
 
+import org.freedesktop.dbus.DBusConnection;
+
 import java.util.List;
 
 public class Utils {
+	private static final String SYSTEM_BUS_ADDRESS_VARIABLE = "DBUS_SYSTEM_BUS_ADDRESS";
+
+	/**
+	 * dbus-java shares one connection per address string: a parameter ignored by the daemon gives a connection
+	 * of its own, read by its own threads, instead of the one of a BleApplication on the same bus.
+	 * The connection is still opened with DBusConnection.getConnection: the constructor is private in dbus-java 2.7,
+	 * and a connection that is not in its map would remove the shared one of the same address when disconnected.
+	 * dbus-java 2.7 only reads the path, abstract, host, port and guid parameters, StartCheck checks the address on
+	 * a unix:path bus.
+	 * @param busAddress a D-Bus address, or null for the system bus
+	 * @param client a name of the client
+	 */
+	public static String getPrivateBusAddress(String busAddress, String client) {
+		String address = busAddress;
+		if (address == null) {
+			address = System.getenv(SYSTEM_BUS_ADDRESS_VARIABLE);
+		}
+		if (address == null) {
+			address = DBusConnection.DEFAULT_SYSTEM_BUS_ADDRESS;
+		}
+		return address + ",client=" + client;
+	}
+
 	/**
 	 * Convert a List<String> in String[] array.
 	 * @param list
@@ -0,0 +1,31 @@
+package org.bluez;
+
+import org.freedesktop.dbus.exceptions.DBusExecutionException;
+
+/**
+ * Errors returned to BlueZ by the GATT objects, the D-Bus error name is the class name (i.e. org.bluez.Error.Failed).
+ * See https://git.kernel.org/pub/scm/bluetooth/bluez.git/tree/doc/gatt-api.txt
+ */
+public interface Error {
+
+	@SuppressWarnings("serial")
+	public static class Failed extends DBusExecutionException {
+		public Failed(String message) {
+			super(message);
+		}
+	}
+
+	@SuppressWarnings("serial")
+	public static class InvalidValueLength extends DBusExecutionException {
+		public InvalidValueLength(String message) {
+			super(message);
+		}
+	}
+
+	@SuppressWarnings("serial")
+	public static class InvalidOffset extends DBusExecutionException {
+		public InvalidOffset(String message) {
+			super(message);
+		}
+	}
+}
@@ -5,6 +5,10 @@ import java.util.Map;
 import org.freedesktop.dbus.DBusInterface;
 import org.freedesktop.dbus.Variant;
 
+/**
+ * AcquireWrite and AcquireNotify are not declared: they return a unix file descriptor,
+ * a type dbus-java 2.7 is not able to marshal.
+ */
 public interface GattCharacteristic1 extends DBusInterface {
 	public byte[] ReadValue(Map<String, Variant> option);
 	public void WriteValue(byte[] value, Map<String, Variant> option);
@@ -6,6 +6,7 @@ import org.freedesktop.dbus.exceptions.DBusException;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 public class ExampleMain {
 	public static final String DESCRIPTOR_UUID = "b4a20bb9-d3c6-4086-94ed-7759ec9d64ba";
@@ -60,6 +61,9 @@ public class ExampleMain {
 			}
 		});
 
+		// the listener receives the long writes as one value
+		characteristic.enableWriteReassembly(50, TimeUnit.MILLISECONDS, 512);
+
 		BleDescriptor.DescriptorFlag[] descriptorFlags = {
 				BleDescriptor.DescriptorFlag.READ, BleDescriptor.DescriptorFlag.WRITE
 		};
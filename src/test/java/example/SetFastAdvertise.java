@@ -9,8 +9,8 @@ public class SetFastAdvertise {
     public static void main(String... args) {
 
         try {
-            BleApplication.setBleAdvertiseIntervalMin("hci0", 160);
-            BleApplication.setBleAdvertiseIntervalMax("hci0", 260);
+            BleApplication.setBleAdvertiseIntervalMin("hci0", 160); // 0.625 ms units, 100 ms
+            BleApplication.setBleAdvertiseIntervalMax("hci0", 260); // 162.5 ms
         } catch (IOException | InvalidSettingException e) {
             System.err.println("Unable to change values " + e.getLocalizedMessage());
             e.printStackTrace();
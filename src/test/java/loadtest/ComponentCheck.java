@@ -0,0 +1,367 @@
+package loadtest;
+
+import it.tangodev.ble.BleAdvertisement;
+import it.tangodev.ble.BleApplication;
+import it.tangodev.ble.BleApplicationListener;
+import it.tangodev.ble.BleCharacteristic;
+import it.tangodev.ble.BleCharacteristic.CharacteristicFlag;
+import it.tangodev.ble.BleCharacteristicListener;
+import it.tangodev.ble.BleService;
+import it.tangodev.ble.LatencyHistogram;
+import org.bluez.Error;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Checks of the GATT state machines through the public API of a BleApplication that is not started: no D-Bus
+ * daemon or Bluetooth adapter is needed. Exits with 1 if a check fails.
+ */
+public class ComponentCheck {
+	private static final String SERVICE_UUID = "13333333-3333-3333-3333-333333333301";
+	private static final String CHARACTERISTIC_UUID = "13333333-3333-3333-3333-333333333302";
+	private static final String DEVICE = "/org/bluez/hci0/dev_00_00_00_00_00_01";
+	private static final String OTHER_DEVICE = "/org/bluez/hci0/dev_00_00_00_00_00_02";
+	private static final int MTU = 23;
+	private static final BleApplicationListener NO_DEVICES = new BleApplicationListener() {
+		@Override
+		public void deviceConnected(String path, String address) {
+		}
+
+		@Override
+		public void deviceDisconnected(String path) {
+		}
+	};
+
+	private int failures = 0;
+
+	public void run() throws Exception {
+		checkLongReads();
+		checkWriteReassembly();
+		checkLatencyHistogram();
+		checkAdvertisementPayload();
+		checkTreeMutation();
+	}
+
+	/**
+	 * The reads at the following offsets come from the value read at offset 0, until the last chunk or the timeout.
+	 */
+	private void checkLongReads() throws Exception {
+		RecordingListener listener = new RecordingListener();
+		BleCharacteristic characteristic = createCharacteristic(new BleApplication("/componentcheck", NO_DEVICES), listener);
+		byte[] first = sequence(100, 0);
+		listener.value = first;
+
+		check("the first chunk is read from the listener",
+				Arrays.equals(first, characteristic.ReadValue(FakeBluez.options(DEVICE, 0, MTU, null)))
+						&& listener.reads.get() == 1);
+		listener.value = sequence(100, 1);
+		byte[] chunk = characteristic.ReadValue(FakeBluez.options(DEVICE, 22, MTU, null));
+		check("the next chunk comes from the same value",
+				Arrays.equals(Arrays.copyOfRange(first, 22, 100), chunk) && listener.reads.get() == 1);
+		check("another device reads the listener",
+				Arrays.equals(Arrays.copyOfRange(listener.value, 22, 100),
+						characteristic.ReadValue(FakeBluez.options(OTHER_DEVICE, 22, MTU, null)))
+						&& listener.reads.get() == 2);
+
+		boolean refused = false;
+		try {
+			characteristic.ReadValue(FakeBluez.options(DEVICE, 101, MTU, null));
+		} catch (Error.InvalidOffset e) {
+			refused = true;
+		}
+		check("an offset beyond the value is refused", refused);
+
+		characteristic.setLongReadTimeout(200, TimeUnit.MILLISECONDS);
+		listener.value = first;
+		characteristic.ReadValue(FakeBluez.options(DEVICE, 0, MTU, null));
+		listener.value = sequence(100, 2);
+		Thread.sleep(400);
+		int reads = listener.reads.get();
+		check("the value expires after the timeout",
+				Arrays.equals(Arrays.copyOfRange(listener.value, 44, 100),
+						characteristic.ReadValue(FakeBluez.options(DEVICE, 44, MTU, null)))
+						&& listener.reads.get() == reads + 1);
+
+		listener.value = first;
+		listener.delay = 300;
+		characteristic.ReadValue(FakeBluez.options(DEVICE, 0, MTU, null));
+		listener.delay = 0;
+		reads = listener.reads.get();
+		check("the timeout runs from the end of a slow read",
+				Arrays.equals(Arrays.copyOfRange(first, 22, 100),
+						characteristic.ReadValue(FakeBluez.options(DEVICE, 22, MTU, null)))
+						&& listener.reads.get() == reads);
+	}
+
+	/**
+	 * The prepared writes reach the listener within their WriteValue call: a long write joined by BlueZ at once,
+	 * the pieces at the following offsets joined to the value before them, within the application's reassembly memory.
+	 */
+	private void checkWriteReassembly() throws Exception {
+		RecordingListener listener = new RecordingListener();
+		BleApplication app = new BleApplication("/componentcheck", NO_DEVICES);
+		// one value kept for its next piece at a time
+		app.setMaxReassemblyMemory(512);
+		BleCharacteristic characteristic = createCharacteristic(app, listener);
+		characteristic.enableWriteReassembly(200, TimeUnit.MILLISECONDS, 512);
+		byte[] value = sequence(41, 0);
+
+		// BlueZ joins the Prepare Write fragments of a long write, longer than the 18 bytes one carries at this MTU
+		byte[] longValue = sequence(100, 0);
+		writeFragment(characteristic, DEVICE, longValue, 0, longValue.length, MTU);
+		check("a long write joined by BlueZ is delivered at once", listener.writes.size() == 1
+				&& listener.writes.get(0).offset == 0 && Arrays.equals(longValue, listener.writes.get(0).value));
+		listener.failure = new Error.Failed("rejected");
+		boolean rejected = false;
+		try {
+			writeFragment(characteristic, DEVICE, longValue, 0, longValue.length, MTU);
+		} catch (Error.Failed e) {
+			rejected = true;
+		}
+		listener.failure = null;
+		check("the listener's error on a long write reaches the central", rejected);
+
+		listener.writes.clear();
+		writeFragment(characteristic, DEVICE, value, 0, 18, MTU);
+		writeFragment(characteristic, DEVICE, value, 18, 18, MTU);
+		writeFragment(characteristic, DEVICE, value, 36, 5, MTU);
+		check("the pieces at the following offsets are delivered joined", listener.writes.size() == 3
+				&& Arrays.equals(Arrays.copyOf(value, 18), listener.writes.get(0).value)
+				&& Arrays.equals(Arrays.copyOf(value, 36), listener.writes.get(1).value)
+				&& listener.writes.get(2).offset == 0 && Arrays.equals(value, listener.writes.get(2).value));
+
+		listener.writes.clear();
+		writeFragment(characteristic, DEVICE, value, 0, 18, MTU);
+		boolean refused = false;
+		try {
+			writeFragment(characteristic, DEVICE, value, 30, 11, MTU);
+		} catch (Error.InvalidOffset e) {
+			refused = true;
+		}
+		check("a piece out of order is refused", refused && listener.writes.size() == 1);
+
+		listener.writes.clear();
+		writeFragment(characteristic, DEVICE, value, 0, 18, MTU);
+		writeFragment(characteristic, OTHER_DEVICE, value, 0, 18, MTU);
+		refused = false;
+		try {
+			writeFragment(characteristic, OTHER_DEVICE, value, 18, 5, MTU);
+		} catch (Error.InvalidOffset e) {
+			refused = true;
+		}
+		writeFragment(characteristic, DEVICE, value, 18, 5, MTU);
+		check("beyond the reassembly memory a value is delivered and its next piece refused", refused
+				&& listener.writes.size() == 3 && Arrays.equals(Arrays.copyOf(value, 18), listener.writes.get(1).value)
+				&& Arrays.equals(Arrays.copyOf(value, 23), listener.writes.get(2).value));
+
+		Thread.sleep(400);
+		listener.writes.clear();
+		writeFragment(characteristic, OTHER_DEVICE, value, 0, 18, MTU);
+		writeFragment(characteristic, OTHER_DEVICE, value, 18, 5, MTU);
+		check("the memory of an idle value is given back", listener.writes.size() == 2
+				&& Arrays.equals(Arrays.copyOf(value, 23), listener.writes.get(1).value));
+
+		listener.writes.clear();
+		characteristic.WriteValue(Arrays.copyOf(value, 10), FakeBluez.options(DEVICE, 4, MTU, "request"));
+		check("a write request is delivered at once", listener.writes.size() == 1 && listener.writes.get(0).offset == 4);
+	}
+
+	/**
+	 * A percentile is within 25% of the true value, whatever the magnitude.
+	 */
+	private void checkLatencyHistogram() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		check("an empty histogram reads 0", histogram.getPercentile(50, TimeUnit.NANOSECONDS) == 0
+				&& histogram.getMax(TimeUnit.NANOSECONDS) == 0 && histogram.getMean(TimeUnit.NANOSECONDS) == 0);
+
+		boolean exact = true;
+		for (long value = 0; value < 4; value++) {
+			histogram.reset();
+			histogram.record(value);
+			exact &= histogram.getPercentile(100, TimeUnit.NANOSECONDS) == value;
+		}
+		check("the values below 4 are exact", exact);
+
+		boolean bounded = true;
+		for (int shift = 2; shift < 63; shift++) {
+			for (long value : new long[] {(1L << shift) - 1, 1L << shift, (1L << shift) + 1, (3L << shift) / 2}) {
+				if (value < 0) {
+					value = Long.MAX_VALUE;
+				}
+				histogram.reset();
+				histogram.record(value);
+				long percentile = histogram.getPercentile(100, TimeUnit.NANOSECONDS);
+				bounded &= percentile <= value && percentile >= value - value / 4;
+			}
+		}
+		check("a single value is read back within 25% up to Long.MAX_VALUE", bounded);
+
+		histogram.reset();
+		for (long value = 1; value <= 100000; value++) {
+			histogram.record(value);
+		}
+		long p50 = histogram.getPercentile(50, TimeUnit.NANOSECONDS);
+		long p99 = histogram.getPercentile(99, TimeUnit.NANOSECONDS);
+		check("the percentiles of a distribution are within 25%", Math.abs(p50 - 50000) <= 50000 / 4
+				&& Math.abs(p99 - 99000) <= 99000 / 4 && histogram.getMax(TimeUnit.NANOSECONDS) == 100000
+				&& histogram.getMean(TimeUnit.NANOSECONDS) == 50000 && histogram.getCount() == 100000);
+
+		histogram.reset();
+		histogram.record(-5);
+		check("a negative value is counted as 0", histogram.getCount() == 1
+				&& histogram.getPercentile(50, TimeUnit.NANOSECONDS) == 0);
+	}
+
+	/**
+	 * The advertising data is counted as BlueZ builds it: a length and a type byte per AD structure, and the UUIDs
+	 * in their 16, 32 or 128 bits forms.
+	 */
+	private void checkAdvertisementPayload() {
+		BleAdvertisement advertisement = new BleAdvertisement(BleAdvertisement.ADVERTISEMENT_TYPE_BROADCAST, "/componentcheck/advertisement0");
+		check("an empty broadcast has its TX power", advertisement.getPayloadSize() == 3);
+		advertisement.setIncludeTxPower(false);
+		check("an empty broadcast without TX power has no data", advertisement.getPayloadSize() == 0);
+		advertisement.addService(service("180d"));
+		advertisement.addService(service("0000180f-0000-1000-8000-00805f9b34fb"));
+		check("the 16 bits UUIDs share an AD structure", advertisement.getPayloadSize() == 2 + 2 * 2);
+		advertisement.addService(service("1234abcd"));
+		check("a 32 bits UUID takes 4 bytes in its own AD structure", advertisement.getPayloadSize() == 6 + 2 + 4);
+		advertisement.addService(service(SERVICE_UUID));
+		check("a 128 bits UUID takes 16 bytes in its own AD structure", advertisement.getPayloadSize() == 12 + 2 + 16);
+
+		advertisement = new BleAdvertisement(BleAdvertisement.ADVERTISEMENT_TYPE_PERIPHERAL, "/componentcheck/advertisement1");
+		advertisement.setIncludeTxPower(false);
+		advertisement.addService(service(SERVICE_UUID));
+		advertisement.setServiceData("0x1234abcd", new byte[2]);
+		check("a peripheral has flags and the service data has its UUID", advertisement.getPayloadSize() == 3 + 18 + 2 + 4 + 2);
+		// 31 bytes, the legacy max
+		advertisement.setServiceData("0x1234abcd", new byte[4]);
+		boolean refused = false;
+		try {
+			advertisement.setManufacturerData(0xffff, new byte[0]);
+		} catch (IllegalArgumentException e) {
+			refused = true;
+		}
+		check("data beyond the max payload is refused and not kept", refused && advertisement.getPayloadSize() == 31);
+		advertisement.setMaxPayloadSize(BleAdvertisement.EXTENDED_MAX_PAYLOAD);
+		advertisement.setManufacturerData(0xffff, new byte[0]);
+		check("the extended max payload takes more data", advertisement.getPayloadSize() == 31 + 4);
+	}
+
+	/**
+	 * A batch is checked against the tree before its first change: a batch exporting two objects at one path is
+	 * refused whole.
+	 */
+	private void checkTreeMutation() {
+		BleApplication app = new BleApplication("/componentcheck", NO_DEVICES);
+		BleCharacteristic characteristic = createCharacteristic(app, new RecordingListener());
+		BleService service = characteristic.getService();
+		BleService other = service("180d");
+		BleCharacteristic taken = new BleCharacteristic("/componentcheck/s/c", other,
+				Arrays.asList(CharacteristicFlag.READ), CHARACTERISTIC_UUID, new RecordingListener());
+		boolean refused = false;
+		try {
+			app.newMutation().addService(other).addCharacteristic(other, taken).apply();
+		} catch (IllegalArgumentException e) {
+			refused = true;
+		}
+		check("a batch taking a path twice is refused with nothing changed", refused
+				&& app.getServicesList().size() == 1 && other.getCharacteristics().isEmpty());
+		app.newMutation().removeCharacteristic(service, characteristic).addService(other)
+				.addCharacteristic(other, taken).apply();
+		check("a path given back earlier in the batch is taken again", app.getServicesList().size() == 2
+				&& service.getCharacteristics().isEmpty() && other.getCharacteristics().contains(taken));
+	}
+
+	private static BleService service(String uuid) {
+		return new BleService("/componentcheck/s" + uuid.substring(0, 4), uuid, true);
+	}
+
+	private static void writeFragment(BleCharacteristic characteristic, String devicePath, byte[] value, int offset,
+			int length, int mtu) {
+		characteristic.WriteValue(Arrays.copyOfRange(value, offset, offset + length),
+				FakeBluez.options(devicePath, offset, mtu, "reliable"));
+	}
+
+	/**
+	 * The listener of the characteristic under check: it counts the reads and records the writes.
+	 */
+	private static final class RecordingListener implements BleCharacteristicListener {
+		final AtomicInteger reads = new AtomicInteger();
+		final List<Write> writes = new CopyOnWriteArrayList<Write>();
+		volatile byte[] value = new byte[0];
+		// milliseconds each read takes
+		volatile long delay = 0;
+		// thrown by the writes
+		volatile RuntimeException failure;
+
+		@Override
+		public byte[] getValue(String devicePath) {
+			reads.incrementAndGet();
+			if (delay > 0) {
+				try {
+					Thread.sleep(delay);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+			return value;
+		}
+
+		@Override
+		public void setValue(String devicePath, int offset, byte[] value) {
+			if (failure != null) {
+				throw failure;
+			}
+			writes.add(new Write(offset, value));
+		}
+	}
+
+	private static final class Write {
+		final int offset;
+		final byte[] value;
+
+		Write(int offset, byte[] value) {
+			this.offset = offset;
+			this.value = value;
+		}
+	}
+
+	private static BleCharacteristic createCharacteristic(BleApplication app, BleCharacteristicListener listener) {
+		BleService service = new BleService("/componentcheck/s", SERVICE_UUID, true);
+		BleCharacteristic characteristic = new BleCharacteristic("/componentcheck/s/c", service,
+				Arrays.asList(CharacteristicFlag.READ, CharacteristicFlag.WRITE), CHARACTERISTIC_UUID, listener);
+		service.addCharacteristic(characteristic);
+		app.addService(service);
+		return characteristic;
+	}
+
+	/**
+	 * @return length bytes counting from start
+	 */
+	private static byte[] sequence(int length, int start) {
+		byte[] value = new byte[length];
+		for (int i = 0; i < length; i++) {
+			value[i] = (byte) (start + i);
+		}
+		return value;
+	}
+
+	private void check(String name, boolean passed) {
+		System.out.println((passed ? "PASS " : "FAIL ") + name);
+		if (!passed) {
+			failures++;
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		ComponentCheck check = new ComponentCheck();
+		check.run();
+		System.out.println(check.failures == 0 ? "All checks passed" : check.failures + " checks failed");
+		System.exit(check.failures == 0 ? 0 : 1);
+	}
+}
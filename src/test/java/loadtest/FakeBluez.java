@@ -0,0 +1,420 @@
+package loadtest;
+
+import org.bluez.GattCharacteristic1;
+import org.dbus.InterfacesAddedSignal.InterfacesAdded;
+import org.dbus.InterfacesRomovedSignal.InterfacesRemoved;
+import org.dbus.ObjectManager;
+import org.dbus.PropertiesChangedSignal.PropertiesChanged;
+import org.freedesktop.DBus.Properties;
+import org.freedesktop.dbus.AbstractConnection;
+import org.freedesktop.dbus.DBusConnection;
+import org.freedesktop.dbus.DBusInterface;
+import org.freedesktop.dbus.DBusInterfaceName;
+import org.freedesktop.dbus.DBusSigHandler;
+import org.freedesktop.dbus.Path;
+import org.freedesktop.dbus.UInt16;
+import org.freedesktop.dbus.Variant;
+import org.freedesktop.dbus.exceptions.DBusException;
+import org.freedesktop.dbus.exceptions.DBusExecutionException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A stand-in of bluetoothd, owning org.bluez on a private bus. It exports one adapter with Adapter1, GattManager1
+ * and LEAdvertisingManager1, and sends the ObjectManager signals from /. It reads the registered application's
+ * objects like BlueZ does, and simulates the centrals: connections, ReadValue, WriteValue, StartNotify, StopNotify.
+ * While discovering it also signals the advertisements of simulated beacons.
+ */
+public class FakeBluez implements AutoCloseable {
+	public static final String BLUEZ_DBUS_BUSNAME = "org.bluez";
+	public static final String ADAPTER_INTERFACE = "org.bluez.Adapter1";
+	public static final String ADV_MANAGER_INTERFACE = "org.bluez.LEAdvertisingManager1";
+	public static final String DEVICE_INTERFACE = "org.bluez.Device1";
+	public static final String CHARACTERISTIC_INTERFACE = "org.bluez.GattCharacteristic1";
+	public static final String ADVERTISEMENT_INTERFACE = "org.bluez.LEAdvertisement1";
+	public static final int SUPPORTED_INSTANCES = 5;
+
+	@DBusInterfaceName("org.bluez.Adapter1")
+	public interface Adapter extends DBusInterface {
+		void StartDiscovery();
+		void SetDiscoveryFilter(Map<String, Variant> properties);
+		void StopDiscovery();
+		void RemoveDevice(Path device);
+	}
+
+	@DBusInterfaceName("org.bluez.GattManager1")
+	public interface GattManager extends DBusInterface {
+		void RegisterApplication(Path application, Map<String, Variant> options);
+		void UnregisterApplication(Path application);
+	}
+
+	@DBusInterfaceName("org.bluez.LEAdvertisingManager1")
+	public interface LEAdvertisingManager extends DBusInterface {
+		void RegisterAdvertisement(Path advertisement, Map<String, Variant> options);
+		void UnregisterAdvertisement(Path advertisement);
+	}
+
+	private final PrivateDBusDaemon daemon;
+	private final DBusConnection connection;
+	private final List<DBusConnection> centralConnections = new CopyOnWriteArrayList<DBusConnection>();
+	private final String adapterPath;
+	private final FakeAdapter adapter;
+	private final Map<Path, Map<String, Map<String, Variant>>> devices = new ConcurrentHashMap<Path, Map<String, Map<String, Variant>>>();
+
+	private volatile String applicationBusName;
+	private final List<String> characteristicPaths = new CopyOnWriteArrayList<String>();
+	private final List<String> advertisements = new CopyOnWriteArrayList<String>();
+	private final AtomicLong notificationsReceived = new AtomicLong();
+	private final AtomicLong advertisementUpdates = new AtomicLong();
+	private final AtomicLong removedDevices = new AtomicLong();
+	private final AtomicInteger removeDeviceFailures = new AtomicInteger();
+	private volatile boolean discovering = false;
+	private volatile Map<String, Variant> discoveryFilter = Collections.emptyMap();
+	private volatile long registrationDelay = 0;
+	private volatile int supportedInstances = SUPPORTED_INSTANCES;
+	private DBusSigHandler<PropertiesChanged> notificationHandler;
+
+	public FakeBluez(PrivateDBusDaemon daemon, String adapterName, String address) throws DBusException {
+		this.daemon = daemon;
+		this.connection = DBusConnection.getConnection(daemon.getAddress("bluetoothd"));
+		this.adapterPath = "/org/bluez/" + adapterName;
+		this.adapter = new FakeAdapter(adapterName, address);
+		connection.requestBusName(BLUEZ_DBUS_BUSNAME);
+		connection.exportObject(adapterPath, adapter);
+	}
+
+	public String getAdapterPath() {
+		return adapterPath;
+	}
+
+	public List<String> getCharacteristicPaths() {
+		return characteristicPaths;
+	}
+
+	public List<String> getAdvertisements() {
+		return advertisements;
+	}
+
+	public boolean isApplicationRegistered() {
+		return applicationBusName != null;
+	}
+
+	public long getNotificationsReceived() {
+		return notificationsReceived.get();
+	}
+
+	public long getAdvertisementUpdates() {
+		return advertisementUpdates.get();
+	}
+
+	/**
+	 * @return the device objects under the adapter
+	 */
+	public int getDeviceCount() {
+		return devices.size();
+	}
+
+	public long getRemovedDevices() {
+		return removedDevices.get();
+	}
+
+	/**
+	 * Reply to RegisterApplication after this delay, like a busy bluetoothd.
+	 */
+	public void setRegistrationDelay(long millis) {
+		this.registrationDelay = millis;
+	}
+
+	/**
+	 * The next RemoveDevice calls fail with org.bluez.Error.Failed and keep the device, like a busy bluetoothd.
+	 */
+	public void setRemoveDeviceFailures(int failures) {
+		removeDeviceFailures.set(failures);
+	}
+
+	/**
+	 * The advertisements the controller can run at once, SUPPORTED_INSTANCES by default.
+	 */
+	public void setSupportedInstances(int instances) {
+		this.supportedInstances = instances;
+	}
+
+	public boolean isDiscovering() {
+		return discovering;
+	}
+
+	public Map<String, Variant> getDiscoveryFilter() {
+		return discoveryFilter;
+	}
+
+	/**
+	 * A beacon advertises, signaled only while discovering: InterfacesAdded with its data on the first
+	 * advertisement, then PropertiesChanged of the RSSI and the data as with DuplicateData.
+	 * @return false if the adapter is not discovering
+	 */
+	public boolean advertise(int index, int manufacturerId, byte[] data, int rssi) throws DBusException {
+		if (!discovering) {
+			return false;
+		}
+		String address = String.format("C0:BE:AC:%02X:%02X:%02X", (index >> 16) & 0xff, (index >> 8) & 0xff, index & 0xff);
+		Path devicePath = new Path(adapterPath + "/dev_" + address.replace(':', '_'));
+		Map<String, Variant> properties = new HashMap<String, Variant>();
+		properties.put("RSSI", new Variant<Short>((short) rssi));
+		Map<UInt16, Variant> manufacturerData = Collections.<UInt16, Variant>singletonMap(new UInt16(manufacturerId), new Variant<byte[]>(data));
+		properties.put("ManufacturerData", new Variant<Map<UInt16, Variant>>(manufacturerData, "a{qv}"));
+		if (!devices.containsKey(devicePath)) {
+			properties.put("Address", new Variant<String>(address));
+			properties.put("Adapter", new Variant<Path>(new Path(adapterPath)));
+			properties.put("Connected", new Variant<Boolean>(false));
+			properties.put("Paired", new Variant<Boolean>(false));
+			Map<String, Map<String, Variant>> interfaces = Collections.singletonMap(DEVICE_INTERFACE, properties);
+			devices.put(devicePath, interfaces);
+			connection.sendSignal(new InterfacesAdded("/", devicePath, interfaces));
+		} else {
+			connection.sendSignal(new PropertiesChanged(devicePath.getPath(), DEVICE_INTERFACE, properties, Collections.<String>emptyList()));
+		}
+		return true;
+	}
+
+	/**
+	 * The device connects, on its first connection it is discovered before: InterfacesAdded with Connected false.
+	 * It is kept by the adapter after the disconnection, until RemoveDevice.
+	 */
+	public String connect(int index) throws DBusException {
+		String address = String.format("00:11:22:%02X:%02X:%02X", (index >> 16) & 0xff, (index >> 8) & 0xff, index & 0xff);
+		Path devicePath = new Path(adapterPath + "/dev_" + address.replace(':', '_'));
+		if (!devices.containsKey(devicePath)) {
+			Map<String, Variant> properties = new HashMap<String, Variant>();
+			properties.put("Address", new Variant<String>(address));
+			properties.put("Adapter", new Variant<Path>(new Path(adapterPath)));
+			properties.put("Connected", new Variant<Boolean>(false));
+			properties.put("Paired", new Variant<Boolean>(false));
+			Map<String, Map<String, Variant>> interfaces = Collections.singletonMap(DEVICE_INTERFACE, properties);
+			devices.put(devicePath, interfaces);
+			connection.sendSignal(new InterfacesAdded("/", devicePath, interfaces));
+		}
+		connection.sendSignal(new PropertiesChanged(devicePath.getPath(), DEVICE_INTERFACE,
+				Collections.<String, Variant>singletonMap("Connected", new Variant<Boolean>(true)), Collections.<String>emptyList()));
+		return devicePath.getPath();
+	}
+
+	public void disconnect(String devicePath) throws DBusException {
+		connection.sendSignal(new PropertiesChanged(devicePath, DEVICE_INTERFACE,
+				Collections.<String, Variant>singletonMap("Connected", new Variant<Boolean>(false)), Collections.<String>emptyList()));
+	}
+
+	/**
+	 * The characteristics as the central reaches them through bluetoothd. Each central calls through its own
+	 * connection: dbus-java loses replies when many threads call through one connection, while bluetoothd
+	 * serves the centrals independently.
+	 */
+	public List<GattCharacteristic1> getCharacteristics(int central) throws DBusException {
+		DBusConnection centralConnection = DBusConnection.getConnection(daemon.getAddress("central" + central));
+		centralConnections.add(centralConnection);
+		List<GattCharacteristic1> characteristics = new ArrayList<GattCharacteristic1>();
+		for (String path : characteristicPaths) {
+			characteristics.add(centralConnection.getRemoteObject(applicationBusName, path, GattCharacteristic1.class));
+		}
+		return characteristics;
+	}
+
+	/**
+	 * The options bluetoothd passes to ReadValue and WriteValue.
+	 * @param type "request", "command" or null for a read
+	 */
+	public static Map<String, Variant> options(String devicePath, int offset, int mtu, String type) {
+		Map<String, Variant> options = new HashMap<String, Variant>();
+		options.put("device", new Variant<Path>(new Path(devicePath)));
+		options.put("link", new Variant<String>("LE"));
+		options.put("mtu", new Variant<UInt16>(new UInt16(mtu)));
+		if (offset > 0) {
+			options.put("offset", new Variant<UInt16>(new UInt16(offset)));
+		}
+		if (type != null) {
+			options.put("type", new Variant<String>(type));
+		}
+		return options;
+	}
+
+	@Override
+	public void close() {
+		try {
+			if (notificationHandler != null) {
+				connection.removeSigHandler(PropertiesChanged.class, notificationHandler);
+			}
+		} catch (DBusException e) {
+			// closing anyway
+		}
+		for (DBusConnection centralConnection : centralConnections) {
+			centralConnection.disconnect();
+		}
+		connection.disconnect();
+	}
+
+	/**
+	 * Read the application's objects as bluetoothd does at RegisterApplication, and count its notifications.
+	 */
+	private void applicationRegistered(String busName, Path application) throws DBusException {
+		ObjectManager objectManager = connection.getRemoteObject(busName, application.getPath(), ObjectManager.class);
+		List<String> characteristics = new ArrayList<String>();
+		for (Map.Entry<Path, Map<String, Map<String, Variant>>> entry : objectManager.GetManagedObjects().entrySet()) {
+			if (entry.getValue().containsKey(CHARACTERISTIC_INTERFACE)) {
+				characteristics.add(entry.getKey().getPath());
+			}
+		}
+		Collections.sort(characteristics);
+		characteristicPaths.clear();
+		characteristicPaths.addAll(characteristics);
+		notificationHandler = new DBusSigHandler<PropertiesChanged>() {
+			@Override
+			public void handle(PropertiesChanged signal) {
+				if (CHARACTERISTIC_INTERFACE.equals(signal.getIface())) {
+					notificationsReceived.incrementAndGet();
+				} else if (ADVERTISEMENT_INTERFACE.equals(signal.getIface()) && advertisements.contains(signal.getPath())) {
+					// bluetoothd refreshes the advertising data of a registered advertisement in place
+					advertisementUpdates.incrementAndGet();
+				}
+			}
+		};
+		connection.addSigHandler(PropertiesChanged.class, busName, notificationHandler);
+		applicationBusName = busName;
+	}
+
+	// No ObjectManager is exported on /: dbus-java maps the D-Bus interface of an exported object to its Java
+	// interface for the whole JVM, so the InterfacesAdded and InterfacesRemoved signals received by the application
+	// in this JVM would be looked up on org.dbus.ObjectManager and dropped. The library does not call it.
+
+	private class FakeAdapter implements Adapter, GattManager, LEAdvertisingManager, Properties {
+		private final Map<String, Variant> adapterProperties = new ConcurrentHashMap<String, Variant>();
+
+		FakeAdapter(String name, String address) {
+			adapterProperties.put("Address", new Variant<String>(address));
+			adapterProperties.put("Name", new Variant<String>(name));
+			adapterProperties.put("Alias", new Variant<String>(name));
+			adapterProperties.put("Powered", new Variant<Boolean>(false));
+		}
+
+		@Override
+		public void StartDiscovery() {
+			discovering = true;
+		}
+
+		@Override
+		public void SetDiscoveryFilter(Map<String, Variant> properties) {
+			discoveryFilter = new HashMap<String, Variant>(properties);
+		}
+
+		@Override
+		public void StopDiscovery() {
+			if (!discovering) {
+				DBusExecutionException e = new DBusExecutionException("No discovery started");
+				e.setType("org.bluez.Error.Failed");
+				throw e;
+			}
+			discovering = false;
+		}
+
+		@Override
+		public void RemoveDevice(Path device) {
+			if (removeDeviceFailures.getAndUpdate(failures -> Math.max(0, failures - 1)) > 0) {
+				DBusExecutionException e = new DBusExecutionException("Operation failed");
+				e.setType("org.bluez.Error.Failed");
+				throw e;
+			}
+			if (devices.remove(device) == null) {
+				DBusExecutionException e = new DBusExecutionException("Does Not Exist");
+				e.setType("org.bluez.Error.DoesNotExist");
+				throw e;
+			}
+			removedDevices.incrementAndGet();
+			try {
+				connection.sendSignal(new InterfacesRemoved("/", device, Collections.singletonList(DEVICE_INTERFACE)));
+			} catch (DBusException e) {
+				throw new DBusExecutionException("Unable to signal the removal: " + e.getMessage());
+			}
+		}
+
+		@Override
+		public void RegisterApplication(Path application, Map<String, Variant> options) {
+			try {
+				Thread.sleep(registrationDelay);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			try {
+				applicationRegistered(AbstractConnection.getCallInfo().getSource(), application);
+			} catch (DBusException e) {
+				throw new DBusExecutionException("Unable to read the application: " + e.getMessage());
+			}
+		}
+
+		@Override
+		public void UnregisterApplication(Path application) {
+			applicationBusName = null;
+		}
+
+		@Override
+		public void RegisterAdvertisement(Path advertisement, Map<String, Variant> options) {
+			if (advertisements.size() >= supportedInstances) {
+				DBusExecutionException e = new DBusExecutionException("Maximum advertisements reached");
+				e.setType("org.bluez.Error.NotPermitted");
+				throw e;
+			}
+			// bluetoothd reads the advertisement's properties at registration
+			String busName = AbstractConnection.getCallInfo().getSource();
+			try {
+				Properties properties = connection.getRemoteObject(busName, advertisement.getPath(), Properties.class);
+				properties.GetAll(ADVERTISEMENT_INTERFACE);
+			} catch (DBusException e) {
+				throw new DBusExecutionException("Unable to read the advertisement: " + e.getMessage());
+			}
+			advertisements.add(advertisement.getPath());
+		}
+
+		@Override
+		public void UnregisterAdvertisement(Path advertisement) {
+			advertisements.remove(advertisement.getPath());
+		}
+
+		@Override
+		@SuppressWarnings("unchecked")
+		public <A> A Get(String interfaceName, String propertyName) {
+			return (A) GetAll(interfaceName).get(propertyName);
+		}
+
+		@Override
+		public <A> void Set(String interfaceName, String propertyName, A value) {
+			adapterProperties.put(propertyName, value instanceof Variant ? (Variant) value : new Variant<A>(value));
+		}
+
+		@Override
+		public Map<String, Variant> GetAll(String interfaceName) {
+			if (ADAPTER_INTERFACE.equals(interfaceName)) {
+				return new HashMap<String, Variant>(adapterProperties);
+			}
+			if (ADV_MANAGER_INTERFACE.equals(interfaceName)) {
+				Map<String, Variant> properties = new HashMap<String, Variant>();
+				properties.put("ActiveInstances", new Variant<Byte>((byte) advertisements.size()));
+				// like bluetoothd, the instances still available
+				properties.put("SupportedInstances", new Variant<Byte>((byte) (supportedInstances - advertisements.size())));
+				return properties;
+			}
+			DBusExecutionException e = new DBusExecutionException("No such interface " + interfaceName);
+			e.setType("org.freedesktop.DBus.Error.InvalidArgs");
+			throw e;
+		}
+
+		@Override
+		public boolean isRemote() {
+			return false;
+		}
+	}
+}
@@ -0,0 +1,362 @@
+package loadtest;
+
+import it.tangodev.ble.BleApplication;
+import it.tangodev.ble.BleApplicationListener;
+import it.tangodev.ble.BleCharacteristic;
+import it.tangodev.ble.BleCharacteristic.CharacteristicFlag;
+import it.tangodev.ble.BleCharacteristicListener;
+import it.tangodev.ble.BleDeviceCache;
+import it.tangodev.ble.BleScanner;
+import it.tangodev.ble.BleService;
+import it.tangodev.ble.LatencyHistogram;
+import org.bluez.GattCharacteristic1;
+import org.freedesktop.dbus.Variant;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Capacity test of a real BleApplication without radio: the application registers on the FakeBluez of a
+ * private dbus-daemon, and N simulated centrals connect, subscribe, read, write and disconnect in a loop while
+ * the application notifies. Reports the throughput, the latency percentiles and the heap usage.
+ * With beacons, a BleScanner on the same bus receives their advertisements alongside the GATT traffic, and a
+ * BleDeviceCache smaller than the beacons keeps evicting the least recently seen ones.
+ *
+ * Arguments, all optional: centrals characteristics durationSeconds valueLength notificationsPerSecond beaconsPerSecond
+ * Exits with 1 if a call failed, the application missed a connection or a disconnection, or the device cache did
+ * not bring the devices in BlueZ down to its max once the beacons stopped.
+ */
+public class LoadGenerator {
+	private static final String SERVICE_UUID = "13333333-3333-3333-3333-333333333101";
+	private static final String CHARACTERISTIC_UUID_PREFIX = "13333333-3333-3333-3333-3333333332";
+	// the operations of a central between its connection and its disconnection
+	private static final int OPERATIONS_PER_SESSION = 200;
+	private static final int MTU = 247;
+	private static final int BEACONS = 100;
+	// a beacon changes its data every few advertisements, like a sensor value
+	private static final int ADVERTISEMENTS_PER_CHANGE = 10;
+	// the time the sweeps of the device cache get to remove the beacons over its max once they stop advertising
+	private static final int CACHE_SETTLE_SECONDS = 10;
+
+	private final int centrals;
+	private final int characteristics;
+	private final long durationMillis;
+	private final int valueLength;
+	private final int notificationsPerSecond;
+	private final int beaconsPerSecond;
+
+	private final LatencyHistogram readLatency = new LatencyHistogram();
+	private final LatencyHistogram writeLatency = new LatencyHistogram();
+	private final AtomicLong errors = new AtomicLong();
+	private final AtomicLong connections = new AtomicLong();
+	private final AtomicLong disconnections = new AtomicLong();
+	private final AtomicLong sessions = new AtomicLong();
+	private final AtomicInteger maxConnected = new AtomicInteger();
+	private final AtomicLong maxHeapUsed = new AtomicLong();
+	private final AtomicInteger maxBluezDevices = new AtomicInteger();
+	private final AtomicLong beaconAdvertisements = new AtomicLong();
+	private final AtomicLong beaconReports = new AtomicLong();
+
+	public LoadGenerator(int centrals, int characteristics, long durationMillis, int valueLength, int notificationsPerSecond,
+						 int beaconsPerSecond) {
+		this.centrals = centrals;
+		this.characteristics = characteristics;
+		this.durationMillis = durationMillis;
+		this.valueLength = valueLength;
+		this.notificationsPerSecond = notificationsPerSecond;
+		this.beaconsPerSecond = beaconsPerSecond;
+	}
+
+	/**
+	 * @return false if a call failed or the application missed a connection or a disconnection
+	 */
+	public boolean run() throws Exception {
+		try (PrivateDBusDaemon daemon = PrivateDBusDaemon.start();
+			 FakeBluez bluez = new FakeBluez(daemon, "hci0", "AA:BB:CC:DD:EE:FF")) {
+			BleApplication app = createApplication(daemon.getAddress());
+			List<BleCharacteristic> appCharacteristics = new ArrayList<BleCharacteristic>(app.getServicesList().get(0).getCharacteristics());
+			app.start();
+			System.out.println("Started in " + app.getStartupTimings() + " us, " + bluez.getCharacteristicPaths().size()
+					+ " characteristics registered, advertisements " + bluez.getAdvertisements());
+			BleScanner scanner = null;
+			BleDeviceCache deviceCache = null;
+			if (beaconsPerSecond > 0) {
+				deviceCache = new BleDeviceCache("hci0");
+				deviceCache.setBusAddress(daemon.getAddress());
+				deviceCache.setMaxDevices(BEACONS / 2);
+				deviceCache.setSweepInterval(1, TimeUnit.SECONDS);
+				deviceCache.start();
+				scanner = new BleScanner("hci0");
+				scanner.setBusAddress(daemon.getAddress());
+				scanner.addListener(report -> beaconReports.incrementAndGet());
+				scanner.start();
+			}
+
+			MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+			long gcCountBefore = gcCount();
+			long gcTimeBefore = gcTime();
+			long start = System.nanoTime();
+			long deadline = start + TimeUnit.MILLISECONDS.toNanos(durationMillis);
+
+			ExecutorService executor = Executors.newFixedThreadPool(centrals + 2);
+			executor.submit(() -> notify(appCharacteristics, deadline));
+			executor.submit(() -> advertise(bluez, deadline));
+			for (int i = 0; i < centrals; i++) {
+				int index = i;
+				executor.submit(() -> central(bluez, app, index, deadline));
+			}
+			while (System.nanoTime() - deadline < 0) {
+				maxHeapUsed.accumulateAndGet(memory.getHeapMemoryUsage().getUsed(), Math::max);
+				maxBluezDevices.accumulateAndGet(bluez.getDeviceCount(), Math::max);
+				Thread.sleep(100);
+			}
+			executor.shutdown();
+			executor.awaitTermination(30, TimeUnit.SECONDS);
+			double seconds = (System.nanoTime() - start) / 1e9;
+
+			long sent = app.getNotificationPublisher().getSentCount();
+			long dropped = app.getNotificationPublisher().getDroppedCount();
+			// let the last notifications and device signals arrive
+			Thread.sleep(500);
+			for (int i = 0; i < 20 && (connections.get() != sessions.get() || disconnections.get() != sessions.get()); i++) {
+				Thread.sleep(100);
+			}
+			// the beacons stopped, the sweeps bring the devices under the adapter down to the cap
+			long settleStart = System.nanoTime();
+			boolean capHeld = true;
+			if (deviceCache != null) {
+				while (bluez.getDeviceCount() > deviceCache.getMaxDevices()
+						&& System.nanoTime() - settleStart < TimeUnit.SECONDS.toNanos(CACHE_SETTLE_SECONDS)) {
+					Thread.sleep(100);
+				}
+				capHeld = bluez.getDeviceCount() <= deviceCache.getMaxDevices();
+			}
+			long settleMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - settleStart);
+			if (scanner != null) {
+				scanner.stop();
+				deviceCache.stop();
+			}
+			app.stop();
+
+			System.gc();
+			long operations = readLatency.getCount() + writeLatency.getCount();
+			System.out.println(String.format("%d centrals, %d characteristics, %d bytes values, %.1f s", centrals,
+					characteristics, valueLength, seconds));
+			System.out.println(String.format("throughput   %.0f ops/s (%d ops, %d errors)", operations / seconds, operations, errors.get()));
+			report("ReadValue   ", readLatency);
+			report("WriteValue  ", writeLatency);
+			System.out.println(String.format("connections  %d of %d sessions, %d disconnections, max %d connected at once",
+					connections.get(), sessions.get(), disconnections.get(), maxConnected.get()));
+			boolean signalsSeen = connections.get() == sessions.get() && disconnections.get() == sessions.get();
+			if (!signalsSeen) {
+				// the figures are meaningless if the application missed the device signals
+				System.out.println("FAILED the application did not see every connection and disconnection");
+			}
+			System.out.println(String.format("notifications %d sent, %d dropped, %d received", sent, dropped, bluez.getNotificationsReceived()));
+			System.out.println(String.format("heap         max %d MB used, %d MB after GC, %d collections in %d ms",
+					maxHeapUsed.get() >> 20, memory.getHeapMemoryUsage().getUsed() >> 20,
+					gcCount() - gcCountBefore, gcTime() - gcTimeBefore));
+			if (scanner != null) {
+				System.out.println(String.format("beacons      %d advertised, %d received, %d duplicates, %d overflows, %d delivered (%.0f/s)",
+						beaconAdvertisements.get(), scanner.getReceivedCount(), scanner.getDuplicateCount(),
+						scanner.getOverflowCount(), beaconReports.get(), beaconReports.get() / seconds));
+				report("Scan report ", scanner.getDeliveryLatency());
+				System.out.println(String.format("device cache max %d of %d beacons, %d added, %d evicted, %d failures, max %d in BlueZ while advertising, %d left %d ms after",
+						deviceCache.getMaxDevices(), BEACONS, deviceCache.getAddedCount(), deviceCache.getEvictedCount(),
+						deviceCache.getFailedCount(), maxBluezDevices.get(), bluez.getDeviceCount(), settleMillis));
+				if (!capHeld) {
+					System.out.println("FAILED the device cache did not bring the devices in BlueZ down to its max");
+				}
+			}
+			return errors.get() == 0 && signalsSeen && capHeld;
+		}
+	}
+
+	private BleApplication createApplication(String busAddress) {
+		BleApplication app = new BleApplication("/loadtest", new BleApplicationListener() {
+			@Override
+			public void deviceConnected(String path, String address) {
+				connections.incrementAndGet();
+			}
+
+			@Override
+			public void deviceDisconnected(String path) {
+				disconnections.incrementAndGet();
+			}
+		});
+		app.setBusAddress(busAddress);
+		app.setAdapterName("hci0");
+		BleService service = new BleService("/loadtest/s", SERVICE_UUID, true);
+		List<CharacteristicFlag> flags = Arrays.asList(CharacteristicFlag.READ, CharacteristicFlag.WRITE, CharacteristicFlag.NOTIFY);
+		for (int i = 0; i < characteristics; i++) {
+			byte[] initialValue = new byte[valueLength];
+			BleCharacteristic characteristic = new BleCharacteristic("/loadtest/s/c" + i, service, flags,
+					CHARACTERISTIC_UUID_PREFIX + String.format("%02d", i), new BleCharacteristicListener() {
+				private volatile byte[] value = initialValue;
+
+				@Override
+				public byte[] getValue(String devicePath) {
+					return value;
+				}
+
+				@Override
+				public void setValue(String devicePath, int offset, byte[] newValue) {
+					value = newValue;
+				}
+			});
+			service.addCharacteristic(characteristic);
+		}
+		app.addService(service);
+		return app;
+	}
+
+	private void central(FakeBluez bluez, BleApplication app, int index, long deadline) {
+		try {
+			List<GattCharacteristic1> remote = bluez.getCharacteristics(index);
+			byte[] value = new byte[valueLength];
+			ThreadLocalRandom random = ThreadLocalRandom.current();
+			while (System.nanoTime() - deadline < 0) {
+				String devicePath = bluez.connect(index);
+				sessions.incrementAndGet();
+				// the session ends with a disconnection even if a call failed, the connection counts stay comparable
+				try {
+					maxConnected.accumulateAndGet(app.getDeviceRegistry().getConnectedCount(), Math::max);
+					Map<String, Variant> readOptions = FakeBluez.options(devicePath, 0, MTU, null);
+					Map<String, Variant> writeOptions = FakeBluez.options(devicePath, 0, MTU, "request");
+					GattCharacteristic1 subscribed = remote.get(random.nextInt(remote.size()));
+					subscribed.StartNotify();
+					for (int i = 0; i < OPERATIONS_PER_SESSION && System.nanoTime() - deadline < 0; i++) {
+						GattCharacteristic1 characteristic = remote.get(random.nextInt(remote.size()));
+						long start = System.nanoTime();
+						try {
+							if (random.nextBoolean()) {
+								characteristic.ReadValue(readOptions);
+								readLatency.record(System.nanoTime() - start);
+							} else {
+								random.nextBytes(value);
+								characteristic.WriteValue(value, writeOptions);
+								writeLatency.record(System.nanoTime() - start);
+							}
+						} catch (RuntimeException e) {
+							errors.incrementAndGet();
+							System.err.println(e);
+						}
+					}
+					subscribed.StopNotify();
+				} finally {
+					bluez.disconnect(devicePath);
+				}
+			}
+		} catch (Exception e) {
+			errors.incrementAndGet();
+			e.printStackTrace();
+		}
+	}
+
+	private void notify(List<BleCharacteristic> appCharacteristics, long deadline) {
+		long periodNanos = notificationsPerSecond > 0 ? TimeUnit.SECONDS.toNanos(1) / notificationsPerSecond : 0;
+		if (periodNanos == 0) {
+			return;
+		}
+		long next = System.nanoTime();
+		while (next - deadline < 0) {
+			for (BleCharacteristic characteristic : appCharacteristics) {
+				characteristic.sendNotification(null);
+			}
+			next += periodNanos;
+			long sleep = next - System.nanoTime();
+			if (sleep > 0) {
+				try {
+					TimeUnit.NANOSECONDS.sleep(sleep);
+				} catch (InterruptedException e) {
+					return;
+				}
+			}
+		}
+	}
+
+	/**
+	 * The beacons advertise in turn at beaconsPerSecond, with an iBeacon-like manufacturer data.
+	 */
+	private void advertise(FakeBluez bluez, long deadline) {
+		long periodNanos = beaconsPerSecond > 0 ? TimeUnit.SECONDS.toNanos(1) / beaconsPerSecond : 0;
+		if (periodNanos == 0) {
+			return;
+		}
+		ThreadLocalRandom random = ThreadLocalRandom.current();
+		long next = System.nanoTime();
+		for (long n = 0; next - deadline < 0; n++) {
+			int beacon = (int) (n % BEACONS);
+			byte[] data = new byte[23];
+			data[0] = 0x02;
+			data[1] = 0x15;
+			data[2] = (byte) beacon;
+			data[22] = (byte) (n / BEACONS / ADVERTISEMENTS_PER_CHANGE);
+			try {
+				if (bluez.advertise(beacon, 0x004c, data, -40 - random.nextInt(50))) {
+					beaconAdvertisements.incrementAndGet();
+				}
+			} catch (Exception e) {
+				errors.incrementAndGet();
+				System.err.println(e);
+			}
+			next += periodNanos;
+			long sleep = next - System.nanoTime();
+			if (sleep > 0) {
+				try {
+					TimeUnit.NANOSECONDS.sleep(sleep);
+				} catch (InterruptedException e) {
+					return;
+				}
+			}
+		}
+	}
+
+	private static void report(String name, LatencyHistogram histogram) {
+		System.out.println(String.format("%s %d calls, p50 %d us, p99 %d us, p99.9 %d us, max %d us", name,
+				histogram.getCount(),
+				histogram.getPercentile(50, TimeUnit.MICROSECONDS),
+				histogram.getPercentile(99, TimeUnit.MICROSECONDS),
+				histogram.getPercentile(99.9, TimeUnit.MICROSECONDS),
+				histogram.getMax(TimeUnit.MICROSECONDS)));
+	}
+
+	private static long gcCount() {
+		long count = 0;
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+			count += Math.max(gc.getCollectionCount(), 0);
+		}
+		return count;
+	}
+
+	private static long gcTime() {
+		long time = 0;
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+			time += Math.max(gc.getCollectionTime(), 0);
+		}
+		return time;
+	}
+
+	public static void main(String[] args) throws Exception {
+		int centrals = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+		int characteristics = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+		int durationSeconds = args.length > 2 ? Integer.parseInt(args[2]) : 30;
+		int valueLength = args.length > 3 ? Integer.parseInt(args[3]) : 20;
+		int notificationsPerSecond = args.length > 4 ? Integer.parseInt(args[4]) : 10;
+		int beaconsPerSecond = args.length > 5 ? Integer.parseInt(args[5]) : 0;
+		boolean passed = new LoadGenerator(centrals, characteristics, TimeUnit.SECONDS.toMillis(durationSeconds), valueLength,
+				notificationsPerSecond, beaconsPerSecond).run();
+		System.exit(passed ? 0 : 1);
+	}
+}
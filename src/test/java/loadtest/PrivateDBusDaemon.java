@@ -0,0 +1,105 @@
+package loadtest;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A dbus-daemon started for the test, listening on localhost TCP: dbus-java reaches it without the native
+ * unix socket library and nothing of the system bus is touched. It can listen on a unix socket instead, like the
+ * system bus, when the library is available.
+ */
+public class PrivateDBusDaemon implements AutoCloseable {
+	private static final String CONFIG = "<!DOCTYPE busconfig PUBLIC \"-//freedesktop//DTD D-Bus Bus Configuration 1.0//EN\"\n"
+			+ " \"http://www.freedesktop.org/standards/dbus/1.0/busconfig.dtd\">\n"
+			+ "<busconfig>\n"
+			+ "  <type>session</type>\n"
+			+ "  <listen>%s</listen>\n"
+			+ "  <auth>%s</auth>\n"
+			+ "  <policy context=\"default\">\n"
+			+ "    <allow send_destination=\"*\" eavesdrop=\"true\"/>\n"
+			+ "    <allow eavesdrop=\"true\"/>\n"
+			+ "    <allow own=\"*\"/>\n"
+			+ "  </policy>\n"
+			+ "</busconfig>\n";
+
+	private final Process process;
+	private final File configFile;
+	private final String address;
+
+	private PrivateDBusDaemon(Process process, File configFile, String address) {
+		this.process = process;
+		this.configFile = configFile;
+		this.address = address;
+	}
+
+	public static PrivateDBusDaemon start() throws IOException {
+		return start("tcp:host=localhost,bind=127.0.0.1,port=0", "DBUS_COOKIE_SHA1");
+	}
+
+	/**
+	 * A daemon on a unix socket of the temporary directory, its address is a unix:path one.
+	 */
+	public static PrivateDBusDaemon startOnUnixSocket() throws IOException {
+		return start("unix:dir=" + System.getProperty("java.io.tmpdir"), "EXTERNAL");
+	}
+
+	/**
+	 * @return true if dbus-java can reach a unix socket: its native library is on java.library.path
+	 */
+	public static boolean isUnixSocketAvailable() {
+		try {
+			System.loadLibrary("unix-java");
+			return true;
+		} catch (UnsatisfiedLinkError e) {
+			return false;
+		}
+	}
+
+	private static PrivateDBusDaemon start(String listen, String auth) throws IOException {
+		File configFile = File.createTempFile("ble-java-bus", ".conf");
+		try (FileOutputStream out = new FileOutputStream(configFile)) {
+			out.write(String.format(CONFIG, listen, auth).getBytes(StandardCharsets.UTF_8));
+		}
+		Process process = new ProcessBuilder("dbus-daemon", "--config-file=" + configFile.getAbsolutePath(),
+				"--print-address", "--nofork")
+				.redirectError(ProcessBuilder.Redirect.INHERIT)
+				.start();
+		BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8));
+		String address = reader.readLine();
+		if (address == null) {
+			process.destroy();
+			configFile.delete();
+			throw new IOException("dbus-daemon did not print its address");
+		}
+		return new PrivateDBusDaemon(process, configFile, address.trim());
+	}
+
+	public String getAddress() {
+		return address;
+	}
+
+	/**
+	 * dbus-java shares one connection per address string, an address with an extra parameter gives its own
+	 * connection, as a client in another process would have.
+	 * @param client a name of the client, ignored by the daemon
+	 */
+	public String getAddress(String client) {
+		return address + ",client=" + client;
+	}
+
+	@Override
+	public void close() {
+		process.destroy();
+		try {
+			process.waitFor(5, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		configFile.delete();
+	}
+}
@@ -0,0 +1,268 @@
+package loadtest;
+
+import it.tangodev.ble.BleAdvertisement;
+import it.tangodev.ble.BleAdvertisementScheduler;
+import it.tangodev.ble.BleApplication;
+import it.tangodev.ble.BleApplicationListener;
+import it.tangodev.ble.BleCharacteristic;
+import it.tangodev.ble.BleCharacteristic.CharacteristicFlag;
+import it.tangodev.ble.BleCharacteristicListener;
+import it.tangodev.ble.BleDeviceCache;
+import it.tangodev.ble.BleScanner;
+import it.tangodev.ble.BleService;
+import org.freedesktop.DBus;
+import org.freedesktop.dbus.DBusConnection;
+import org.freedesktop.dbus.exceptions.DBusException;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Checks of BleApplication.start() and stop(), and of the BleDeviceCache, against the FakeBluez of a private
+ * dbus-daemon, no Bluetooth adapter is needed. The private connections of the BleScanner and the BleDeviceCache
+ * are also checked on a unix socket when libunix-java is on java.library.path. Exits with 1 if a check fails.
+ */
+public class StartCheck {
+	private static final String SERVICE_UUID = "13333333-3333-3333-3333-333333333201";
+	private static final String CHARACTERISTIC_UUID = "13333333-3333-3333-3333-333333333202";
+	private static final String LATE_SERVICE_UUID = "13333333-3333-3333-3333-333333333203";
+	private static final String LATE_CHARACTERISTIC_UUID = "13333333-3333-3333-3333-333333333204";
+
+	private int failures = 0;
+
+	public void run() throws Exception {
+		try (PrivateDBusDaemon daemon = PrivateDBusDaemon.start();
+			 FakeBluez bluez = new FakeBluez(daemon, "hci0", "AA:BB:CC:DD:EE:FF")) {
+			checkAbortedStart(daemon, bluez);
+			checkServiceAddedDuringRegistration(daemon, bluez);
+			checkFreeAdvertisingSlot(daemon, bluez);
+			checkDeviceCacheRetry(daemon, bluez);
+		}
+		if (PrivateDBusDaemon.isUnixSocketAvailable()) {
+			try (PrivateDBusDaemon daemon = PrivateDBusDaemon.startOnUnixSocket();
+				 FakeBluez bluez = new FakeBluez(daemon, "hci0", "AA:BB:CC:DD:EE:FF")) {
+				checkPrivateConnections(daemon, bluez);
+			}
+		} else {
+			System.out.println("SKIP the checks on a unix socket, libunix-java is not on java.library.path");
+		}
+	}
+
+	/**
+	 * BlueZ acknowledges the advertisement but not the application in time: start() fails and withdraws the
+	 * advertisement, and the application can be started again.
+	 */
+	private void checkAbortedStart(PrivateDBusDaemon daemon, FakeBluez bluez) throws Exception {
+		BleApplication app = createApplication(daemon.getAddress());
+		app.setRegistrationTimeout(300, TimeUnit.MILLISECONDS);
+		bluez.setRegistrationDelay(1000);
+		boolean failed = false;
+		try {
+			app.start();
+		} catch (DBusException e) {
+			failed = true;
+		}
+		check("start fails after the registration timeout", failed);
+		check("the acknowledged advertisement is withdrawn", bluez.getAdvertisements().isEmpty());
+		// the late RegisterApplication finds the application gone
+		Thread.sleep(1500);
+		check("the late application registration is not kept", !bluez.isApplicationRegistered());
+
+		bluez.setRegistrationDelay(0);
+		app.start();
+		check("the application starts again", bluez.isApplicationRegistered() && bluez.getAdvertisements().size() == 1);
+		app.stop();
+	}
+
+	/**
+	 * A service is added once the objects are exported, while BlueZ has not acknowledged the registration yet:
+	 * it is exported, and bluetoothd reads it from the application.
+	 */
+	private void checkServiceAddedDuringRegistration(PrivateDBusDaemon daemon, FakeBluez bluez) throws Exception {
+		BleApplication app = createApplication(daemon.getAddress());
+		bluez.setRegistrationDelay(500);
+		AtomicReference<Exception> startError = new AtomicReference<Exception>();
+		Thread starter = new Thread(() -> {
+			try {
+				app.start();
+			} catch (Exception e) {
+				startError.set(e);
+			}
+		});
+		starter.start();
+		// the advertisement is registered after the export, the application still waits for BlueZ
+		for (int i = 0; i < 20 && bluez.getAdvertisements().isEmpty(); i++) {
+			Thread.sleep(25);
+		}
+		BleService service = new BleService("/startcheck/late", LATE_SERVICE_UUID, true);
+		service.addCharacteristic(new BleCharacteristic("/startcheck/late/c", service,
+				Arrays.asList(CharacteristicFlag.READ), LATE_CHARACTERISTIC_UUID, new BleCharacteristicListener() {
+					@Override
+					public byte[] getValue(String devicePath) {
+						return new byte[] { 7 };
+					}
+
+					@Override
+					public void setValue(String devicePath, int offset, byte[] value) {
+					}
+				}));
+		app.addService(service);
+		starter.join();
+		bluez.setRegistrationDelay(0);
+		check("the application starts while a service is added", startError.get() == null && bluez.isApplicationRegistered());
+		int index = bluez.getCharacteristicPaths().indexOf("/startcheck/late/c");
+		byte[] value = null;
+		if (index >= 0) {
+			try {
+				value = bluez.getCharacteristics(0).get(index).ReadValue(FakeBluez.options("/org/bluez/hci0/dev_00_00_00_00_00_01", 0, 23, null));
+			} catch (RuntimeException e) {
+				// not exported
+			}
+		}
+		check("a service added during the registration is exported", value != null && value.length == 1 && value[0] == 7);
+		app.stop();
+	}
+
+	/**
+	 * The controller runs two advertisements: the application's own takes one, the scheduler rotates its two
+	 * advertisements through the other.
+	 */
+	private void checkFreeAdvertisingSlot(PrivateDBusDaemon daemon, FakeBluez bluez) throws Exception {
+		bluez.setSupportedInstances(2);
+		BleApplication app = createApplication(daemon.getAddress());
+		BleAdvertisementScheduler scheduler = app.getAdvertisementScheduler();
+		scheduler.add(new BleAdvertisement(BleAdvertisement.ADVERTISEMENT_TYPE_BROADCAST, "/startcheck/beacon0"), 100, TimeUnit.MILLISECONDS);
+		scheduler.add(new BleAdvertisement(BleAdvertisement.ADVERTISEMENT_TYPE_BROADCAST, "/startcheck/beacon1"), 100, TimeUnit.MILLISECONDS);
+		app.start();
+		check("the scheduler gets the one free slot", scheduler.getSlots() == 1);
+		boolean withinSlots = true;
+		for (int i = 0; i < 10; i++) {
+			Thread.sleep(50);
+			withinSlots &= bluez.getAdvertisements().size() == 2;
+		}
+		check("the advertisements rotate through the free slot", withinSlots && scheduler.getRotationCount() > 0);
+		app.stop();
+		check("stop withdraws every advertisement", bluez.getAdvertisements().isEmpty());
+		bluez.setSupportedInstances(FakeBluez.SUPPORTED_INSTANCES);
+	}
+
+	/**
+	 * BlueZ refuses the first RemoveDevice calls: the cache keeps counting the devices and the next sweeps remove
+	 * them, the devices left in BlueZ come down to the max.
+	 */
+	private void checkDeviceCacheRetry(PrivateDBusDaemon daemon, FakeBluez bluez) throws Exception {
+		BleDeviceCache deviceCache = new BleDeviceCache("hci0");
+		deviceCache.setBusAddress(daemon.getAddress());
+		deviceCache.setMaxDevices(2);
+		deviceCache.setSweepInterval(200, TimeUnit.MILLISECONDS);
+		deviceCache.start();
+		BleScanner scanner = new BleScanner("hci0");
+		scanner.setBusAddress(daemon.getAddress());
+		scanner.start();
+		bluez.setRemoveDeviceFailures(3);
+		for (int i = 0; i < 6; i++) {
+			bluez.advertise(i, 0x004c, new byte[] { (byte) i }, -60);
+		}
+		for (int i = 0; i < 50 && bluez.getDeviceCount() > 2; i++) {
+			Thread.sleep(100);
+		}
+		check("the devices are removed after the failed RemoveDevice calls", bluez.getDeviceCount() == 2
+				&& deviceCache.getFailedCount() == 3 && deviceCache.getDeviceCount() == 2);
+		scanner.stop();
+		deviceCache.stop();
+	}
+
+	/**
+	 * The scanner and the device cache append a client parameter to a unix:path address: dbus-java ignores it
+	 * and gives them connections of their own, closed without the application's one.
+	 */
+	private void checkPrivateConnections(PrivateDBusDaemon daemon, FakeBluez bluez) throws Exception {
+		check("the daemon listens on a unix:path address", daemon.getAddress().startsWith("unix:path="));
+		BleApplication app = createApplication(daemon.getAddress());
+		app.start();
+		BleDeviceCache deviceCache = new BleDeviceCache("hci0");
+		deviceCache.setBusAddress(daemon.getAddress());
+		deviceCache.start();
+		BleScanner scanner = new BleScanner("hci0");
+		scanner.setBusAddress(daemon.getAddress());
+		AtomicInteger reports = new AtomicInteger();
+		scanner.addListener(report -> reports.incrementAndGet());
+		scanner.start();
+		// bluetoothd, the application, the scanner and the device cache
+		check("the scanner and the device cache have connections of their own", getClientCount(daemon) == 4);
+		bluez.advertise(0, 0x004c, new byte[] { 1 }, -60);
+		for (int i = 0; i < 20 && (reports.get() == 0 || deviceCache.getDeviceCount() == 0); i++) {
+			Thread.sleep(50);
+		}
+		check("the scanner and the device cache receive the advertisement", reports.get() == 1 && deviceCache.getDeviceCount() == 1);
+		scanner.stop();
+		deviceCache.stop();
+		check("closing them leaves the application's connection", getClientCount(daemon) == 2);
+		app.stop();
+		check("the application stops on its connection", !bluez.isApplicationRegistered() && bluez.getAdvertisements().isEmpty());
+	}
+
+	/**
+	 * @return the connections of the other clients of the daemon
+	 */
+	private static int getClientCount(PrivateDBusDaemon daemon) throws DBusException {
+		DBusConnection connection = DBusConnection.getConnection(daemon.getAddress("startcheck"));
+		try {
+			DBus dbus = connection.getRemoteObject("org.freedesktop.DBus", "/org/freedesktop/DBus", DBus.class);
+			int count = 0;
+			for (String name : dbus.ListNames()) {
+				if (name.startsWith(":") && !name.equals(connection.getUniqueName())) {
+					count++;
+				}
+			}
+			return count;
+		} finally {
+			connection.disconnect();
+		}
+	}
+
+	private static BleApplication createApplication(String busAddress) {
+		BleApplication app = new BleApplication("/startcheck", new BleApplicationListener() {
+			@Override
+			public void deviceConnected(String path, String address) {
+			}
+
+			@Override
+			public void deviceDisconnected(String path) {
+			}
+		});
+		app.setBusAddress(busAddress);
+		app.setAdapterName("hci0");
+		BleService service = new BleService("/startcheck/s", SERVICE_UUID, true);
+		service.addCharacteristic(new BleCharacteristic("/startcheck/s/c", service,
+				Arrays.asList(CharacteristicFlag.READ, CharacteristicFlag.WRITE), CHARACTERISTIC_UUID,
+				new BleCharacteristicListener() {
+					@Override
+					public byte[] getValue(String devicePath) {
+						return new byte[0];
+					}
+
+					@Override
+					public void setValue(String devicePath, int offset, byte[] value) {
+					}
+				}));
+		app.addService(service);
+		return app;
+	}
+
+	private void check(String name, boolean passed) {
+		System.out.println((passed ? "PASS " : "FAIL ") + name);
+		if (!passed) {
+			failures++;
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		StartCheck check = new StartCheck();
+		check.run();
+		System.out.println(check.failures == 0 ? "All checks passed" : check.failures + " checks failed");
+		System.exit(check.failures == 0 ? 0 : 1);
+	}
+}